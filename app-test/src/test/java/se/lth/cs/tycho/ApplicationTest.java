@@ -60,7 +60,7 @@ public class ApplicationTest {
 	}
 
 	@Test
-	public void test() throws IOException, Configuration.Builder.UnknownKeyException, InterruptedException {
+	public void test() throws IOException, Configuration.Builder.UnknownKeyException, Configuration.Builder.ReadException, InterruptedException {
 		Path target = Files.createTempDirectory(test.getEntity().toString());
 		Path temp = Files.createTempDirectory("temp");
 		Optional<ProgramTester> optionalTester = ProgramTester.compile(test, target);
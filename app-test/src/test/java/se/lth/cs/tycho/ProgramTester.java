@@ -13,6 +13,7 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -26,18 +27,21 @@ public class ProgramTester {
 		this.executable = executable;
 	}
 
-	public static Optional<ProgramTester> compile(TestDescription test, Path target) throws IOException, Configuration.Builder.UnknownKeyException, InterruptedException {
+	public static Optional<ProgramTester> compile(TestDescription test, Path target) throws IOException, Configuration.Builder.UnknownKeyException, Configuration.Builder.ReadException, InterruptedException {
 		Platform platform = Compiler.defaultPlatform();
 		SettingsManager initialSettings = SettingsManager.initialSettingManager();
 		SettingsManager settings = new SettingsManager.Builder()
 				.addAll(initialSettings.getAllSettings())
 				.addAll(platform.settingsManager()).build();
-		Configuration config = Configuration.builder(settings)
+		Configuration.Builder builder = Configuration.builder(settings)
 				.set(Compiler.sourcePaths, test.getSourcePaths())
 				.set(Compiler.orccSourcePaths, test.getOrccSourcePaths())
 				.set(Compiler.xdfSourcePaths, test.getXDFSourcePaths())
-				.set(Compiler.targetPath, target)
-				.build();
+				.set(Compiler.targetPath, target);
+		for (Map.Entry<String, String> setting : test.getSettings().entrySet()) {
+			builder.set(setting.getKey(), setting.getValue());
+		}
+		Configuration config = builder.build();
 		OutputCapturer capturer = new OutputCapturer();
 		capturer.start();
 		ProgramTester tester = null;
@@ -51,6 +55,7 @@ public class ProgramTester {
 				List<String> command = new ArrayList<>();
 				command.add("cc");
 				command.add("-std=c99");
+				command.add("-pthread");
 				command.add(String.format("-I%s", target));
 				cfiles.forEach(p -> command.add(p.toAbsolutePath().toString()));
 				test.getExternalSources().forEach(p -> command.add(p.toAbsolutePath().toString()));
@@ -10,6 +10,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 public class TestDescription {
@@ -30,6 +31,7 @@ public class TestDescription {
 	@SerializedName("external-sources")
 	private List<Path> externalSources;
 	private QID entity;
+	private Map<String, String> settings;
 	@SerializedName("test-data")
 	private List<TestData> testData;
 
@@ -64,6 +66,10 @@ public class TestDescription {
 		return entity;
 	}
 
+	public Map<String, String> getSettings() {
+		return settings == null ? Collections.emptyMap() : settings;
+	}
+
 	public List<TestData> getTestData() {
 		return testData == null ? Collections.emptyList() : testData;
 	}
@@ -78,6 +84,7 @@ public class TestDescription {
 		result.orccSourcePaths = getOrccSourcePaths().stream().map(directory::resolve).collect(Collectors.toList());
 		result.externalSources = getExternalSources().stream().map(directory::resolve).collect(Collectors.toList());
 		result.entity = entity;
+		result.settings = settings;
 		result.testData = getTestData().stream().map(d -> d.resolvePaths(testFile)).collect(Collectors.toList());
 		return result;
 	}
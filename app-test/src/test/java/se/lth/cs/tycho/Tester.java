@@ -22,7 +22,7 @@ public class Tester {
 		this.targetPath = targetPath;
 	}
 
-	public void run() throws InterruptedException, IOException, Configuration.Builder.UnknownKeyException {
+	public void run() throws InterruptedException, IOException, Configuration.Builder.UnknownKeyException, Configuration.Builder.ReadException {
 		for (TestDescription test : descriptions) {
 			Optional<ProgramTester> optionalTester = ProgramTester.compile(test, targetPath);
 			if (optionalTester.isPresent()) {
@@ -94,7 +94,7 @@ public class Tester {
 		Tester t = new Tester(testDescriptions, targetPath.toAbsolutePath());
 		try {
 			t.run();
-		} catch (InterruptedException | IOException | Configuration.Builder.UnknownKeyException e) {
+		} catch (InterruptedException | IOException | Configuration.Builder.UnknownKeyException | Configuration.Builder.ReadException e) {
 			System.err.println("Error: " + e.getMessage());
 			System.exit(1);
 		} catch (AssertionError e) {
@@ -0,0 +1,11 @@
+#include <stdint.h>
+
+static int32_t flag;
+
+void setFlag(int32_t value) {
+	flag = value;
+}
+
+int32_t getFlag(void) {
+	return flag;
+}
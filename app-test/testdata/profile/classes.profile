@@ -0,0 +1,15 @@
+Count condition 0 102 0
+Count condition 1 100 2
+Count transition 0 100
+Classify condition 0 100 2
+Classify condition 1 100 0
+Classify condition 2 10 90
+Classify condition 3 10 80
+Classify condition 4 80 0
+Classify condition 5 5 75
+Classify condition 6 75 0
+Classify condition 7 75 0
+Classify transition 0 10
+Classify transition 1 10
+Classify transition 2 5
+Classify transition 3 75
@@ -0,0 +1,9 @@
+#include <stdio.h>
+#include <stdint.h>
+
+static char buffer[64];
+
+char *greeting(int32_t n) {
+	sprintf(buffer, "<hi%d>", n);
+	return buffer;
+}
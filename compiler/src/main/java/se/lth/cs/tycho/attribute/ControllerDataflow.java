@@ -0,0 +1,242 @@
+package se.lth.cs.tycho.attribute;
+
+import se.lth.cs.tycho.ir.entity.am.ctrl.Controller;
+import se.lth.cs.tycho.ir.entity.am.ctrl.Instruction;
+import se.lth.cs.tycho.ir.entity.am.ctrl.State;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A solver for forward dataflow problems over the states of a controller, where the values are sets of bits. The value
+ * of a state is the meet of the values after the instructions that lead to it, and the value after an instruction is a
+ * function of the value of its source state. States without incoming instructions keep the initial value.
+ * <p>
+ * The states are densely indexed and their values are stored as word arrays. The solver visits the states in reverse
+ * postorder from the initial state and only revisits a state when the value of one of its predecessors has changed.
+ * The structure of the controller is computed once and can be used for several problems.
+ */
+public final class ControllerDataflow {
+	private final List<State> states;
+	private final Map<State, Integer> index;
+	private final Map<Instruction, Integer> source;
+	private final int[] order;
+	private final int[] successorStart;
+	private final int[] successors;
+	private final int[] incomingStart;
+	private final int[] incomingSource;
+	private final Instruction[] incomingInstruction;
+
+	public enum Meet {
+		INTERSECTION, UNION
+	}
+
+	@FunctionalInterface
+	public interface Transfer {
+		/**
+		 * Stores the value after the instruction in {@code out}, given the value of its source state in {@code in}.
+		 * Both arrays have the same length and {@code in} must not be modified.
+		 */
+		void apply(Instruction instruction, long[] in, long[] out);
+	}
+
+	public ControllerDataflow(Controller controller) {
+		states = controller.getStateList();
+		int n = states.size();
+		index = new IdentityHashMap<>();
+		for (State state : states) {
+			index.put(state, index.size());
+		}
+
+		source = new IdentityHashMap<>();
+		int[][] targets = new int[n][];
+		int[] incomingCount = new int[n + 1];
+		for (int s = 0; s < n; s++) {
+			List<Integer> stateTargets = new ArrayList<>();
+			for (Instruction instruction : states.get(s).getInstructions()) {
+				source.put(instruction, s);
+				instruction.forEachTarget(target -> {
+					int t = index(target);
+					stateTargets.add(t);
+					incomingCount[t + 1] += 1;
+				});
+			}
+			targets[s] = stateTargets.stream().mapToInt(Integer::intValue).toArray();
+		}
+
+		successorStart = new int[n + 1];
+		for (int s = 0; s < n; s++) {
+			successorStart[s + 1] = successorStart[s] + targets[s].length;
+		}
+		successors = new int[successorStart[n]];
+		for (int s = 0; s < n; s++) {
+			System.arraycopy(targets[s], 0, successors, successorStart[s], targets[s].length);
+		}
+
+		incomingStart = incomingCount;
+		for (int t = 0; t < n; t++) {
+			incomingStart[t + 1] += incomingStart[t];
+		}
+		incomingSource = new int[incomingStart[n]];
+		incomingInstruction = new Instruction[incomingStart[n]];
+		int[] fill = Arrays.copyOf(incomingStart, n);
+		for (int s = 0; s < n; s++) {
+			for (Instruction instruction : states.get(s).getInstructions()) {
+				int from = s;
+				instruction.forEachTarget(target -> {
+					int e = fill[index(target)]++;
+					incomingSource[e] = from;
+					incomingInstruction[e] = instruction;
+				});
+			}
+		}
+
+		order = reversePostorder(index(controller.getInitialState()));
+	}
+
+	/**
+	 * The states in reverse postorder of a depth-first search from the given state, preceded by the states that are
+	 * not reachable from it, so that every state is included.
+	 */
+	private int[] reversePostorder(int initial) {
+		int n = states.size();
+		int[] postorder = new int[n];
+		int done = 0;
+		boolean[] visited = new boolean[n];
+		int[] stack = new int[n];
+		int[] next = new int[n];
+		for (int k = -1; k < n; k++) {
+			int root = k < 0 ? initial : k;
+			if (visited[root]) {
+				continue;
+			}
+			int depth = 0;
+			stack[0] = root;
+			next[0] = successorStart[root];
+			visited[root] = true;
+			while (depth >= 0) {
+				int s = stack[depth];
+				if (next[depth] < successorStart[s + 1]) {
+					int t = successors[next[depth]++];
+					if (!visited[t]) {
+						visited[t] = true;
+						depth += 1;
+						stack[depth] = t;
+						next[depth] = successorStart[t];
+					}
+				} else {
+					postorder[done++] = s;
+					depth -= 1;
+				}
+			}
+		}
+		int[] result = new int[n];
+		for (int i = 0; i < n; i++) {
+			result[i] = postorder[n - 1 - i];
+		}
+		return result;
+	}
+
+	public int stateCount() {
+		return states.size();
+	}
+
+	public int index(State state) {
+		Integer i = index.get(state);
+		assert i != null;
+		return i;
+	}
+
+	public State state(int index) {
+		return states.get(index);
+	}
+
+	/**
+	 * The index of the state that contains the instruction.
+	 */
+	public int source(Instruction instruction) {
+		Integer s = source.get(instruction);
+		assert s != null;
+		return s;
+	}
+
+	/**
+	 * Solves the problem where every state starts with the initial value, and returns the value of each state.
+	 */
+	public Solution solve(int bits, BitSet initial, Meet meet, Transfer transfer) {
+		int n = states.size();
+		int words = (bits + 63) / 64;
+		long[] start = Arrays.copyOf(initial.toLongArray(), words);
+		long[][] values = new long[n][];
+		for (int s = 0; s < n; s++) {
+			values[s] = start.clone();
+		}
+
+		int[] position = new int[n];
+		for (int i = 0; i < n; i++) {
+			position[order[i]] = i;
+		}
+		BitSet queued = new BitSet(n);
+		queued.set(0, n);
+		long[] computed = new long[words];
+		long[] out = new long[words];
+		int i = 0;
+		while (!queued.isEmpty()) {
+			i = queued.nextSetBit(i);
+			if (i < 0) {
+				i = queued.nextSetBit(0);
+			}
+			queued.clear(i);
+			int s = order[i];
+			if (incomingStart[s] == incomingStart[s + 1]) {
+				continue;
+			}
+			for (int e = incomingStart[s]; e < incomingStart[s + 1]; e++) {
+				long[] target = e == incomingStart[s] ? computed : out;
+				transfer.apply(incomingInstruction[e], values[incomingSource[e]], target);
+				if (target == out) {
+					for (int w = 0; w < words; w++) {
+						computed[w] = meet == Meet.INTERSECTION ? computed[w] & out[w] : computed[w] | out[w];
+					}
+				}
+			}
+			if (!Arrays.equals(computed, values[s])) {
+				System.arraycopy(computed, 0, values[s], 0, words);
+				for (int t = successorStart[s]; t < successorStart[s + 1]; t++) {
+					queued.set(position[successors[t]]);
+				}
+			}
+		}
+		return new Solution(values);
+	}
+
+	public final class Solution {
+		private final long[][] values;
+
+		private Solution(long[][] values) {
+			this.values = values;
+		}
+
+		/**
+		 * The value of a state as words, which must not be modified.
+		 */
+		public long[] words(int state) {
+			return values[state];
+		}
+
+		public BitSet valueOf(State state) {
+			return BitSet.valueOf(values[index(state)]);
+		}
+
+		/**
+		 * The value of the state that contains the instruction.
+		 */
+		public BitSet valueBefore(Instruction instruction) {
+			return BitSet.valueOf(values[source(instruction)]);
+		}
+	}
+}
@@ -12,6 +12,7 @@ import se.lth.cs.tycho.ir.entity.am.Scope;
 import se.lth.cs.tycho.ir.entity.am.Transition;
 import se.lth.cs.tycho.phase.TreeShadow;
 
+import java.util.Collections;
 import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.Set;
@@ -42,7 +43,7 @@ public interface ScopeDependencies {
 
         @Binding(BindingKind.LAZY)
         default Map<IRNode, Set<Scope>> deps() {
-            return new IdentityHashMap<>();
+            return Collections.synchronizedMap(new IdentityHashMap<>());
         }
 
         @Override
@@ -2,8 +2,6 @@ package se.lth.cs.tycho.attribute;
 
 import se.lth.cs.tycho.ir.entity.am.ActorMachine;
 import se.lth.cs.tycho.ir.entity.am.ctrl.Instruction;
-import se.lth.cs.tycho.ir.entity.am.ctrl.State;
-import se.lth.cs.tycho.ir.util.ImmutableList;
 import se.lth.cs.tycho.util.BitSets;
 
 import java.util.*;
@@ -11,103 +9,38 @@ import java.util.*;
 public class ScopeLiveness {
 	private final ActorMachineScopes scopes;
 	private final ActorMachine actorMachine;
-	private final HashMap<Instruction, State> sourceState;
-	private final HashMap<State, List<Instruction>> incoming;
-	private final HashMap<State, BitSet> alive;
 	private final ScopeInvalidation invalidation;
+	private final int words;
+	private final Map<Instruction, long[]> required;
+	private final Map<Instruction, long[]> killed;
+	private final ControllerDataflow.Solution alive;
 
 	public ScopeLiveness(ActorMachineScopes scopes, ActorMachine actorMachine, ScopeDependencies scopeDependencies) {
 		this.scopes = scopes;
 		this.actorMachine = actorMachine;
-		this.sourceState = new HashMap<>();
-		this.incoming = new HashMap<>();
-		this.alive = new HashMap<>();
-		invalidation = new ScopeInvalidation(actorMachine, scopes, scopeDependencies);
-		initLinks();
-		computeLiveness();
-	}
-
-	private void initLinks() {
-		for (State s : actorMachine.controller().getStateList()) {
-			for (Instruction i : s.getInstructions()) {
-				sourceState.put(i, s);
-				for (State t : targetStates(i)) {
-					incoming.computeIfAbsent(t, x -> new ArrayList<>()).add(i);
-				}
-			}
-		}
-	}
-
-	private void computeLiveness() {
-		Queue<State> states = new ArrayDeque<>();
-		states.addAll(actorMachine.controller().getStateList());
-		while (!states.isEmpty()) {
-			State s = states.remove();
-			BitSet current = currentAlive(s);
-			BitSet computed = computeAlive(s);
-			if (!current.equals(computed)) {
-				alive.put(s, computed);
-				for (Instruction i : outgoing(s)) {
-					states.addAll(targetStates(i));
-				}
-			}
-		}
+		this.invalidation = new ScopeInvalidation(actorMachine, scopes, scopeDependencies);
+		this.words = (actorMachine.getScopes().size() + 63) / 64;
+		this.required = new IdentityHashMap<>();
+		this.killed = new IdentityHashMap<>();
+		this.alive = new ControllerDataflow(actorMachine.controller())
+				.solve(actorMachine.getScopes().size(), scopes.persistentScopes(actorMachine), ControllerDataflow.Meet.INTERSECTION, this::aliveOut);
 	}
 
 	public BitSet init(Instruction i) {
-		BitSet aliveSource = currentAlive(sourceState(i));
+		BitSet aliveSource = alive.valueBefore(i);
 		BitSet required = scopes.required(actorMachine, i);
 		return BitSets.difference(required, aliveSource);
 	}
 
-	private BitSet persistentScopes() {
-		return scopes.persistentScopes(actorMachine);
-	}
-
-	private BitSet transientScopes() {
-		return scopes.transientScopes(actorMachine);
-	}
-
-	private BitSet kill(Instruction i) {
-		return invalidation.killed(i);
-	}
-
-	private BitSet aliveOut(Instruction i) {
-		BitSet aliveSource = currentAlive(sourceState(i));
-		BitSet required = scopes.required(actorMachine, i);
-		BitSet kill = kill(i);
-		return BitSets.difference(BitSets.union(aliveSource, required), kill);
-	}
-
-	private BitSet currentAlive(State s) {
-		return alive.computeIfAbsent(s, x -> persistentScopes());
-	}
-
-	private BitSet computeAlive(State s) {
-		return incoming(s).stream()
-				.map(this::aliveOut)
-				.reduce(BitSets::intersection)
-				.orElse(persistentScopes());
-	}
-
-	private List<Instruction> incoming(State targetState) {
-		return incoming.getOrDefault(targetState, ImmutableList.empty());
-	}
-
-	private List<Instruction> outgoing(State sourceState) {
-		return sourceState.getInstructions();
-	}
-
-	private State sourceState(Instruction instruction) {
-		State source = sourceState.get(instruction);
-		assert source != null;
-		return source;
+	private void aliveOut(Instruction i, long[] aliveSource, long[] result) {
+		long[] required = this.required.computeIfAbsent(i, x -> words(scopes.required(actorMachine, x)));
+		long[] kill = killed.computeIfAbsent(i, x -> words(invalidation.killed(x)));
+		for (int w = 0; w < words; w++) {
+			result[w] = (aliveSource[w] | required[w]) & ~kill[w];
+		}
 	}
 
-	private List<State> targetStates(Instruction instruction) {
-		return instruction.accept(
-				exec -> ImmutableList.of(exec.target()),
-				test -> ImmutableList.of(test.targetTrue(), test.targetFalse()),
-				wait -> ImmutableList.of(wait.target()));
+	private long[] words(BitSet set) {
+		return Arrays.copyOf(set.toLongArray(), words);
 	}
 }
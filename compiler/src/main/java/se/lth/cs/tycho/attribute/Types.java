@@ -313,50 +313,52 @@ public interface Types {
         }
 
         default Type declaredGlobalType(GlobalTypeDecl decl) {
-            if (declaredGlobalTypeMap().isEmpty()) {
-                ImmutableList<TypeDecl> declarations = typeScopes().declarations(getSourceUnit(decl).getTree());
-
-                // First pass
-                declarations.stream().filter(AlgebraicTypeDecl.class::isInstance).forEach(declaration -> {
-                    Type type = null;
-                    GlobalTypeDecl globalTypeDecl = (GlobalTypeDecl) declaration;
-                    if (globalTypeDecl instanceof ProductTypeDecl) {
-                        ProductTypeDecl productTypeDecl = (ProductTypeDecl) globalTypeDecl;
-                        type = new ProductType(productTypeDecl.getName(), new ArrayList<>(productTypeDecl.getFields().size()));
-                    } else if (globalTypeDecl instanceof SumTypeDecl) {
-                        SumTypeDecl sumTypeDecl = (SumTypeDecl) globalTypeDecl;
-                        type = new SumType(sumTypeDecl.getName(), sumTypeDecl.getVariants().stream().map(variant -> new SumType.VariantType(variant.getName(), new ArrayList<>(variant.getFields().size()))).collect(Collectors.toList()));
-                    }
-                    declaredGlobalTypeMap().put(globalTypeDecl, type);
-                });
-                declarations.stream().filter(AliasTypeDecl.class::isInstance).forEach(declaration -> {
-                    AliasTypeDecl aliasTypeDecl = (AliasTypeDecl) declaration;
-                    Type type = new AliasType(aliasTypeDecl.getName(), convert(aliasTypeDecl.getType()));
-                    declaredGlobalTypeMap().put(aliasTypeDecl, type);
-                });
-
-                // Second pass
-                declarations.forEach(declaration -> {
-                    GlobalTypeDecl globalTypeDecl = (GlobalTypeDecl) declaration;
-                    Type type = declaredGlobalTypeMap().get(globalTypeDecl);
-                    if (type instanceof ProductType) {
-                        ProductTypeDecl productTypeDecl = (ProductTypeDecl) globalTypeDecl;
-                        ProductType productType = (ProductType) type;
-                        for (int i = 0; i < productTypeDecl.getFields().size(); ++i) {
-                            productType.getFields().add(new FieldType(productTypeDecl.getFields().get(i).getName(), convert(productTypeDecl.getFields().get(i).getType())));
+            synchronized (declaredGlobalTypeMap()) {
+                if (declaredGlobalTypeMap().isEmpty()) {
+                    ImmutableList<TypeDecl> declarations = typeScopes().declarations(getSourceUnit(decl).getTree());
+
+                    // First pass
+                    declarations.stream().filter(AlgebraicTypeDecl.class::isInstance).forEach(declaration -> {
+                        Type type = null;
+                        GlobalTypeDecl globalTypeDecl = (GlobalTypeDecl) declaration;
+                        if (globalTypeDecl instanceof ProductTypeDecl) {
+                            ProductTypeDecl productTypeDecl = (ProductTypeDecl) globalTypeDecl;
+                            type = new ProductType(productTypeDecl.getName(), new ArrayList<>(productTypeDecl.getFields().size()));
+                        } else if (globalTypeDecl instanceof SumTypeDecl) {
+                            SumTypeDecl sumTypeDecl = (SumTypeDecl) globalTypeDecl;
+                            type = new SumType(sumTypeDecl.getName(), sumTypeDecl.getVariants().stream().map(variant -> new SumType.VariantType(variant.getName(), new ArrayList<>(variant.getFields().size()))).collect(Collectors.toList()));
                         }
-                    } else if (type instanceof SumType) {
-                        SumTypeDecl sumTypeDecl = (SumTypeDecl) globalTypeDecl;
-                        SumType sumType = (SumType) type;
-                        for (int i = 0; i < sumTypeDecl.getVariants().size(); ++i) {
-                            SumTypeDecl.VariantDecl variantDecl = sumTypeDecl.getVariants().get(i);
-                            SumType.VariantType variantType = sumType.getVariants().get(i);
-                            for (int j = 0; j < variantDecl.getFields().size(); ++j) {
-                                variantType.getFields().add(new FieldType(variantDecl.getFields().get(j).getName(), convert(variantDecl.getFields().get(j).getType())));
+                        declaredGlobalTypeMap().put(globalTypeDecl, type);
+                    });
+                    declarations.stream().filter(AliasTypeDecl.class::isInstance).forEach(declaration -> {
+                        AliasTypeDecl aliasTypeDecl = (AliasTypeDecl) declaration;
+                        Type type = new AliasType(aliasTypeDecl.getName(), convert(aliasTypeDecl.getType()));
+                        declaredGlobalTypeMap().put(aliasTypeDecl, type);
+                    });
+
+                    // Second pass
+                    declarations.forEach(declaration -> {
+                        GlobalTypeDecl globalTypeDecl = (GlobalTypeDecl) declaration;
+                        Type type = declaredGlobalTypeMap().get(globalTypeDecl);
+                        if (type instanceof ProductType) {
+                            ProductTypeDecl productTypeDecl = (ProductTypeDecl) globalTypeDecl;
+                            ProductType productType = (ProductType) type;
+                            for (int i = 0; i < productTypeDecl.getFields().size(); ++i) {
+                                productType.getFields().add(new FieldType(productTypeDecl.getFields().get(i).getName(), convert(productTypeDecl.getFields().get(i).getType())));
+                            }
+                        } else if (type instanceof SumType) {
+                            SumTypeDecl sumTypeDecl = (SumTypeDecl) globalTypeDecl;
+                            SumType sumType = (SumType) type;
+                            for (int i = 0; i < sumTypeDecl.getVariants().size(); ++i) {
+                                SumTypeDecl.VariantDecl variantDecl = sumTypeDecl.getVariants().get(i);
+                                SumType.VariantType variantType = sumType.getVariants().get(i);
+                                for (int j = 0; j < variantDecl.getFields().size(); ++j) {
+                                    variantType.getFields().add(new FieldType(variantDecl.getFields().get(j).getName(), convert(variantDecl.getFields().get(j).getType())));
+                                }
                             }
                         }
-                    }
-                });
+                    });
+                }
             }
 
             return declaredGlobalTypeMap().get(decl);
@@ -459,7 +461,13 @@ public interface Types {
         }
 
         default Type type(LValue lvalue) {
-            return lvalueTypeMap().computeIfAbsent(lvalue, this::computeLValueType);
+            Type type = lvalueTypeMap().get(lvalue);
+            if (type == null) {
+                type = computeLValueType(lvalue);
+                Type old = lvalueTypeMap().putIfAbsent(lvalue, type);
+                return old != null ? old : type;
+            }
+            return type;
         }
 
         default Type declaredPortType(PortDecl port) {
@@ -8,7 +8,11 @@ import se.lth.cs.tycho.parsing.cal.Token;
 import se.lth.cs.tycho.reporting.Diagnostic;
 import se.lth.cs.tycho.reporting.Reporter;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitOption;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -26,12 +30,16 @@ public class CalLoader implements Loader {
 	private final Map<QID, List<SourceUnit>> sourceCache;
 	private final List<Path> directories;
 	private final boolean followLinks;
+	private final int threads;
+	private final ParseCache cache;
 	private Map<QID, List<Path>> fileRegister;
 
-	public CalLoader(Reporter reporter, List<Path> directories, boolean followLinks) {
+	public CalLoader(Reporter reporter, List<Path> directories, boolean followLinks, int threads, ParseCache cache) {
 		this.reporter = reporter;
 		this.directories = directories;
 		this.followLinks = followLinks;
+		this.threads = threads;
+		this.cache = cache;
 		this.fileRegister = null;
 		this.sourceCache = new HashMap<>();
 	}
@@ -84,10 +92,18 @@ public class CalLoader implements Loader {
 		);
 	}
 
-	private NamespaceDecl parse(Path p) {
+	private NamespaceDecl parse(Path p, Reporter reporter) {
 		try {
-			CalParser parser = new CalParser(Files.newBufferedReader(p));
-			return parser.CompilationUnit();
+			byte[] content = Files.readAllBytes(p);
+			String key = cache.key(p.toAbsolutePath().toString(), content);
+			NamespaceDecl cached = cache.lookup(key);
+			if (cached != null) {
+				return cached;
+			}
+			CalParser parser = new CalParser(new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8.newDecoder()));
+			NamespaceDecl ns = parser.CompilationUnit();
+			cache.store(key, ns, reporter);
+			return ns;
 		} catch (IOException e) {
 			reporter.report(new Diagnostic(Diagnostic.Kind.ERROR, "Error while reading file " + p.toAbsolutePath()));
 			return null;
@@ -97,14 +113,25 @@ public class CalLoader implements Loader {
 		}
 	}
 
-	private QID scanNamespaceDecl(Path p) {
-		NamespaceDecl ns = parse(p);
-		return ns == null ? null : ns.getQID();
+	/**
+	 * Reads only the namespace header of a file. The full parse is deferred to loadNamespace, which caches the
+	 * result per namespace, so that each file is parsed at most once and only if its namespace is requested.
+	 */
+	private QID scanNamespaceDecl(Path p, Reporter reporter) {
+		try (Reader reader = Files.newBufferedReader(p)) {
+			CalParser parser = new CalParser(reader);
+			return parser.NamespaceScan();
+		} catch (IOException e) {
+			reporter.report(new Diagnostic(Diagnostic.Kind.ERROR, "Error while reading file " + p.toAbsolutePath()));
+			return null;
+		} catch (ParseException e) {
+			reporter.report(toDiagnostic(p, e));
+			return null;
+		}
 	}
 
 	private void initFileRegister() {
-		Map<QID, List<Path>> result = new HashMap<>();
-		directories.stream()
+		List<Path> files = directories.stream()
 				.flatMap(p -> {
 					try {
 						return followLinks ? Files.walk(p, FileVisitOption.FOLLOW_LINKS) : Files.walk(p);
@@ -116,12 +143,15 @@ public class CalLoader implements Loader {
 				.filter(Files::isRegularFile)
 				.filter(p -> p.toString().endsWith(".cal"))
 				.distinct()
-				.forEach(path -> {
-					QID qid = scanNamespaceDecl(path);
-					if (qid != null) {
-						result.computeIfAbsent(qid, x -> new ArrayList<>()).add(path);
-					}
-				});
+				.collect(Collectors.toList());
+		List<QID> namespaces = ParallelLoading.map(files, threads, reporter, this::scanNamespaceDecl);
+		Map<QID, List<Path>> result = new HashMap<>();
+		for (int i = 0; i < files.size(); i++) {
+			QID qid = namespaces.get(i);
+			if (qid != null) {
+				result.computeIfAbsent(qid, x -> new ArrayList<>()).add(files.get(i));
+			}
+		}
 		this.fileRegister = result;
 	}
 
@@ -130,10 +160,17 @@ public class CalLoader implements Loader {
 		if (fileRegister == null) {
 			initFileRegister();
 		}
-		return sourceCache.computeIfAbsent(qid, key ->
-				fileRegister.getOrDefault(key, Collections.emptyList()).stream()
-						.map(p -> new SourceFile(p, parse(p), SourceUnit.InputLanguage.CAL))
-						.collect(Collectors.toList()));
+		return sourceCache.computeIfAbsent(qid, key -> {
+			List<Path> files = fileRegister.getOrDefault(key, Collections.emptyList());
+			List<NamespaceDecl> trees = ParallelLoading.map(files, threads, reporter, this::parse);
+			List<SourceUnit> result = new ArrayList<>();
+			for (int i = 0; i < files.size(); i++) {
+				if (trees.get(i) != null) {
+					result.add(new SourceFile(files.get(i), trees.get(i), SourceUnit.InputLanguage.CAL));
+				}
+			}
+			return result;
+		});
 	}
 
 }
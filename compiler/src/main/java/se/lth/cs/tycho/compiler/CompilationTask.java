@@ -28,7 +28,7 @@ public class CompilationTask implements IRNode {
         this.moduleStore = new IdentityHashMap<>();
     }
 
-    public <M> M getModule(ModuleKey<M> key) {
+    public synchronized <M> M getModule(ModuleKey<M> key) {
         return (M) moduleStore.computeIfAbsent(key, k -> k.createInstance(this));
     }
 
@@ -9,6 +9,7 @@ import se.lth.cs.tycho.reporting.CompilationException;
 import se.lth.cs.tycho.reporting.Diagnostic;
 import se.lth.cs.tycho.reporting.Reporter;
 import se.lth.cs.tycho.settings.Configuration;
+import se.lth.cs.tycho.settings.IntegerSetting;
 import se.lth.cs.tycho.settings.OnOffSetting;
 import se.lth.cs.tycho.settings.PathListSetting;
 import se.lth.cs.tycho.settings.PathSetting;
@@ -135,6 +136,7 @@ public class Compiler {
                 new CompositionEntitiesUniquePhase(),
                 new CompositionPhase(),
                 new InternalizeBuffersPhase(),
+                new InferBufferSizesPhase(),
                 new RemoveUnusedConditionsPhase(),
                 new LiftScopesPhase()
         );
@@ -242,6 +244,23 @@ public class Compiler {
         }
     };
 
+    public static final Setting<Integer> actorMachineThreads = new IntegerSetting() {
+        @Override
+        public String getKey() {
+            return "actor-machine-threads";
+        }
+
+        @Override
+        public String getDescription() {
+            return "Number of threads used for reducing the actor machines. The actor machines are processed sequentially if set to 1.";
+        }
+
+        @Override
+        public Integer defaultValue(Configuration configuration) {
+            return 1;
+        }
+    };
+
     public Compiler(Platform platform, Configuration configuration) {
         Reporter reporter = Reporter.instance(configuration);
         Loader loader = Loader.instance(configuration, reporter);
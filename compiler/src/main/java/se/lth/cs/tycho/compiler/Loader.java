@@ -3,8 +3,11 @@ package se.lth.cs.tycho.compiler;
 import se.lth.cs.tycho.ir.QID;
 import se.lth.cs.tycho.reporting.Reporter;
 import se.lth.cs.tycho.settings.Configuration;
+import se.lth.cs.tycho.settings.IntegerSetting;
 import se.lth.cs.tycho.settings.OnOffSetting;
+import se.lth.cs.tycho.settings.PathSetting;
 
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
 
@@ -12,11 +15,12 @@ public interface Loader {
 	List<SourceUnit> loadNamespace(QID qid);
 
 	static Loader instance(Configuration configuration, Reporter reporter) {
+		ParseCache cache = ParseCache.instance(configuration);
 		return new CombinedLoader(Arrays.asList(
-				new CalLoader(reporter, configuration.get(Compiler.sourcePaths), configuration.get(followLinks)),
-				new OrccLoader(reporter, configuration.get(Compiler.orccSourcePaths), configuration.get(followLinks)),
-				new XdfLoader(reporter, configuration.get(Compiler.xdfSourcePaths)),
-				new PreludeLoader(reporter)));
+				new CalLoader(reporter, configuration.get(Compiler.sourcePaths), configuration.get(followLinks), configuration.get(loaderThreads), cache),
+				new OrccLoader(reporter, configuration.get(Compiler.orccSourcePaths), configuration.get(followLinks), configuration.get(loaderThreads), cache),
+				new XdfLoader(reporter, configuration.get(Compiler.xdfSourcePaths), configuration.get(loaderThreads), cache),
+				new PreludeLoader(reporter, cache)));
 	}
 
 	OnOffSetting followLinks = new OnOffSetting() {
@@ -36,4 +40,55 @@ public interface Loader {
 		}
 	};
 
+	IntegerSetting loaderThreads = new IntegerSetting() {
+		@Override
+		public String getKey() {
+			return "loader-threads";
+		}
+
+		@Override
+		public String getDescription() {
+			return "Number of threads used for parsing source files. Files are parsed sequentially if set to 1.";
+		}
+
+		@Override
+		public Integer defaultValue(Configuration configuration) {
+			return 1;
+		}
+	};
+
+	OnOffSetting parseCache = new OnOffSetting() {
+		@Override
+		public String getKey() {
+			return "parse-cache";
+		}
+
+		@Override
+		public String getDescription() {
+			return "Stores parsed source files on disk and reuses them in later compilations if the files are unchanged.";
+		}
+
+		@Override
+		public Boolean defaultValue(Configuration configuration) {
+			return false;
+		}
+	};
+
+	PathSetting parseCachePath = new PathSetting() {
+		@Override
+		public String getKey() {
+			return "parse-cache-path";
+		}
+
+		@Override
+		public String getDescription() {
+			return "Directory of the parse cache.";
+		}
+
+		@Override
+		public Path defaultValue(Configuration configuration) {
+			return configuration.get(Compiler.targetPath).resolve(".parse-cache");
+		}
+	};
+
 }
@@ -16,7 +16,7 @@ public class Main {
 
     private static final String toolName = "tychoc";
     private static final String toolFullName = "The StreamBlocks Tycho Compiler";
-    private static final String toolVersion = "0.0.1-SNAPSHOT";
+    static final String toolVersion = "0.0.1-SNAPSHOT";
 
     public static void main(String[] args) {
         Main main = new Main();
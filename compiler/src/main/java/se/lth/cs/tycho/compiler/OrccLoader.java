@@ -7,7 +7,9 @@ import se.lth.cs.tycho.parsing.orcc.ParseException;
 import se.lth.cs.tycho.reporting.Diagnostic;
 import se.lth.cs.tycho.reporting.Reporter;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.Reader;
 import java.nio.charset.Charset;
 import java.nio.file.FileVisitOption;
@@ -26,22 +28,34 @@ public class OrccLoader implements Loader {
 	private final Map<QID, List<SourceUnit>> sourceCache;
 	private final List<Path> directories;
 	private final boolean followLinks;
+	private final int threads;
+	private final ParseCache cache;
 	private Map<QID, List<Path>> fileRegister;
 
-	public OrccLoader(Reporter reporter, List<Path> directories, boolean followLinks) {
+	public OrccLoader(Reporter reporter, List<Path> directories, boolean followLinks, int threads, ParseCache cache) {
 		this.reporter = reporter;
 		this.directories = directories;
 		this.followLinks = followLinks;
+		this.threads = threads;
+		this.cache = cache;
 		this.fileRegister = null;
 		this.sourceCache = new HashMap<>();
 	}
 
-	private NamespaceDecl parse(Path p) {
+	private NamespaceDecl parse(Path p, Reporter reporter) {
 
-		try(Reader reader = Files.newBufferedReader(p, Charset.forName("Latin1"))) {
-			OrccParser parser = new OrccParser(reader);
+		try {
+			byte[] content = Files.readAllBytes(p);
+			String key = cache.key(p.toAbsolutePath().toString(), content);
+			NamespaceDecl cached = cache.lookup(key);
+			if (cached != null) {
+				return cached;
+			}
+			OrccParser parser = new OrccParser(new InputStreamReader(new ByteArrayInputStream(content), Charset.forName("Latin1")));
 			//parser.setOperatorPriorities(OrccParser.defaultPriorities());
-			return parser.CompilationUnit();
+			NamespaceDecl ns = parser.CompilationUnit();
+			cache.store(key, ns, reporter);
+			return ns;
 		} catch (IOException e) {
 			reporter.report(new Diagnostic(Diagnostic.Kind.ERROR, e.getMessage()));
 			return null;
@@ -51,8 +65,8 @@ public class OrccLoader implements Loader {
 		}
 	}
 
-	private QID scanNamespaceDecl(Path p) {
-		NamespaceDecl ns = parse(p);
+	private QID scanNamespaceDecl(Path p, Reporter reporter) {
+		NamespaceDecl ns = parse(p, reporter);
 		if (ns != null) {
 			return ns.getQID();
 		} else {
@@ -72,8 +86,7 @@ public class OrccLoader implements Loader {
 	}
 
 	private void initFileRegister() {
-		Map<QID, List<Path>> result = new HashMap<>();
-		directories.stream()
+		List<Path> files = directories.stream()
 				.flatMap(p -> {
 					try {
 						return followLinks ? Files.walk(p, FileVisitOption.FOLLOW_LINKS) : Files.walk(p);
@@ -85,12 +98,15 @@ public class OrccLoader implements Loader {
 				.filter(Files::isRegularFile)
 				.filter(p -> p.toString().endsWith(".cal"))
 				.distinct()
-				.forEach(path -> {
-					QID qid = scanNamespaceDecl(path);
-					if (qid != null) {
-						result.computeIfAbsent(qid, x -> new ArrayList<>()).add(path);
-					}
-				});
+				.collect(Collectors.toList());
+		List<QID> namespaces = ParallelLoading.map(files, threads, reporter, this::scanNamespaceDecl);
+		Map<QID, List<Path>> result = new HashMap<>();
+		for (int i = 0; i < files.size(); i++) {
+			QID qid = namespaces.get(i);
+			if (qid != null) {
+				result.computeIfAbsent(qid, x -> new ArrayList<>()).add(files.get(i));
+			}
+		}
 		this.fileRegister = result;
 	}
 
@@ -99,10 +115,15 @@ public class OrccLoader implements Loader {
 		if (fileRegister == null) {
 			initFileRegister();
 		}
-		return sourceCache.computeIfAbsent(qid, key ->
-				fileRegister.getOrDefault(key, Collections.emptyList()).stream()
-						.map(p -> new SourceFile(p, parse(p), SourceUnit.InputLanguage.ORCC))
-						.collect(Collectors.toList()));
+		return sourceCache.computeIfAbsent(qid, key -> {
+			List<Path> files = fileRegister.getOrDefault(key, Collections.emptyList());
+			List<NamespaceDecl> trees = ParallelLoading.map(files, threads, reporter, this::parse);
+			List<SourceUnit> result = new ArrayList<>();
+			for (int i = 0; i < files.size(); i++) {
+				result.add(new SourceFile(files.get(i), trees.get(i), SourceUnit.InputLanguage.ORCC));
+			}
+			return result;
+		});
 	}
 
 }
@@ -0,0 +1,92 @@
+package se.lth.cs.tycho.compiler;
+
+import se.lth.cs.tycho.reporting.BufferedReporter;
+import se.lth.cs.tycho.reporting.Reporter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Applies a loading or transformation function to a list of inputs, either sequentially or on a fork-join pool.
+ * The results are returned in the order of the inputs, and the diagnostics of each input are reported in that same
+ * order, so the outcome does not depend on the number of threads.
+ */
+final class ParallelLoading {
+	private ParallelLoading() {}
+
+	static <T, R> List<R> map(List<T> inputs, int threads, Reporter reporter, BiFunction<T, Reporter, R> function) {
+		if (threads <= 1 || inputs.size() <= 1) {
+			List<R> results = new ArrayList<>(inputs.size());
+			for (T input : inputs) {
+				results.add(function.apply(input, reporter));
+			}
+			return results;
+		}
+		List<Loaded<R>> loaded = inPool(threads, () -> inputs.parallelStream()
+				.map(input -> {
+					BufferedReporter buffer = new BufferedReporter();
+					R result = function.apply(input, buffer);
+					return new Loaded<>(result, buffer);
+				})
+				.collect(Collectors.toList()));
+		List<R> results = new ArrayList<>(loaded.size());
+		for (Loaded<R> l : loaded) {
+			l.diagnostics.forwardTo(reporter);
+			results.add(l.result);
+		}
+		return results;
+	}
+
+	/**
+	 * Applies a function that does not report diagnostics to a list of inputs, and returns the results in the order
+	 * of the inputs.
+	 */
+	static <T, R> List<R> map(List<T> inputs, int threads, Function<T, R> function) {
+		if (threads <= 1 || inputs.size() <= 1) {
+			List<R> results = new ArrayList<>(inputs.size());
+			for (T input : inputs) {
+				results.add(function.apply(input));
+			}
+			return results;
+		}
+		return inPool(threads, () -> inputs.parallelStream()
+				.map(function)
+				.collect(Collectors.toList()));
+	}
+
+	private static <R> R inPool(int threads, Callable<R> computation) {
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			return pool.submit(computation).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			} else if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			} else {
+				throw new RuntimeException(e.getCause());
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static final class Loaded<R> {
+		private final R result;
+		private final BufferedReporter diagnostics;
+
+		private Loaded(R result, BufferedReporter diagnostics) {
+			this.result = result;
+			this.diagnostics = diagnostics;
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package se.lth.cs.tycho.compiler;
+
+import se.lth.cs.tycho.ir.NamespaceDecl;
+import se.lth.cs.tycho.reporting.Diagnostic;
+import se.lth.cs.tycho.reporting.Reporter;
+import se.lth.cs.tycho.settings.Configuration;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A persistent cache of parsed namespace declarations. Entries are stored as compressed serialized trees in a cache
+ * directory, one file per entry, named by a hash of the compiler version, the location of the source and its content.
+ * A changed source file therefore gets a new entry instead of invalidating the old one. An entry that cannot be read,
+ * for example after the tree classes have changed or because it contains classes outside the tree, is treated as a
+ * miss, the source is parsed as usual and the entry is overwritten.
+ */
+class ParseCache {
+	private static final String FILE_SUFFIX = ".ns.gz";
+
+	private final Path directory;
+	private final AtomicBoolean writeFailureReported;
+
+	private ParseCache(Path directory) {
+		this.directory = directory;
+		this.writeFailureReported = new AtomicBoolean(false);
+	}
+
+	static ParseCache instance(Configuration configuration) {
+		return new ParseCache(configuration.get(Loader.parseCache) ? configuration.get(Loader.parseCachePath) : null);
+	}
+
+	boolean isEnabled() {
+		return directory != null;
+	}
+
+	/**
+	 * Computes the key of a source. Returns null if the cache is disabled.
+	 */
+	String key(String location, byte[] content) {
+		if (!isEnabled()) {
+			return null;
+		}
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(CompilerVersion.STAMP.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(location.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(content);
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest.digest()) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new Error(e);
+		}
+	}
+
+	NamespaceDecl lookup(String key) {
+		if (key == null) {
+			return null;
+		}
+		Path file = directory.resolve(key + FILE_SUFFIX);
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+		try (ObjectInputStream in = new TreeInputStream(new GZIPInputStream(new BufferedInputStream(Files.newInputStream(file))))) {
+			Object tree = in.readObject();
+			return tree instanceof NamespaceDecl ? (NamespaceDecl) tree : null;
+		} catch (IOException | ClassNotFoundException | RuntimeException e) {
+			// Includes InvalidClassException for entries written by changed tree classes.
+			return null;
+		}
+	}
+
+	/**
+	 * Only resolves the tree classes, and the library classes they are built from, when reading from the cache.
+	 */
+	private static final class TreeInputStream extends ObjectInputStream {
+		TreeInputStream(InputStream in) throws IOException {
+			super(in);
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			String name = desc.getName();
+			while (name.startsWith("[")) {
+				name = name.substring(1);
+			}
+			if (name.length() == 1 || name.startsWith("Lse.lth.cs.tycho.") || name.startsWith("se.lth.cs.tycho.")
+					|| name.startsWith("java.lang.") || name.startsWith("Ljava.lang.")
+					|| name.startsWith("java.util.") || name.startsWith("Ljava.util.")
+					|| name.startsWith("java.math.") || name.startsWith("Ljava.math.")) {
+				return super.resolveClass(desc);
+			}
+			throw new InvalidClassException(desc.getName(), "not a tree class");
+		}
+	}
+
+	void store(String key, NamespaceDecl tree, Reporter reporter) {
+		if (key == null || tree == null) {
+			return;
+		}
+		try {
+			Files.createDirectories(directory);
+			Path temp = Files.createTempFile(directory, key, ".tmp");
+			try {
+				try (ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(temp))))) {
+					out.writeObject(tree);
+				}
+				Files.move(temp, directory.resolve(key + FILE_SUFFIX), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		} catch (IOException e) {
+			if (writeFailureReported.compareAndSet(false, true)) {
+				reporter.report(new Diagnostic(Diagnostic.Kind.WARNING, "Could not write to the parse cache in " + directory + ", " + e.getMessage()));
+			}
+		}
+	}
+
+	/**
+	 * Identifies the compiler and the format of the entries. Trees from another version are never looked up, and
+	 * trees whose classes changed within a version fail to deserialize and are treated as misses.
+	 */
+	private static final class CompilerVersion {
+		private static final int FORMAT = 1;
+		private static final String STAMP = Main.toolVersion
+				+ ":" + FORMAT
+				+ ":" + System.getProperty("java.specification.version");
+	}
+}
@@ -7,6 +7,8 @@ import se.lth.cs.tycho.parsing.cal.ParseException;
 import se.lth.cs.tycho.reporting.Diagnostic;
 import se.lth.cs.tycho.reporting.Reporter;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collections;
@@ -15,20 +17,30 @@ import java.util.List;
 public class PreludeLoader implements Loader {
 	private static final QID prelude = QID.of("prelude");
 	private final Reporter reporter;
+	private final ParseCache cache;
 	private List<SourceUnit> preludeUnits;
 
-	public PreludeLoader(Reporter reporter) {
+	public PreludeLoader(Reporter reporter, ParseCache cache) {
 		this.reporter = reporter;
+		this.cache = cache;
 	}
 
 	@Override
 	public List<SourceUnit> loadNamespace(QID qid) {
 		if (qid.equals(prelude)) {
 			if (preludeUnits == null) {
-				InputStream stream = getPreludeInputStream();
 				try {
-					PreludeUnit preludeUnit = new PreludeUnit(new CalParser(stream,"UTF-8").CompilationUnit());
-					preludeUnits = Collections.singletonList(preludeUnit);
+					byte[] content = readPrelude();
+					String key = cache.key("<prelude>", content);
+					NamespaceDecl ns = cache.lookup(key);
+					if (ns == null) {
+						ns = new CalParser(new ByteArrayInputStream(content), "UTF-8").CompilationUnit();
+						cache.store(key, ns, reporter);
+					}
+					preludeUnits = Collections.singletonList(new PreludeUnit(ns));
+				} catch (IOException e) {
+					reporter.report(new Diagnostic(Diagnostic.Kind.ERROR, "Could not read the Cal prelude, " + e.getMessage()));
+					preludeUnits = Collections.emptyList();
 				} catch (ParseException e) {
 					reporter.report(new Diagnostic(Diagnostic.Kind.ERROR, "Could not parse the Cal prelude, " + e.getMessage()));
 					preludeUnits = Collections.emptyList();
@@ -40,6 +52,18 @@ public class PreludeLoader implements Loader {
 		}
 	}
 
+	private static byte[] readPrelude() throws IOException {
+		try (InputStream stream = getPreludeInputStream()) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = stream.read(buffer)) > 0) {
+				bytes.write(buffer, 0, n);
+			}
+			return bytes.toByteArray();
+		}
+	}
+
 	private static InputStream getPreludeInputStream() {
 		return ClassLoader.getSystemResourceAsStream("cal_prelude/prelude.cal");
 	}
@@ -2,6 +2,9 @@ package se.lth.cs.tycho.compiler;
 
 import se.lth.cs.tycho.ir.decl.GlobalEntityDecl;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.function.Function;
 
 public final class Transformations {
@@ -9,4 +12,19 @@ public final class Transformations {
 		return task.withSourceUnits(task.getSourceUnits().map(unit ->
 				unit.withTree(unit.getTree().withEntityDecls(unit.getTree().getEntityDecls().map(transformation)))));
 	}
+
+	/**
+	 * Transforms the entity declarations of all source units on the given number of threads. The transformation must
+	 * only depend on the declaration it is applied to. The result is the same as for the sequential transformation.
+	 */
+	public static CompilationTask transformEntityDecls(CompilationTask task, int threads, Function<GlobalEntityDecl, GlobalEntityDecl> transformation) {
+		if (threads <= 1) {
+			return transformEntityDecls(task, transformation);
+		}
+		List<GlobalEntityDecl> decls = new ArrayList<>();
+		task.getSourceUnits().forEach(unit -> decls.addAll(unit.getTree().getEntityDecls()));
+		Iterator<GlobalEntityDecl> transformed = ParallelLoading.map(decls, threads, transformation).iterator();
+		return task.withSourceUnits(task.getSourceUnits().map(unit ->
+				unit.withTree(unit.getTree().withEntityDecls(unit.getTree().getEntityDecls().map(decl -> transformed.next())))));
+	}
 }
@@ -8,9 +8,8 @@ import se.lth.cs.tycho.reporting.Diagnostic;
 import se.lth.cs.tycho.reporting.Reporter;
 
 import javax.xml.parsers.ParserConfigurationException;
-import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.HashMap;
@@ -21,39 +20,42 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class XdfLoader implements Loader {
-	private final XDF2NLReader reader;
+	private final ThreadLocal<XDF2NLReader> reader;
 	private final Reporter reporter;
 	private final List<Path> sourcePaths;
+	private final int threads;
+	private final ParseCache cache;
 	private final Map<QID, List<SourceUnit>> sourceCache;
 
-	public XdfLoader(Reporter reporter, List<Path> sourcePaths) {
-		this.reader = new XDF2NLReader();
+	public XdfLoader(Reporter reporter, List<Path> sourcePaths, int threads, ParseCache cache) {
+		this.reader = ThreadLocal.withInitial(XDF2NLReader::new);
 		this.reporter = reporter;
 		this.sourcePaths = sourcePaths;
+		this.threads = threads;
+		this.cache = cache;
 		this.sourceCache = new HashMap<>();
 	}
 
 	public List<SourceUnit> loadNamespace(QID qid) {
-		return sourceCache.computeIfAbsent(qid, ns ->
-				sourcePaths.stream()
-						.flatMap(path -> loadNamespace(ns, path))
-						.collect(Collectors.toList()));
+		return sourceCache.computeIfAbsent(qid, ns -> {
+			List<Path> files = sourcePaths.stream()
+					.flatMap(path -> networkFiles(ns, path))
+					.collect(Collectors.toList());
+			return ParallelLoading.map(files, threads, reporter, (file, reporter) -> loadNetworkFile(ns, file, reporter))
+					.stream()
+					.filter(Optional::isPresent)
+					.map(Optional::get)
+					.collect(Collectors.toList());
+		});
 	}
 
-	private Stream<SourceUnit> loadNamespace(QID qid, Path path) {
+	private Stream<Path> networkFiles(QID qid, Path path) {
 		Path nsDir = path.resolve(qid.toPath());
 		if (Files.isDirectory(nsDir)) {
 			try {
 				return Files.list(nsDir)
 						.filter(Files::isRegularFile)
-						.filter(f -> f.toString().endsWith(".xdf"))
-						.map(f -> {
-							String fileName = f.getFileName().toString();
-							String id = fileName.substring(0, fileName.length() - ".xdf" .length());
-							return loadNetworkFile(qid.concat(QID.of(id)), f);
-						})
-						.filter(Optional::isPresent)
-						.map(Optional::get);
+						.filter(f -> f.toString().endsWith(".xdf"));
 			} catch (IOException e) {
 				reporter.report(new Diagnostic(Diagnostic.Kind.ERROR, e.getMessage()));
 				return Stream.empty();
@@ -63,9 +65,18 @@ public class XdfLoader implements Loader {
 		}
 	}
 
-	private Optional<SourceUnit> loadNetworkFile(QID qid, Path file) {
-		try (InputStream is = new BufferedInputStream(Files.newInputStream(file))) {
-			NamespaceDecl nsDecl = reader.read(is, qid);
+	private Optional<SourceUnit> loadNetworkFile(QID ns, Path file, Reporter reporter) {
+		String fileName = file.getFileName().toString();
+		String id = fileName.substring(0, fileName.length() - ".xdf" .length());
+		QID qid = ns.concat(QID.of(id));
+		try {
+			byte[] content = Files.readAllBytes(file);
+			String key = cache.key(file.toAbsolutePath().toString(), content);
+			NamespaceDecl nsDecl = cache.lookup(key);
+			if (nsDecl == null) {
+				nsDecl = reader.get().read(new ByteArrayInputStream(content), qid);
+				cache.store(key, nsDecl, reporter);
+			}
 			return Optional.of(new SourceFile(file, nsDecl, SourceUnit.InputLanguage.XDF));
 		} catch (IOException | ParserConfigurationException | SAXException e) {
 			reporter.report(new Diagnostic(Diagnostic.Kind.ERROR, e.getMessage()));
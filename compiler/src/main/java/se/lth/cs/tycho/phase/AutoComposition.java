@@ -0,0 +1,235 @@
+package se.lth.cs.tycho.phase;
+
+import se.lth.cs.tycho.compiler.CompilationTask;
+import se.lth.cs.tycho.compiler.GlobalDeclarations;
+import se.lth.cs.tycho.ir.Port;
+import se.lth.cs.tycho.ir.ToolAttribute;
+import se.lth.cs.tycho.ir.ToolValueAttribute;
+import se.lth.cs.tycho.ir.entity.Entity;
+import se.lth.cs.tycho.ir.entity.am.ActorMachine;
+import se.lth.cs.tycho.ir.expr.ExprLiteral;
+import se.lth.cs.tycho.ir.network.Connection;
+import se.lth.cs.tycho.ir.network.Instance;
+import se.lth.cs.tycho.ir.network.Network;
+import se.lth.cs.tycho.reporting.Diagnostic;
+import se.lth.cs.tycho.reporting.Reporter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Selects composition groups among the actors that are not already part of a composition, and tags their connections
+ * with composition ids, as if they had been given in the source.
+ * <p>
+ * A connection is a candidate if both of its actors have static rates, see {@link StaticSchedule}, transfer at most
+ * one token per firing over it and transfer the same number of tokens per cycle. Such a connection gets a buffer size
+ * of one, so that it becomes a condition-free self-loop of the composition that InternalizeBuffersPhase turns into a
+ * variable. The cost of a group is estimated as the product of the controller sizes of its actors, doubled for each
+ * internal connection, and its benefit as the tokens per cycle that no longer pass through a FIFO plus one scheduling
+ * decision per merged actor. The candidates are merged greedily, in order of decreasing benefit per cost, as long as
+ * the estimate stays within the limit and no path leaves the group and enters it again.
+ */
+final class AutoComposition {
+	private final Network network;
+	private final int maxStates;
+	private final Map<String, StaticSchedule> schedules;
+	private final Map<String, Long> controllerSizes;
+	private final Map<String, String> parent;
+	private final Map<String, Long> estimate;
+	private final Map<String, List<String>> successors;
+
+	private AutoComposition(CompilationTask task, int maxStates) {
+		this.network = task.getNetwork();
+		this.maxStates = maxStates;
+		this.schedules = new HashMap<>();
+		this.controllerSizes = new HashMap<>();
+		this.parent = new HashMap<>();
+		this.estimate = new HashMap<>();
+		this.successors = new HashMap<>();
+		Set<String> excluded = network.getConnections().stream()
+				.filter(connection -> connection.getValueAttribute("composition").isPresent())
+				.flatMap(connection -> Stream.of(connection.getSource().getInstance(), connection.getTarget().getInstance()))
+				.filter(Optional::isPresent)
+				.map(Optional::get)
+				.collect(Collectors.toSet());
+		for (Instance instance : network.getInstances()) {
+			String name = instance.getInstanceName();
+			Entity entity = GlobalDeclarations.getEntity(task, instance.getEntityName()).getEntity();
+			if (!excluded.contains(name) && entity instanceof ActorMachine) {
+				ActorMachine actorMachine = (ActorMachine) entity;
+				StaticSchedule.of(actorMachine).ifPresent(schedule -> {
+					schedules.put(name, schedule);
+					controllerSizes.put(name, (long) actorMachine.controller().getStateList().size());
+				});
+			}
+			parent.put(name, name);
+			estimate.put(name, controllerSizes.getOrDefault(name, 1L));
+		}
+		for (Connection connection : network.getConnections()) {
+			if (connection.getSource().getInstance().isPresent() && connection.getTarget().getInstance().isPresent()) {
+				successors.computeIfAbsent(connection.getSource().getInstance().get(), x -> new ArrayList<>())
+						.add(connection.getTarget().getInstance().get());
+			}
+		}
+	}
+
+	/**
+	 * Returns the network of the task, where the connections of the selected groups have composition ids, and
+	 * reports the members of each group.
+	 */
+	static Network tag(CompilationTask task, int maxStates, Reporter reporter) {
+		return new AutoComposition(task, maxStates).tag(reporter);
+	}
+
+	private Network tag(Reporter reporter) {
+		List<Connection> candidates = network.getConnections().stream()
+				.filter(this::isCandidate)
+				.sorted(Comparator.comparingDouble(this::benefitPerCost).reversed())
+				.collect(Collectors.toList());
+		Set<Connection> selected = new HashSet<>();
+		for (Connection connection : candidates) {
+			String a = find(connection.getSource().getInstance().get());
+			String b = find(connection.getTarget().getInstance().get());
+			long merged = a.equals(b) ? 2 * estimate.get(a) : 2 * estimate.get(a) * estimate.get(b);
+			if (merged > maxStates) {
+				continue;
+			}
+			if (!a.equals(b)) {
+				Set<String> group = members(name -> find(name).equals(a) || find(name).equals(b));
+				if (!isConvex(group)) {
+					continue;
+				}
+				parent.put(b, a);
+			}
+			estimate.put(a, merged);
+			selected.add(connection);
+		}
+
+		Set<String> usedIds = network.getConnections().stream()
+				.map(connection -> connection.getValueAttribute("composition"))
+				.filter(attribute -> attribute.isPresent() && attribute.get().getValue() instanceof ExprLiteral)
+				.map(attribute -> ((ExprLiteral) attribute.get().getValue()).asString())
+				.filter(Optional::isPresent)
+				.map(Optional::get)
+				.collect(Collectors.toCollection(HashSet::new));
+		Map<String, String> ids = new LinkedHashMap<>();
+		List<Connection> connections = new ArrayList<>();
+		for (Connection connection : network.getConnections()) {
+			if (selected.contains(connection)) {
+				String id = ids.computeIfAbsent(find(connection.getSource().getInstance().get()), root -> uniqueId(usedIds, "auto_" + root));
+				List<ToolAttribute> attributes = new ArrayList<>(connection.getAttributes());
+				attributes.add(new ToolValueAttribute("composition", new ExprLiteral(ExprLiteral.Kind.String, "\"" + id + "\"")));
+				if (!connection.getValueAttribute("buffersize").isPresent()) {
+					attributes.add(new ToolValueAttribute("buffersize", new ExprLiteral(ExprLiteral.Kind.Integer, "1")));
+				}
+				connection = connection.withAttributes(attributes);
+			}
+			connections.add(connection);
+		}
+		ids.forEach((root, id) -> reporter.report(new Diagnostic(Diagnostic.Kind.INFO, "Composition " + id + " of "
+				+ String.join(", ", members(name -> find(name).equals(root))) + " is selected automatically.")));
+		return network.withConnections(connections);
+	}
+
+	private boolean isCandidate(Connection connection) {
+		Optional<String> source = connection.getSource().getInstance();
+		Optional<String> target = connection.getTarget().getInstance();
+		if (!source.isPresent() || !target.isPresent() || source.equals(target)) {
+			return false;
+		}
+		StaticSchedule producer = schedules.get(source.get());
+		StaticSchedule consumer = schedules.get(target.get());
+		if (producer == null || consumer == null || connection.getValueAttribute("bufferSize").isPresent()) {
+			return false;
+		}
+		if (connection.getValueAttribute("buffersize").isPresent() && !bufferSize(connection).equals(OptionalInt.of(1))) {
+			return false;
+		}
+		Port out = new Port(connection.getSource().getPort());
+		Port in = new Port(connection.getTarget().getPort());
+		return producer.maxProduction(out) <= 1 && consumer.maxRequirement(in) <= 1
+				&& producer.production(out) > 0 && producer.production(out) == consumer.consumption(in);
+	}
+
+	private double benefitPerCost(Connection connection) {
+		String source = connection.getSource().getInstance().get();
+		long tokens = schedules.get(source).production(new Port(connection.getSource().getPort()));
+		long cost = controllerSizes.get(source) * controllerSizes.get(connection.getTarget().getInstance().get());
+		return (tokens + 1) / (double) cost;
+	}
+
+	private OptionalInt bufferSize(Connection connection) {
+		return connection.getValueAttribute("buffersize")
+				.map(attribute -> attribute.getValue())
+				.filter(value -> value instanceof ExprLiteral)
+				.map(value -> ((ExprLiteral) value).asInt())
+				.orElse(OptionalInt.empty());
+	}
+
+	private String find(String name) {
+		String root = name;
+		while (!parent.get(root).equals(root)) {
+			root = parent.get(root);
+		}
+		parent.put(name, root);
+		return root;
+	}
+
+	private Set<String> members(Predicate<String> inGroup) {
+		return network.getInstances().stream()
+				.map(Instance::getInstanceName)
+				.filter(inGroup)
+				.collect(Collectors.toCollection(TreeSet::new));
+	}
+
+	/**
+	 * Checks that no path from the group leaves it and comes back, since the composition would then depend on itself
+	 * through the actors outside of the group.
+	 */
+	private boolean isConvex(Set<String> group) {
+		Set<String> visited = new HashSet<>();
+		Deque<String> queue = new ArrayDeque<>();
+		for (String member : group) {
+			for (String next : successors.getOrDefault(member, new ArrayList<>())) {
+				if (!group.contains(next)) {
+					queue.add(next);
+				}
+			}
+		}
+		while (!queue.isEmpty()) {
+			String instance = queue.remove();
+			if (group.contains(instance)) {
+				return false;
+			}
+			if (visited.add(instance)) {
+				queue.addAll(successors.getOrDefault(instance, new ArrayList<>()));
+			}
+		}
+		return true;
+	}
+
+	private static String uniqueId(Set<String> usedIds, String base) {
+		String result = base;
+		int i = 1;
+		while (usedIds.contains(result)) {
+			result = String.format("%s_%d", base, i);
+			i = i + 1;
+		}
+		usedIds.add(result);
+		return result;
+	}
+}
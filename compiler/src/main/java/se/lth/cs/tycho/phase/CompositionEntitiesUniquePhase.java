@@ -18,6 +18,9 @@ public class CompositionEntitiesUniquePhase implements Phase {
 	@Override
 	public CompilationTask execute(CompilationTask task, Context context) {
 		if (context.getConfiguration().get(CompositionPhase.actorComposition)) {
+			if (context.getConfiguration().get(CompositionPhase.autoComposition)) {
+				task = task.withNetwork(AutoComposition.tag(task, context.getConfiguration().get(CompositionPhase.autoCompositionMaxStates), context.getReporter()));
+			}
 			List<String> instances = task.getNetwork().getConnections().stream()
 					.filter(connection -> connection.getValueAttribute("composition").isPresent())
 					.flatMap(connection -> Stream.of(connection.getSource().getInstance(), connection.getTarget().getInstance()))
@@ -20,10 +20,12 @@ import se.lth.cs.tycho.meta.interp.value.util.Convert;
 import se.lth.cs.tycho.transformation.composition.Composer;
 import se.lth.cs.tycho.transformation.composition.Connection;
 import se.lth.cs.tycho.transformation.composition.SourcePort;
+import se.lth.cs.tycho.transformation.composition.StateBudgetExceededException;
 import se.lth.cs.tycho.transformation.composition.TargetPort;
-import se.lth.cs.tycho.transformation.reduction.MergeStates;
-import se.lth.cs.tycho.transformation.reduction.TransformedController;
+import se.lth.cs.tycho.transformation.reduction.MinimizedController;
+import se.lth.cs.tycho.reporting.Diagnostic;
 import se.lth.cs.tycho.settings.Configuration;
+import se.lth.cs.tycho.settings.IntegerSetting;
 import se.lth.cs.tycho.settings.OnOffSetting;
 import se.lth.cs.tycho.settings.Setting;
 
@@ -74,9 +76,60 @@ public class CompositionPhase implements Phase {
 		}
 	};
 
+	public static final IntegerSetting stateBudgetSetting = new IntegerSetting() {
+		@Override
+		public String getKey() {
+			return "composition-state-budget";
+		}
+
+		@Override
+		public String getDescription() {
+			return "Maximum number of states of a composed actor machine. A composition that needs more states is split into smaller compositions.";
+		}
+
+		@Override
+		public Integer defaultValue(Configuration configuration) {
+			return 100000;
+		}
+	};
+
+	static final OnOffSetting autoComposition = new OnOffSetting() {
+		@Override
+		public String getKey() {
+			return "auto-composition";
+		}
+
+		@Override
+		public String getDescription() {
+			return "Composes chains and clusters of actors with static rates, in addition to the connections with a composition id.";
+		}
+
+		@Override
+		public Boolean defaultValue(Configuration configuration) {
+			return false;
+		}
+	};
+
+	static final IntegerSetting autoCompositionMaxStates = new IntegerSetting() {
+		@Override
+		public String getKey() {
+			return "auto-composition-max-states";
+		}
+
+		@Override
+		public String getDescription() {
+			return "Largest estimated number of controller states of an automatically selected composition.";
+		}
+
+		@Override
+		public Integer defaultValue(Configuration configuration) {
+			return 1000;
+		}
+	};
+
 	@Override
 	public List<Setting<?>> getPhaseSettings() {
-		return Arrays.asList(actorComposition, eagerTestSetting);
+		return Arrays.asList(actorComposition, eagerTestSetting, stateBudgetSetting, autoComposition, autoCompositionMaxStates);
 	}
 
 	private Interpreter interp;
@@ -106,7 +159,46 @@ public class CompositionPhase implements Phase {
 		return task.withSourceUnits(ImmutableList.<SourceUnit> builder().addAll(task.getSourceUnits()).add(compUnit).build());
 	}
 
+	/**
+	 * Composes the instances of a group of connections. If the composition exceeds the state budget, the instances
+	 * are split into two halves, in network order, and the connections within each half are composed separately.
+	 * The connections between the halves become ordinary connections. A group that cannot be split further is left
+	 * uncomposed.
+	 */
 	private Network compose(CompilationTask task, List<se.lth.cs.tycho.ir.network.Connection> connections, Consumer<GlobalEntityDecl> composedEntities, String compositionId, Context context) {
+		try {
+			return composeGroup(task, connections, composedEntities, compositionId, context);
+		} catch (StateBudgetExceededException e) {
+			List<String> instanceNames = task.getNetwork().getInstances().stream()
+					.map(Instance::getInstanceName)
+					.filter(name -> connections.stream().anyMatch(c -> isEnd(c, name)))
+					.collect(Collectors.toList());
+			Set<String> firstHalf = new HashSet<>(instanceNames.subList(0, instanceNames.size() / 2));
+			Map<Boolean, List<se.lth.cs.tycho.ir.network.Connection>> halves = connections.stream()
+					.filter(c -> firstHalf.contains(c.getSource().getInstance().get()) == firstHalf.contains(c.getTarget().getInstance().get()))
+					.collect(Collectors.partitioningBy(c -> firstHalf.contains(c.getSource().getInstance().get())));
+			if (instanceNames.size() < 2 || halves.values().stream().anyMatch(half -> half.size() == connections.size())) {
+				context.getReporter().report(new Diagnostic(Diagnostic.Kind.WARNING, "Composition " + compositionId + " of " +
+						String.join(", ", instanceNames) + " exceeds " + e.getBudget() + " states and is not composed."));
+				return task.getNetwork();
+			}
+			context.getReporter().report(new Diagnostic(Diagnostic.Kind.WARNING, "Composition " + compositionId + " of " +
+					String.join(", ", instanceNames) + " exceeds " + e.getBudget() + " states and is split."));
+			for (List<se.lth.cs.tycho.ir.network.Connection> half : Arrays.asList(halves.get(true), halves.get(false))) {
+				if (!half.isEmpty()) {
+					task = task.withNetwork(compose(task, half, composedEntities, compositionId, context));
+				}
+			}
+			return task.getNetwork();
+		}
+	}
+
+	private boolean isEnd(se.lth.cs.tycho.ir.network.Connection connection, String instanceName) {
+		return connection.getSource().getInstance().get().equals(instanceName)
+				|| connection.getTarget().getInstance().get().equals(instanceName);
+	}
+
+	private Network composeGroup(CompilationTask task, List<se.lth.cs.tycho.ir.network.Connection> connections, Consumer<GlobalEntityDecl> composedEntities, String compositionId, Context context) {
 		assert connections.stream().allMatch(c -> c.getSource().getInstance().isPresent() && c.getTarget().getInstance().isPresent()) : "Cannot compose connections to network border.";
 		Set<String> instanceNameSet = connections.stream()
 				.flatMap(connection -> Stream.of(connection.getSource(), connection.getTarget()))
@@ -142,8 +234,8 @@ public class CompositionPhase implements Phase {
 				.flatMap(instance -> instance.getValueParameters().stream())
 				.collect(Collectors.toList());
 
-		ActorMachine composition = new Composer(actorMachines, compositionConnections, context).compose().deepClone();
-		composition = composition.withController(TransformedController.from(composition.controller(), Stream.generate(MergeStates::new).limit(10).collect(Collectors.toList())));
+		ActorMachine composition = new Composer(actorMachines, compositionConnections, context, compositionId).compose().deepClone();
+		composition = composition.withController(MinimizedController.from(composition.controller()));
 		String compositionInstanceName = uniqueInstanceName(task.getNetwork(), compositionId);
 		String originalEntityName = compositionId;
 		String compositionEntityName = compositionId + "_" + context.getUniqueNumbers().next();
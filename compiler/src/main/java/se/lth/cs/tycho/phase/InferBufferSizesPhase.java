@@ -0,0 +1,321 @@
+package se.lth.cs.tycho.phase;
+
+import se.lth.cs.tycho.compiler.CompilationTask;
+import se.lth.cs.tycho.compiler.Context;
+import se.lth.cs.tycho.compiler.GlobalDeclarations;
+import se.lth.cs.tycho.ir.Port;
+import se.lth.cs.tycho.ir.ToolAttribute;
+import se.lth.cs.tycho.ir.ToolValueAttribute;
+import se.lth.cs.tycho.ir.entity.Entity;
+import se.lth.cs.tycho.ir.entity.am.ActorMachine;
+import se.lth.cs.tycho.ir.expr.ExprLiteral;
+import se.lth.cs.tycho.ir.network.Connection;
+import se.lth.cs.tycho.ir.network.Instance;
+import se.lth.cs.tycho.ir.network.Network;
+import se.lth.cs.tycho.reporting.Diagnostic;
+import se.lth.cs.tycho.settings.Configuration;
+import se.lth.cs.tycho.settings.OnOffSetting;
+import se.lth.cs.tycho.settings.Setting;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Computes buffer sizes for the connections between actors with static token rates, and adds them as buffersize
+ * attributes to the connections.
+ * <p>
+ * The firing sequences of the actors with static rates are found by {@link StaticSchedule}. The balance equations of
+ * the connected static actors are solved to check that the rates are consistent. A connection that is consistent gets
+ * the smallest capacity where either the consumer has the tokens for its next phase or the producer has space for its
+ * next phase, which is P + C - g for the largest phase production P, the largest phase requirement C and the greatest
+ * common divisor g of the phase rates. Since reconvergent paths can deadlock with such per-connection capacities, a
+ * connection into an actor with several static inputs also gets room for the tokens of one iteration of the balance
+ * equations. Connections on directed cycles, connections to and from the network ports, and connections with a given
+ * buffer size are left as they are. So are the connections into an actor with several inputs if a path that reconverges
+ * at it passes through an actor with dynamic rates, and all connections of a group of connected actors with
+ * inconsistent rates.
+ */
+public class InferBufferSizesPhase implements Phase {
+
+	private static final OnOffSetting inferBufferSizes = new OnOffSetting() {
+		@Override
+		public String getKey() {
+			return "infer-buffer-sizes";
+		}
+
+		@Override
+		public String getDescription() {
+			return "Computes the buffer sizes of connections between actors with static token rates.";
+		}
+
+		@Override
+		public Boolean defaultValue(Configuration configuration) {
+			return false;
+		}
+	};
+
+	@Override
+	public String getDescription() {
+		return "Computes buffer sizes for connections between actors with static token rates.";
+	}
+
+	@Override
+	public List<Setting<?>> getPhaseSettings() {
+		return Collections.singletonList(inferBufferSizes);
+	}
+
+	@Override
+	public CompilationTask execute(CompilationTask task, Context context) {
+		if (!context.getConfiguration().get(inferBufferSizes)) {
+			return task;
+		}
+		Network network = task.getNetwork();
+		Map<String, StaticSchedule> schedules = new HashMap<>();
+		for (Instance instance : network.getInstances()) {
+			Entity entity = GlobalDeclarations.getEntity(task, instance.getEntityName()).getEntity();
+			if (entity instanceof ActorMachine) {
+				StaticSchedule.of((ActorMachine) entity).ifPresent(schedule -> schedules.put(instance.getInstanceName(), schedule));
+			}
+		}
+
+		List<Connection> edges = network.getConnections().stream()
+				.filter(c -> c.getSource().getInstance().isPresent() && c.getTarget().getInstance().isPresent())
+				.filter(c -> schedules.containsKey(c.getSource().getInstance().get()))
+				.filter(c -> schedules.containsKey(c.getTarget().getInstance().get()))
+				.filter(c -> !c.getValueAttribute("buffersize").isPresent() && !c.getValueAttribute("bufferSize").isPresent())
+				.filter(c -> production(schedules, c) > 0 && consumption(schedules, c) > 0)
+				.filter(c -> !onCycle(network, c))
+				.collect(Collectors.toList());
+
+		Map<String, Rational> repetitions = new HashMap<>();
+		Map<String, String> components = new HashMap<>();
+		Set<String> inconsistent = new HashSet<>();
+		for (Connection edge : edges) {
+			String start = edge.getSource().getInstance().get();
+			if (!repetitions.containsKey(start)) {
+				if (!solveBalanceEquations(start, edges, schedules, repetitions)) {
+					inconsistent.add(start);
+				}
+				repetitions.keySet().forEach(instance -> components.putIfAbsent(instance, start));
+			}
+		}
+		if (!inconsistent.isEmpty()) {
+			context.getReporter().report(new Diagnostic(Diagnostic.Kind.WARNING, "Inconsistent token rates, no buffer sizes are computed for the connections between "
+					+ components.keySet().stream().filter(instance -> inconsistent.contains(components.get(instance))).sorted().collect(Collectors.joining(", ")) + "."));
+		}
+
+		Map<String, Long> allInputs = network.getConnections().stream()
+				.filter(c -> c.getTarget().getInstance().isPresent())
+				.collect(Collectors.groupingBy(c -> c.getTarget().getInstance().get(), Collectors.counting()));
+		Set<Connection> staticEdges = new HashSet<>(edges);
+		long scale = repetitions.values().stream().mapToLong(r -> r.denominator).reduce(1, InferBufferSizesPhase::lcm);
+
+		Map<Connection, Integer> sizes = new HashMap<>();
+		for (Connection edge : edges) {
+			String source = edge.getSource().getInstance().get();
+			String target = edge.getTarget().getInstance().get();
+			if (inconsistent.contains(components.get(source))) {
+				continue;
+			}
+			if (allInputs.get(target) > 1 && !staticReconvergence(network, staticEdges, schedules, target)) {
+				continue;
+			}
+			StaticSchedule producer = schedules.get(source);
+			StaticSchedule consumer = schedules.get(target);
+			Port out = new Port(edge.getSource().getPort());
+			Port in = new Port(edge.getTarget().getPort());
+			long gcd = StaticSchedule.gcd(producer.rateGcd(out), consumer.rateGcd(in));
+			long size = producer.maxProduction(out) + consumer.maxRequirement(in) - gcd;
+			if (allInputs.get(target) > 1) {
+				Rational firings = repetitions.get(source);
+				long iteration = firings.numerator * (scale / firings.denominator) * producer.production(out);
+				size = Math.max(size, iteration + producer.initialProduction(out));
+			}
+			if (size > 0 && size <= Integer.MAX_VALUE) {
+				sizes.put(edge, (int) size);
+			}
+		}
+		if (sizes.isEmpty()) {
+			return task;
+		}
+
+		List<Connection> connections = network.getConnections().stream()
+				.map(c -> sizes.containsKey(c) ? withBufferSize(c, sizes.get(c)) : c)
+				.collect(Collectors.toList());
+		return task.withNetwork(network.withConnections(connections));
+	}
+
+	private Connection withBufferSize(Connection connection, int size) {
+		List<ToolAttribute> attributes = new ArrayList<>(connection.getAttributes());
+		attributes.add(new ToolValueAttribute("buffersize", new ExprLiteral(ExprLiteral.Kind.Integer, Integer.toString(size))));
+		return connection.withAttributes(attributes);
+	}
+
+	private long production(Map<String, StaticSchedule> schedules, Connection c) {
+		return schedules.get(c.getSource().getInstance().get()).production(new Port(c.getSource().getPort()));
+	}
+
+	private long consumption(Map<String, StaticSchedule> schedules, Connection c) {
+		return schedules.get(c.getTarget().getInstance().get()).consumption(new Port(c.getTarget().getPort()));
+	}
+
+	private boolean onCycle(Network network, Connection connection) {
+		String source = connection.getSource().getInstance().get();
+		Set<String> visited = new HashSet<>();
+		Deque<String> queue = new ArrayDeque<>();
+		queue.add(connection.getTarget().getInstance().get());
+		while (!queue.isEmpty()) {
+			String instance = queue.remove();
+			if (instance.equals(source)) {
+				return true;
+			}
+			if (visited.add(instance)) {
+				for (Connection c : network.getConnections()) {
+					if (c.getSource().getInstance().equals(Optional.of(instance)) && c.getTarget().getInstance().isPresent()) {
+						queue.add(c.getTarget().getInstance().get());
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if the paths that reconverge at the target only pass through actors with static rates. The forks
+	 * of those paths are the upstream actors with output connections that lead to different input connections of the
+	 * target. The forks and the actors between them and the target must have static rates, and every input connection
+	 * of the actors after the forks and of the target must be one of the edges between actors with static rates.
+	 */
+	private boolean staticReconvergence(Network network, Set<Connection> edges, Map<String, StaticSchedule> schedules, String target) {
+		Map<String, Set<Connection>> reaches = new HashMap<>();
+		for (Connection input : network.getConnections()) {
+			if (input.getTarget().getInstance().equals(Optional.of(target))) {
+				if (!edges.contains(input)) {
+					return false;
+				}
+				Deque<String> queue = new ArrayDeque<>();
+				queue.add(input.getSource().getInstance().get());
+				while (!queue.isEmpty()) {
+					String instance = queue.remove();
+					if (reaches.computeIfAbsent(instance, i -> new HashSet<>()).add(input)) {
+						for (Connection c : network.getConnections()) {
+							if (c.getTarget().getInstance().equals(Optional.of(instance)) && c.getSource().getInstance().isPresent()) {
+								queue.add(c.getSource().getInstance().get());
+							}
+						}
+					}
+				}
+			}
+		}
+
+		Set<String> forks = new HashSet<>();
+		for (Map.Entry<String, Set<Connection>> entry : reaches.entrySet()) {
+			String instance = entry.getKey();
+			if (entry.getValue().size() > 1 && network.getConnections().stream()
+					.filter(c -> c.getSource().getInstance().equals(Optional.of(instance)))
+					.map(c -> c.getTarget().getInstance().equals(Optional.of(target)) ? Collections.singleton(c) : reaches.getOrDefault(c.getTarget().getInstance().orElse(null), Collections.emptySet()))
+					.noneMatch(entry.getValue()::equals)) {
+				forks.add(instance);
+			}
+		}
+
+		Set<String> between = new HashSet<>();
+		Deque<String> queue = new ArrayDeque<>(forks);
+		while (!queue.isEmpty()) {
+			String instance = queue.remove();
+			for (Connection c : network.getConnections()) {
+				if (c.getSource().getInstance().equals(Optional.of(instance)) && c.getTarget().getInstance().isPresent()) {
+					String next = c.getTarget().getInstance().get();
+					if (reaches.containsKey(next) && between.add(next)) {
+						queue.add(next);
+					}
+				}
+			}
+		}
+
+		if (!forks.stream().allMatch(schedules::containsKey) || !between.stream().allMatch(schedules::containsKey)) {
+			return false;
+		}
+		return network.getConnections().stream()
+				.filter(c -> c.getTarget().getInstance().isPresent() && between.contains(c.getTarget().getInstance().get()))
+				.allMatch(edges::contains);
+	}
+
+	/**
+	 * Assigns relative repetition counts to the instances connected to start, such that each connection transfers as
+	 * many tokens from its producer as its consumer takes. Returns false if a connection contradicts an earlier
+	 * assignment.
+	 */
+	private boolean solveBalanceEquations(String start, List<Connection> edges, Map<String, StaticSchedule> schedules, Map<String, Rational> repetitions) {
+		boolean consistent = true;
+		repetitions.put(start, new Rational(1, 1));
+		Deque<String> queue = new ArrayDeque<>();
+		queue.add(start);
+		while (!queue.isEmpty()) {
+			String instance = queue.remove();
+			for (Connection edge : edges) {
+				String source = edge.getSource().getInstance().get();
+				String target = edge.getTarget().getInstance().get();
+				long production = production(schedules, edge);
+				long consumption = consumption(schedules, edge);
+				String other;
+				Rational expected;
+				if (source.equals(instance)) {
+					other = target;
+					expected = repetitions.get(source).times(production, consumption);
+				} else if (target.equals(instance)) {
+					other = source;
+					expected = repetitions.get(target).times(consumption, production);
+				} else {
+					continue;
+				}
+				Rational current = repetitions.get(other);
+				if (current == null) {
+					repetitions.put(other, expected);
+					queue.add(other);
+				} else if (!current.equals(expected)) {
+					consistent = false;
+				}
+			}
+		}
+		return consistent;
+	}
+
+	private static long lcm(long a, long b) {
+		return a / StaticSchedule.gcd(a, b) * b;
+	}
+
+	private static final class Rational {
+		private final long numerator;
+		private final long denominator;
+
+		Rational(long numerator, long denominator) {
+			long d = StaticSchedule.gcd(numerator, denominator);
+			this.numerator = numerator / d;
+			this.denominator = denominator / d;
+		}
+
+		Rational times(long numerator, long denominator) {
+			return new Rational(this.numerator * numerator, this.denominator * denominator);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Rational && ((Rational) o).numerator == numerator && ((Rational) o).denominator == denominator;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(numerator) * 31 + Long.hashCode(denominator);
+		}
+	}
+}
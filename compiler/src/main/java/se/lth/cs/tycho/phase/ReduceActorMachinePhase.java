@@ -5,16 +5,19 @@ import org.multij.BindingKind;
 import org.multij.Module;
 import org.multij.MultiJ;
 import se.lth.cs.tycho.compiler.CompilationTask;
+import se.lth.cs.tycho.compiler.Compiler;
 import se.lth.cs.tycho.compiler.Context;
+import se.lth.cs.tycho.compiler.Transformations;
 import se.lth.cs.tycho.ir.IRNode;
 import se.lth.cs.tycho.ir.decl.Decl;
 import se.lth.cs.tycho.ir.decl.GlobalEntityDecl;
-import se.lth.cs.tycho.ir.entity.Entity;
 import se.lth.cs.tycho.ir.entity.am.ActorMachine;
 import se.lth.cs.tycho.ir.entity.am.ctrl.State;
-import se.lth.cs.tycho.transformation.reduction.MergeStates;
+import se.lth.cs.tycho.transformation.reduction.ConditionProfile;
+import se.lth.cs.tycho.transformation.reduction.MinimizedController;
 import se.lth.cs.tycho.transformation.reduction.SelectFirstInstruction;
 import se.lth.cs.tycho.transformation.reduction.SelectInformativeTests;
+import se.lth.cs.tycho.transformation.reduction.SelectLikelyTests;
 import se.lth.cs.tycho.transformation.reduction.SelectRandom;
 import se.lth.cs.tycho.transformation.reduction.ShortestPath;
 import se.lth.cs.tycho.transformation.reduction.TransformedController;
@@ -23,15 +26,16 @@ import se.lth.cs.tycho.settings.EnumSetting;
 import se.lth.cs.tycho.settings.IntegerSetting;
 import se.lth.cs.tycho.settings.ListSetting;
 import se.lth.cs.tycho.settings.OptionalSetting;
+import se.lth.cs.tycho.settings.PathSetting;
 import se.lth.cs.tycho.settings.Setting;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.function.Function;
-import java.util.stream.Stream;
 
 public class ReduceActorMachinePhase implements Phase {
 	private static final Setting<Integer> amStateMergeIterations = new IntegerSetting() {
@@ -42,17 +46,17 @@ public class ReduceActorMachinePhase implements Phase {
 
 		@Override
 		public String getDescription() {
-			return "Number of iterations to merge identical states in the actor machines.";
+			return "Deprecated and ignored. The actor machine controllers are now minimized in one pass.";
 		}
 
 		@Override
 		public Integer defaultValue(Configuration configuration) {
-			return 20; // As some point RVC_MPEG4_SP_Decoder needed 13 iterations to be fully reduced.
+			return 20;
 		}
 	};
 
 	public enum ReductionAlgorithm {
-		FIRST, RANDOM, SHORTEST_PATH_TO_EXEC, INFORMATIVE_TESTS, INFORMATIVE_TESTS_IF_TRUE, INFORMATIVE_TESTS_IF_FALSE
+		FIRST, RANDOM, SHORTEST_PATH_TO_EXEC, INFORMATIVE_TESTS, INFORMATIVE_TESTS_IF_TRUE, INFORMATIVE_TESTS_IF_FALSE, PROFILE
 	}
 
 	private static final Setting<List<ReductionAlgorithm>> reductionAlgorithm = new ListSetting<ReductionAlgorithm>(
@@ -95,12 +99,35 @@ public class ReduceActorMachinePhase implements Phase {
 		}
 	}, "time");
 
+	private static final Setting<Optional<Path>> reductionProfile = new OptionalSetting<>(new PathSetting() {
+		@Override
+		public String getKey() {
+			return "reduction-profile";
+		}
+
+		@Override
+		public String getDescription() {
+			return "Condition profile, written by a program generated with condition-profile, for the PROFILE reduction algorithm.";
+		}
+
+		@Override
+		public Optional<Path> read(String value) {
+			return value.equals("none") ? Optional.empty() : super.read(value);
+		}
+
+		@Override
+		public Path defaultValue(Configuration configuration) {
+			throw new UnsupportedOperationException();
+		}
+	}, "none");
+
 	@Override
 	public List<Setting<?>> getPhaseSettings() {
 		return Arrays.asList(
-				amStateMergeIterations,
 				reductionAlgorithm,
-				randomSeed);
+				randomSeed,
+				reductionProfile,
+				amStateMergeIterations);
 	}
 
 	@Override
@@ -108,7 +135,7 @@ public class ReduceActorMachinePhase implements Phase {
 		return "Reduces the actor machines to deterministic actor machines.";
 	}
 
-	private static List<Function<State, State>> reductionAlgorithms(Configuration configuration) {
+	private static List<Function<State, State>> reductionAlgorithms(Configuration configuration, ActorMachine actorMachine, ConditionProfile.Counts profile) {
 		List<Function<State, State>> result = new ArrayList<>();
 		for (ReductionAlgorithm algorithm : configuration.get(reductionAlgorithm)) {
 			switch (algorithm) {
@@ -130,6 +157,9 @@ public class ReduceActorMachinePhase implements Phase {
 				case INFORMATIVE_TESTS_IF_FALSE:
 					result.add(SelectInformativeTests.trueInformative());
 					break;
+				case PROFILE:
+					result.add(new SelectLikelyTests(actorMachine.getConditions(), profile));
+					break;
 				default:
 					throw new AssertionError();
 			}
@@ -137,20 +167,24 @@ public class ReduceActorMachinePhase implements Phase {
 		return result;
 	}
 
-	private static List<Function<State, State>> reductionList(Configuration configuration) {
-		int iterations = configuration.get(amStateMergeIterations);
+	private static List<Function<State, State>> reductionList(Configuration configuration, ActorMachine actorMachine, ConditionProfile.Counts profile) {
 		List<Function<State, State>> reducers = new ArrayList<>();
-		reducers.addAll(reductionAlgorithms(configuration));
+		reducers.addAll(reductionAlgorithms(configuration, actorMachine, profile));
 		reducers.add(new SelectFirstInstruction());
-		Stream.generate(MergeStates::new).limit(iterations).forEach(reducers::add);
 		return reducers;
 	}
 
 	@Override
 	public CompilationTask execute(CompilationTask task, Context context) {
-		return task.transformChildren(MultiJ.from(ReduceActorMachine.class)
+		ConditionProfile profile = context.getConfiguration().get(reductionProfile)
+				.map(ConditionProfile::read)
+				.orElse(ConditionProfile.empty());
+		ReduceActorMachine reduction = MultiJ.from(ReduceActorMachine.class)
 				.bind("config").to(context.getConfiguration())
-				.instance());
+				.bind("profile").to(profile)
+				.instance();
+		return Transformations.transformEntityDecls(task, context.getConfiguration().get(Compiler.actorMachineThreads),
+				decl -> (GlobalEntityDecl) reduction.apply(decl));
 	}
 
 	@Module
@@ -158,8 +192,11 @@ public class ReduceActorMachinePhase implements Phase {
 		@Binding(BindingKind.INJECTED)
 		Configuration config();
 
-		default List<Function<State, State>> transformations() {
-			return reductionList(config());
+		@Binding(BindingKind.INJECTED)
+		ConditionProfile profile();
+
+		default List<Function<State, State>> transformations(ActorMachine actorMachine, String entity) {
+			return reductionList(config(), actorMachine, profile().of(entity));
 		}
 
 		@Override
@@ -172,16 +209,16 @@ public class ReduceActorMachinePhase implements Phase {
 		}
 
 		default IRNode apply(GlobalEntityDecl decl) {
-			return decl.transformChildren(this);
-		}
-
-		default IRNode apply(Entity entity) {
-			return entity;
+			if (decl.getEntity() instanceof ActorMachine) {
+				return decl.withEntity(reduce((ActorMachine) decl.getEntity(), decl.getOriginalName()));
+			} else {
+				return decl;
+			}
 		}
 
-		default IRNode apply(ActorMachine actorMachine) {
-			return actorMachine.withController(TransformedController.from(actorMachine.controller(),
-					transformations()));
+		default ActorMachine reduce(ActorMachine actorMachine, String entity) {
+			return actorMachine.withController(MinimizedController.from(TransformedController.from(actorMachine.controller(),
+					transformations(actorMachine, entity))));
 		}
 	}
 
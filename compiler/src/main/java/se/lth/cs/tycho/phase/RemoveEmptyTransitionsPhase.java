@@ -1,6 +1,7 @@
 package se.lth.cs.tycho.phase;
 
 import se.lth.cs.tycho.compiler.CompilationTask;
+import se.lth.cs.tycho.compiler.Compiler;
 import se.lth.cs.tycho.compiler.Context;
 import se.lth.cs.tycho.compiler.Transformations;
 import se.lth.cs.tycho.ir.decl.GlobalEntityDecl;
@@ -28,7 +29,7 @@ public class RemoveEmptyTransitionsPhase implements Phase {
 
 	@Override
 	public CompilationTask execute(CompilationTask task, Context context) {
-		return Transformations.transformEntityDecls(task, this::transformEntityDecl);
+		return Transformations.transformEntityDecls(task, context.getConfiguration().get(Compiler.actorMachineThreads), this::transformEntityDecl);
 	}
 
 	private GlobalEntityDecl transformEntityDecl(GlobalEntityDecl entityDecl) {
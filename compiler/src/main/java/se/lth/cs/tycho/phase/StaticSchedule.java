@@ -0,0 +1,153 @@
+package se.lth.cs.tycho.phase;
+
+import se.lth.cs.tycho.ir.Port;
+import se.lth.cs.tycho.ir.entity.am.ActorMachine;
+import se.lth.cs.tycho.ir.entity.am.Condition;
+import se.lth.cs.tycho.ir.entity.am.PortCondition;
+import se.lth.cs.tycho.ir.entity.am.Transition;
+import se.lth.cs.tycho.ir.entity.am.ctrl.Exec;
+import se.lth.cs.tycho.ir.entity.am.ctrl.Instruction;
+import se.lth.cs.tycho.ir.entity.am.ctrl.State;
+import se.lth.cs.tycho.ir.entity.am.ctrl.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * The firing sequence of an actor machine with static rates. An actor machine has static rates if it only tests port
+ * conditions and can fire at most one transition in each controller state. Its transitions are then fired in a fixed
+ * order, which after an initial prefix repeats a cycle of phases, as in cyclo-static dataflow.
+ */
+final class StaticSchedule {
+	private final List<Firing> prefix;
+	private final List<Firing> cycle;
+
+	private StaticSchedule(List<Firing> prefix, List<Firing> cycle) {
+		this.prefix = prefix;
+		this.cycle = cycle;
+	}
+
+	/**
+	 * Follows the controller from the initial state, assuming that all tested port conditions hold, until a state is
+	 * revisited. Returns empty if the actor machine does not have static rates.
+	 */
+	static Optional<StaticSchedule> of(ActorMachine actorMachine) {
+		List<State> states = actorMachine.controller().getStateList();
+		for (State state : states) {
+			Set<Integer> transitions = new HashSet<>();
+			if (!reachableTransitions(actorMachine, state, transitions, new HashSet<>())) {
+				return Optional.empty();
+			}
+			if (transitions.size() > 1) {
+				return Optional.empty();
+			}
+		}
+		List<Firing> phases = new ArrayList<>();
+		Map<State, Integer> visited = new HashMap<>();
+		State state = actorMachine.controller().getInitialState();
+		Map<Port, Integer> required = new HashMap<>();
+		while (!visited.containsKey(state)) {
+			visited.put(state, phases.size());
+			Instruction instruction = state.getInstructions().get(0);
+			while (instruction instanceof Test) {
+				Test test = (Test) instruction;
+				PortCondition condition = (PortCondition) actorMachine.getCondition(test.condition());
+				if (condition.isInputCondition()) {
+					required.merge(condition.getPortName(), condition.N(), Math::max);
+				}
+				instruction = test.targetTrue().getInstructions().get(0);
+			}
+			if (!(instruction instanceof Exec)) {
+				return Optional.empty();
+			}
+			Exec exec = (Exec) instruction;
+			Transition transition = actorMachine.getTransitions().get(exec.transition());
+			Map<Port, Integer> requirements = new HashMap<>(transition.getInputRates());
+			required.forEach((port, n) -> requirements.merge(port, n, Math::max));
+			phases.add(new Firing(requirements, transition.getInputRates(), transition.getOutputRates()));
+			required = new HashMap<>();
+			state = exec.target();
+		}
+		int cycleStart = visited.get(state);
+		return Optional.of(new StaticSchedule(phases.subList(0, cycleStart), phases.subList(cycleStart, phases.size())));
+	}
+
+	private static boolean reachableTransitions(ActorMachine actorMachine, State state, Set<Integer> transitions, Set<State> visited) {
+		if (!visited.add(state)) {
+			return true;
+		}
+		for (Instruction instruction : state.getInstructions()) {
+			if (instruction instanceof Exec) {
+				transitions.add(((Exec) instruction).transition());
+			} else if (instruction instanceof Test) {
+				Test test = (Test) instruction;
+				Condition condition = actorMachine.getCondition(test.condition());
+				if (!(condition instanceof PortCondition)) {
+					return false;
+				}
+				if (!reachableTransitions(actorMachine, test.targetTrue(), transitions, visited)
+						|| !reachableTransitions(actorMachine, test.targetFalse(), transitions, visited)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	static long gcd(long a, long b) {
+		return b == 0 ? a : gcd(b, a % b);
+	}
+
+	private List<Firing> all() {
+		List<Firing> all = new ArrayList<>(prefix);
+		all.addAll(cycle);
+		return all;
+	}
+
+	long production(Port port) {
+		return cycle.stream().mapToLong(p -> p.outputRates.getOrDefault(port, 0)).sum();
+	}
+
+	long consumption(Port port) {
+		return cycle.stream().mapToLong(p -> p.inputRates.getOrDefault(port, 0)).sum();
+	}
+
+	long initialProduction(Port port) {
+		return prefix.stream().mapToLong(p -> p.outputRates.getOrDefault(port, 0)).sum();
+	}
+
+	long maxProduction(Port port) {
+		return all().stream().mapToLong(p -> p.outputRates.getOrDefault(port, 0)).max().orElse(0);
+	}
+
+	long maxRequirement(Port port) {
+		return all().stream().mapToLong(p -> p.requirements.getOrDefault(port, 0)).max().orElse(0);
+	}
+
+	long rateGcd(Port port) {
+		long result = 0;
+		for (Firing phase : all()) {
+			result = gcd(result, phase.outputRates.getOrDefault(port, 0));
+			result = gcd(result, phase.inputRates.getOrDefault(port, 0));
+			result = gcd(result, phase.requirements.getOrDefault(port, 0));
+		}
+		return result;
+	}
+
+	private static final class Firing {
+		private final Map<Port, Integer> requirements;
+		private final Map<Port, Integer> inputRates;
+		private final Map<Port, Integer> outputRates;
+
+		Firing(Map<Port, Integer> requirements, Map<Port, Integer> inputRates, Map<Port, Integer> outputRates) {
+			this.requirements = requirements;
+			this.inputRates = inputRates;
+			this.outputRates = outputRates;
+		}
+	}
+}
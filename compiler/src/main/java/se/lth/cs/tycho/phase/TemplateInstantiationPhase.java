@@ -459,7 +459,7 @@ public class TemplateInstantiationPhase implements Phase {
             NamespaceDecl namespace = sourceUnit.getTree();
             // -- the first time encountering a namespace
             // -- need to initialize the set of named values
-            staging().interpretedValues().putIfAbsent(namespace, new HashSet<>());
+            staging().interpretedValues().putIfAbsent(namespace, new LinkedHashSet<>());
 
             String valueName;
 
@@ -820,7 +820,7 @@ public class TemplateInstantiationPhase implements Phase {
         // -- for every interpreted value v, we only keep a single name per namespace
         // -- same values across different namespaces will have different names to keep the
         // -- namespaces independent of each other. If we do not use namespaces to k
-        private final Map<NamespaceDecl, Set<NamedValue>> interpretedValues = new HashMap<>();
+        private final Map<NamespaceDecl, Set<NamedValue>> interpretedValues = new LinkedHashMap<>();
 
         private final Map<String, AlgebraicTypeDecl> typeDeclarations = new HashMap<>();
         private final Map<MetaAlgebraicTypeDecl, List<AlgebraicTypeDecl>> typeInstances = new HashMap<>();
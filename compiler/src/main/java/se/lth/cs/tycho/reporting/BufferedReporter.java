@@ -0,0 +1,36 @@
+package se.lth.cs.tycho.reporting;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+
+/**
+ * Collects diagnostics instead of printing them, so that they can be forwarded to another reporter later.
+ */
+public class BufferedReporter implements Reporter {
+	private final List<Diagnostic> diagnostics;
+	private final EnumMap<Diagnostic.Kind, Integer> counts;
+
+	public BufferedReporter() {
+		diagnostics = new ArrayList<>();
+		counts = new EnumMap<>(Diagnostic.Kind.class);
+		for (Diagnostic.Kind kind : Diagnostic.Kind.values()) {
+			counts.put(kind, 0);
+		}
+	}
+
+	@Override
+	public void report(Diagnostic diagnostic) {
+		counts.put(diagnostic.getKind(), counts.get(diagnostic.getKind()) + 1);
+		diagnostics.add(diagnostic);
+	}
+
+	@Override
+	public int getMessageCount(Diagnostic.Kind kind) {
+		return counts.get(kind);
+	}
+
+	public void forwardTo(Reporter reporter) {
+		diagnostics.forEach(reporter::report);
+	}
+}
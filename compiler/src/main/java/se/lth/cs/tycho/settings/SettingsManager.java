@@ -72,7 +72,11 @@ public class SettingsManager {
                 .add(Compiler.targetPath)
                 .add(Reporter.reportingLevel)
                 .add(Compiler.phaseTimer)
+                .add(Compiler.actorMachineThreads)
                 .add(Loader.followLinks)
+                .add(Loader.loaderThreads)
+                .add(Loader.parseCache)
+                .add(Loader.parseCachePath)
 				.build();
     }
 
@@ -1,6 +1,7 @@
 package se.lth.cs.tycho.transformation;
 
 import se.lth.cs.tycho.compiler.CompilationTask;
+import se.lth.cs.tycho.compiler.GlobalDeclarations;
 import se.lth.cs.tycho.compiler.SourceUnit;
 import se.lth.cs.tycho.compiler.SyntheticSourceUnit;
 import se.lth.cs.tycho.ir.IRNode;
@@ -35,8 +36,8 @@ public final class DuplicateEntity {
 
 		GlobalEntityDecl entity = original;
 
-		String localName = entity.getOriginalName() + "_" + uniqueNumbers.getAsLong();
 		QID namespace = instance.getEntityName().getButLast();
+		String localName = uniqueName(task, namespace, entity.getOriginalName(), uniqueNumbers);
 		QID globalName = namespace.concat(QID.of(localName));
 		entity = (GlobalEntityDecl) RenameVariables.appendNumber(entity, d -> true, uniqueNumbers, task);
 		entity = entity.withName(localName);
@@ -83,6 +84,18 @@ public final class DuplicateEntity {
 
 	}
 
+	/**
+	 * Returns a name that is not already declared in the namespace, since template instantiation numbers the
+	 * entities it creates independently of the given numbers.
+	 */
+	private static String uniqueName(CompilationTask task, QID namespace, String base, LongSupplier uniqueNumbers) {
+		String name;
+		do {
+			name = base + "_" + uniqueNumbers.getAsLong();
+		} while (!GlobalDeclarations.findEntities(task, namespace.concat(QID.of(name))).isEmpty());
+		return name;
+	}
+
 	private static GlobalEntityDecl renamePortUses(GlobalEntityDecl entity, Map<String, String> inputPorts, Map<String, String> outputPorts) {
 		Map<String, String> ports = new HashMap<>(inputPorts);
 		ports.putAll(outputPorts);
@@ -10,7 +10,6 @@ import se.lth.cs.tycho.ir.entity.am.ctrl.Instruction;
 import se.lth.cs.tycho.ir.entity.am.ctrl.State;
 import se.lth.cs.tycho.ir.entity.am.ctrl.Test;
 import se.lth.cs.tycho.ir.entity.am.ctrl.Wait;
-import se.lth.cs.tycho.ir.Port;
 import se.lth.cs.tycho.ir.QID;
 import se.lth.cs.tycho.ir.entity.cal.Action;
 import se.lth.cs.tycho.ir.entity.cal.CalActor;
@@ -20,15 +19,12 @@ import se.lth.cs.tycho.ir.expr.Expression;
 import se.lth.cs.tycho.phase.TreeShadow;
 import se.lth.cs.tycho.settings.Configuration;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collections;
 import java.util.EnumSet;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -43,7 +39,8 @@ public class CalToAm {
     private final Transitions transitions;
     private final Conditions conditions;
 
-    private final Map<CalState, CalState> stateCache;
+    private final StateEncoding encoding;
+    private final StateTable stateTable;
 
     public CalToAm(CalActor actor, Configuration configuration, ConstantEvaluator constants, Types types, TreeShadow tree, Ports ports, VariableDeclarations variableDecl, VariableScopes variableScopes, FreeVariables freeVar) {
         this.actor = actor;
@@ -54,7 +51,8 @@ public class CalToAm {
         this.conditions = new Conditions(actor, constants);
         this.scopes = new Scopes(actor, constants, types, tree, variableDecl, variableScopes, freeVar);
         this.transitions = new Transitions(actor, constants, types, tree, scopes, ports, conditions, variableDecl, variableScopes, freeVar);
-        this.stateCache = new HashMap<>();
+        this.encoding = new StateEncoding(conditions.getAllConditions());
+        this.stateTable = new StateTable();
     }
 
     public ActorMachine buildActorMachine() {
@@ -66,26 +64,63 @@ public class CalToAm {
     private class CalController implements Controller {
         @Override
         public State getInitialState() {
-            return cached(new CalState(schedule.getInitialState(), null, null, null));
+            return stateTable.intern(encoding.initial(schedule.getInitialState()));
         }
     }
 
-    private CalState cached(CalState s) {
-        return stateCache.computeIfAbsent(s, Function.identity());
+    /**
+     * Interns the controller states by their encoding, using open addressing with linear probing.
+     */
+    private final class StateTable {
+        private CalState[] table = new CalState[64];
+        private int size = 0;
+
+        CalState intern(long[] key) {
+            int hash = StateEncoding.hash(key);
+            int mask = table.length - 1;
+            int i = hash & mask;
+            while (table[i] != null) {
+                CalState state = table[i];
+                if (state.hash == hash && Arrays.equals(state.key, key)) {
+                    return state;
+                }
+                i = (i + 1) & mask;
+            }
+            CalState state = new CalState(key, hash);
+            table[i] = state;
+            size += 1;
+            if (2 * size > table.length) {
+                grow();
+            }
+            return state;
+        }
+
+        private void grow() {
+            CalState[] old = table;
+            table = new CalState[old.length * 2];
+            int mask = table.length - 1;
+            for (CalState state : old) {
+                if (state != null) {
+                    int i = state.hash & mask;
+                    while (table[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    table[i] = state;
+                }
+            }
+        }
     }
 
     private class CalState implements State {
         private List<Instruction> instructions;
+        private final long[] key;
+        private final int hash;
         private final Set<String> state;
-        private final Map<Port, PortKnowledge> inputPorts;
-        private final Map<Port, PortKnowledge> outputPorts;
-        private final Map<PredicateCondition, Boolean> predicateConditions;
-
-        public CalState(Set<String> state, Map<Port, PortKnowledge> inputPorts, Map<Port, PortKnowledge> outputPorts, Map<PredicateCondition, Boolean> predicateConditions) {
-            this.state = state == null ? Collections.emptySet() : state;
-            this.inputPorts = inputPorts == null ? Collections.emptyMap() : inputPorts;
-            this.outputPorts = outputPorts == null ? Collections.emptyMap() : outputPorts;
-            this.predicateConditions = predicateConditions == null ? Collections.emptyMap() : predicateConditions;
+
+        public CalState(long[] key, int hash) {
+            this.key = key;
+            this.hash = hash;
+            this.state = encoding.scheduleState(key);
         }
 
         @Override
@@ -95,7 +130,6 @@ public class CalToAm {
             }
             return instructions;
         }
-
         private List<Instruction> computeInstructions() {
             List<Action> notDisabled = schedule.getEligibleActions(state).stream()
                     .filter(action -> inputConditions(action) != Knowledge.FALSE)
@@ -177,77 +211,48 @@ public class CalToAm {
         }
 
         private Knowledge predicateCondition(PredicateCondition predicateCondition) {
-            return Knowledge.ofNullable(predicateConditions.get(predicateCondition));
+            return encoding.predicate(key, predicateCondition);
         }
 
         private Knowledge portCondition(PortCondition condition) {
-            Map<Port, PortKnowledge> knowledge;
-            if (condition.isInputCondition()) {
-                knowledge = inputPorts;
-            } else {
-                knowledge = outputPorts;
-            }
-            return knowledge.getOrDefault(condition.getPortName(), PortKnowledge.nil()).has(condition.N());
+            return encoding.port(key, condition).has(condition.N());
         }
 
         private Exec createExec(Action action) {
-            Map<Port, PortKnowledge> input;
+            long[] target = encoding.withScheduleState(key, schedule.targetState(state, action));
             if (onExec.contains(KnowledgeRemoval.KnowledgeKind.INPUT)) {
-                input = null;
+                encoding.clearPorts(target, true);
             } else {
-                input = new HashMap<>(inputPorts);
                 action.getInputPatterns().stream()
                         .map(conditions::getCondition)
-                        .forEach(cond -> input.compute(cond.getPortName(), (port, k) -> k.add(-cond.N())));
+                        .forEach(cond -> encoding.setPort(target, cond, encoding.port(target, cond).add(-cond.N())));
             }
-            Map<Port, PortKnowledge> output;
             if (onExec.contains(KnowledgeRemoval.KnowledgeKind.OUTPUT)) {
-                output = null;
+                encoding.clearPorts(target, false);
             } else {
-                output = new HashMap<>(outputPorts);
                 action.getOutputExpressions().stream()
                         .map(conditions::getCondition)
-                        .forEach(cond -> output.compute(cond.getPortName(), (port, k) -> k.add(-cond.N())));
+                        .forEach(cond -> encoding.setPort(target, cond, encoding.port(target, cond).add(-cond.N())));
             }
-            Map<PredicateCondition, Boolean> guards;
-            if (onExec.contains(KnowledgeRemoval.KnowledgeKind.GUARDS)) {
-                guards = null;
-            } else {
-                guards = null; // TODO: implement a more fine grained removal
-            }
-            CalState target = cached(new CalState(schedule.targetState(state, action), input, output, guards));
-            return new Exec(transitions.getTransitionIndex(action), target);
+            encoding.clearPredicates(target); // TODO: implement a more fine grained removal
+            return new Exec(transitions.getTransitionIndex(action), stateTable.intern(target));
         }
 
         private CalState withCondition(PortCondition condition, boolean value) {
-            Map<Port, PortKnowledge> ports;
-            if (condition.isInputCondition()) {
-                ports = new HashMap<>(inputPorts);
-            } else {
-                ports = new HashMap<>(outputPorts);
-            }
-            PortKnowledge current = ports.getOrDefault(condition.getPortName(), PortKnowledge.nil());
-            PortKnowledge next;
+            long[] target = key.clone();
+            PortKnowledge current = encoding.port(key, condition);
             if (value) {
-                next = current.withLowerBound(condition.N());
-            } else {
-                next = current.withUpperBound(condition.N() - 1);
-            }
-            ports.put(condition.getPortName(), next);
-            Map<Port, PortKnowledge> inputPorts = this.inputPorts;
-            Map<Port, PortKnowledge> outputPorts = this.outputPorts;
-            if (condition.isInputCondition()) {
-                inputPorts = ports;
+                encoding.setPort(target, condition, current.withLowerBound(condition.N()));
             } else {
-                outputPorts = ports;
+                encoding.setPort(target, condition, current.withUpperBound(condition.N() - 1));
             }
-            return cached(new CalState(state, inputPorts, outputPorts, predicateConditions));
+            return stateTable.intern(target);
         }
 
         private CalState withCondition(PredicateCondition condition, boolean value) {
-            Map<PredicateCondition, Boolean> predicateConditions = new HashMap<>(this.predicateConditions);
-            predicateConditions.put(condition, value);
-            return cached(new CalState(state, inputPorts, outputPorts, predicateConditions));
+            long[] target = key.clone();
+            encoding.setPredicate(target, condition, value);
+            return stateTable.intern(target);
         }
 
         private Test createTest(InputPattern input) {
@@ -282,68 +287,33 @@ public class CalToAm {
                     .mapToInt(conditions::getConditionIndex)
                     .forEach(waitingFor::set);
 
-            Map<Port, PortKnowledge> input;
+            long[] target = key.clone();
             if (onWait.contains(KnowledgeRemoval.KnowledgeKind.INPUT)) {
-                input = null;
+                encoding.clearPorts(target, true);
             } else {
-                input = withoutAbsenceKnowledge(inputPorts);
+                encoding.removeAbsenceKnowledge(target, true);
             }
-            Map<Port, PortKnowledge> output;
             if (onWait.contains(KnowledgeRemoval.KnowledgeKind.OUTPUT)) {
-                output = null;
+                encoding.clearPorts(target, false);
             } else {
-                output = withoutAbsenceKnowledge(outputPorts);
+                encoding.removeAbsenceKnowledge(target, false);
             }
-            Map<PredicateCondition, Boolean> guards;
             if (onWait.contains(KnowledgeRemoval.KnowledgeKind.GUARDS)) {
-                guards = null;
-            } else {
-                guards = predicateConditions;
+                encoding.clearPredicates(target);
             }
-            CalState target = cached(new CalState(state, input, output, guards));
-            return new Wait(target, waitingFor);
-        }
-
-        public Map<Port, PortKnowledge> withoutAbsenceKnowledge(Map<Port, PortKnowledge> knowledge) {
-            Map<Port, PortKnowledge> result = new HashMap<>(knowledge);
-            List<Port> ports = new ArrayList<>(result.keySet());
-            for (Port port : ports) {
-                PortKnowledge k = result.get(port);
-                if (k.lowerBound() == 0) {
-                    result.remove(port);
-                } else {
-                    result.put(port, k.withoutUpperBound());
-                }
-            }
-            return result;
+            return new Wait(stateTable.intern(target), waitingFor);
         }
 
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
-
-            CalState calState = (CalState) o;
-
-            if (getActor() != calState.getActor())
-                if (!state.equals(calState.state)) return false;
-            if (!inputPorts.equals(calState.inputPorts)) return false;
-            if (!outputPorts.equals(calState.outputPorts)) return false;
-            return predicateConditions.equals(calState.predicateConditions);
-
-        }
-
-        private CalActor getActor() {
-            return actor;
+            return Arrays.equals(key, ((CalState) o).key);
         }
 
         @Override
         public int hashCode() {
-            int result = state.hashCode();
-            result = 31 * result + inputPorts.hashCode();
-            result = 31 * result + outputPorts.hashCode();
-            result = 31 * result + predicateConditions.hashCode();
-            return result;
+            return hash;
         }
     }
 }
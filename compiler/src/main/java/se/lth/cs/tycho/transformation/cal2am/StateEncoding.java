@@ -0,0 +1,147 @@
+package se.lth.cs.tycho.transformation.cal2am;
+
+import se.lth.cs.tycho.ir.Port;
+import se.lth.cs.tycho.ir.entity.am.Condition;
+import se.lth.cs.tycho.ir.entity.am.PortCondition;
+import se.lth.cs.tycho.ir.entity.am.PredicateCondition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Encodes the knowledge of a controller state as an array of longs. The first word is the index of the interned set
+ * of schedule states. It is followed by one word per input port and one per output port, holding the lower bound in
+ * the high half and the upper bound plus one in the low half, so that a port without knowledge is zero. The
+ * predicate conditions follow with two bits each.
+ */
+final class StateEncoding {
+	private static final long UNKNOWN = 0;
+	private static final long FALSE = 1;
+	private static final long TRUE = 2;
+	private static final long LOWER_BOUND = 0xFFFFFFFF00000000L;
+
+	private final Map<Set<String>, Integer> scheduleStateIndex;
+	private final List<Set<String>> scheduleStates;
+	private final Map<Port, Integer> inputPorts;
+	private final Map<Port, Integer> outputPorts;
+	private final Map<Condition, Integer> predicates;
+	private final int outputOffset;
+	private final int predicateOffset;
+	private final int length;
+
+	StateEncoding(List<Condition> conditions) {
+		this.scheduleStateIndex = new HashMap<>();
+		this.scheduleStates = new ArrayList<>();
+		this.inputPorts = new HashMap<>();
+		this.outputPorts = new HashMap<>();
+		this.predicates = new IdentityHashMap<>();
+		for (Condition condition : conditions) {
+			if (condition instanceof PortCondition) {
+				PortCondition portCondition = (PortCondition) condition;
+				Map<Port, Integer> ports = portCondition.isInputCondition() ? inputPorts : outputPorts;
+				ports.putIfAbsent(portCondition.getPortName(), ports.size());
+			} else {
+				predicates.put(condition, predicates.size());
+			}
+		}
+		this.outputOffset = 1 + inputPorts.size();
+		this.predicateOffset = outputOffset + outputPorts.size();
+		this.length = predicateOffset + (predicates.size() + 31) / 32;
+	}
+
+	/**
+	 * A hash that mixes all bits of the words, since the bounds of a port would otherwise cancel out.
+	 */
+	static int hash(long[] key) {
+		long h = 0;
+		for (long word : key) {
+			h = (h + word) * 0x9E3779B97F4A7C15L;
+			h ^= h >>> 29;
+		}
+		return (int) (h ^ (h >>> 32));
+	}
+
+	long[] initial(Set<String> scheduleState) {
+		long[] key = new long[length];
+		key[0] = scheduleStateIndex(scheduleState);
+		return key;
+	}
+
+	Set<String> scheduleState(long[] key) {
+		return scheduleStates.get((int) key[0]);
+	}
+
+	long[] withScheduleState(long[] key, Set<String> scheduleState) {
+		long[] result = key.clone();
+		result[0] = scheduleStateIndex(scheduleState);
+		return result;
+	}
+
+	private int scheduleStateIndex(Set<String> scheduleState) {
+		Integer index = scheduleStateIndex.get(scheduleState);
+		if (index == null) {
+			index = scheduleStates.size();
+			scheduleStates.add(scheduleState);
+			scheduleStateIndex.put(scheduleState, index);
+		}
+		return index;
+	}
+
+	private int portWord(PortCondition condition) {
+		if (condition.isInputCondition()) {
+			return 1 + inputPorts.get(condition.getPortName());
+		} else {
+			return outputOffset + outputPorts.get(condition.getPortName());
+		}
+	}
+
+	PortKnowledge port(long[] key, PortCondition condition) {
+		long word = key[portWord(condition)];
+		return new PortKnowledge((int) (word >>> 32), (int) word - 1);
+	}
+
+	void setPort(long[] key, PortCondition condition, PortKnowledge knowledge) {
+		key[portWord(condition)] = ((long) knowledge.lowerBound() << 32) | ((knowledge.upperBound() + 1) & 0xFFFFFFFFL);
+	}
+
+	void clearPorts(long[] key, boolean input) {
+		Arrays.fill(key, input ? 1 : outputOffset, input ? outputOffset : predicateOffset, 0);
+	}
+
+	/**
+	 * Forgets the upper bounds of the ports, which also forgets ports without a lower bound.
+	 */
+	void removeAbsenceKnowledge(long[] key, boolean input) {
+		for (int i = input ? 1 : outputOffset, end = input ? outputOffset : predicateOffset; i < end; i++) {
+			key[i] &= LOWER_BOUND;
+		}
+	}
+
+	Knowledge predicate(long[] key, PredicateCondition condition) {
+		int index = predicates.get(condition);
+		long value = (key[predicateOffset + index / 32] >>> (2 * (index % 32))) & 3;
+		if (value == TRUE) {
+			return Knowledge.TRUE;
+		} else if (value == FALSE) {
+			return Knowledge.FALSE;
+		} else {
+			return Knowledge.UNKNOWN;
+		}
+	}
+
+	void setPredicate(long[] key, PredicateCondition condition, boolean value) {
+		int index = predicates.get(condition);
+		int shift = 2 * (index % 32);
+		int word = predicateOffset + index / 32;
+		key[word] = (key[word] & ~(3L << shift)) | ((value ? TRUE : FALSE) << shift);
+	}
+
+	void clearPredicates(long[] key) {
+		Arrays.fill(key, predicateOffset, length, UNKNOWN);
+	}
+}
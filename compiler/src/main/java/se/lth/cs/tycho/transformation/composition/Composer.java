@@ -18,6 +18,7 @@ import se.lth.cs.tycho.ir.stmt.StmtConsume;
 import se.lth.cs.tycho.ir.stmt.StmtWrite;
 import se.lth.cs.tycho.ir.util.ImmutableList;
 import se.lth.cs.tycho.phase.CompositionPhase;
+import se.lth.cs.tycho.reporting.Reporter;
 
 import java.util.HashMap;
 import java.util.List;
@@ -29,11 +30,17 @@ public class Composer {
     private final List<ActorMachine> actorMachines;
     private final List<Connection> connections;
     private final boolean eagerTest;
+    private final int stateBudget;
+    private final Reporter reporter;
+    private final String name;
 
-    public Composer(List<ActorMachine> actorMachines, List<Connection> connections, Context context) {
+    public Composer(List<ActorMachine> actorMachines, List<Connection> connections, Context context, String name) {
         this.actorMachines = actorMachines;
         this.connections = connections;
         this.eagerTest = context.getConfiguration().get(CompositionPhase.eagerTestSetting);
+        this.stateBudget = context.getConfiguration().get(CompositionPhase.stateBudgetSetting);
+        this.reporter = context.getReporter();
+        this.name = name;
     }
 
     public ActorMachine compose() {
@@ -71,7 +78,7 @@ public class Composer {
                 collectAll(ActorMachine::getTypeParameters),
                 collectAll(ActorMachine::getValueParameters),
                 rename.mapChecked(Scope.class, collectAll(ActorMachine::getScopes)),
-                new CompositionController(actorMachines, connections, eagerTest),
+                new CompositionController(actorMachines, connections, eagerTest, stateBudget, reporter, name),
                 rename.mapChecked(Transition.class, collectAll(ActorMachine::getTransitions)),
                 rename.mapChecked(Condition.class, collectAll(ActorMachine::getConditions)));
     }
@@ -11,6 +11,8 @@ import se.lth.cs.tycho.ir.entity.am.ctrl.Instruction;
 import se.lth.cs.tycho.ir.entity.am.ctrl.State;
 import se.lth.cs.tycho.ir.entity.am.ctrl.Test;
 import se.lth.cs.tycho.ir.entity.am.ctrl.Wait;
+import se.lth.cs.tycho.reporting.Diagnostic;
+import se.lth.cs.tycho.reporting.Reporter;
 import se.lth.cs.tycho.transformation.cal2am.Knowledge;
 
 import java.util.Arrays;
@@ -22,18 +24,32 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+/**
+ * The product of the controllers of a group of actor machines, built lazily as its states are visited. At most
+ * stateBudget product states are created; the state that would exceed the budget throws a
+ * StateBudgetExceededException. The growth of the state space is reported each time it doubles.
+ */
 public class CompositionController implements Controller {
+	private static final int FIRST_REPORT = 1024;
 
 	private final List<ActorMachine> actorMachines;
 	private final List<Connection> connections;
 	private final CompositionState initialState;
 	private final Map<CompositionState, CompositionState> cache;
 	private final boolean eagerTest;
+	private final int stateBudget;
+	private final Reporter reporter;
+	private final String name;
+	private int nextReport;
 
-	public CompositionController(List<ActorMachine> actorMachines, List<Connection> connections, boolean eagerTest) {
+	public CompositionController(List<ActorMachine> actorMachines, List<Connection> connections, boolean eagerTest, int stateBudget, Reporter reporter, String name) {
 		this.actorMachines = actorMachines;
 		this.connections = connections;
 		this.cache = new HashMap<>();
+		this.stateBudget = stateBudget;
+		this.reporter = reporter;
+		this.name = name;
+		this.nextReport = FIRST_REPORT;
 		this.initialState = state(actorMachines.stream().map(am -> am.controller().getInitialState()).toArray(State[]::new), new int[connections.size()]);
 		this.eagerTest = eagerTest;
 	}
@@ -64,8 +80,15 @@ public class CompositionController implements Controller {
 		CompositionState state = new CompositionState(states, tokens);
 		CompositionState cached = cache.get(state);
 		if (cached == null) {
+			if (cache.size() >= stateBudget) {
+				throw new StateBudgetExceededException(stateBudget);
+			}
 			cache.put(state, state);
 			cached = state;
+			if (cache.size() == nextReport) {
+				nextReport *= 2;
+				reporter.report(new Diagnostic(Diagnostic.Kind.INFO, "Composition " + name + " has reached " + cache.size() + " states."));
+			}
 		}
 		return cached;
 	}
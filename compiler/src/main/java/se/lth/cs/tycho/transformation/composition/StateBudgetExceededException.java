@@ -0,0 +1,17 @@
+package se.lth.cs.tycho.transformation.composition;
+
+/**
+ * Thrown by a composition controller that reaches more product states than its budget allows.
+ */
+public class StateBudgetExceededException extends RuntimeException {
+	private final int budget;
+
+	public StateBudgetExceededException(int budget) {
+		super("The composition has more than " + budget + " states.");
+		this.budget = budget;
+	}
+
+	public int getBudget() {
+		return budget;
+	}
+}
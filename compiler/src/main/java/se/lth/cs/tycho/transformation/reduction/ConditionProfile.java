@@ -0,0 +1,85 @@
+package se.lth.cs.tycho.transformation.reduction;
+
+import se.lth.cs.tycho.reporting.CompilationException;
+import se.lth.cs.tycho.reporting.Diagnostic;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The condition outcomes and transition firings recorded by a program that was generated with a condition profile.
+ * The file has one line "entity condition index true false" per condition and one line "entity transition index count"
+ * per transition of each actor instance. The counts of the instances of an entity are added together.
+ */
+public final class ConditionProfile {
+	private static final ConditionProfile EMPTY = new ConditionProfile(Collections.emptyMap());
+
+	private final Map<String, Counts> entities;
+
+	private ConditionProfile(Map<String, Counts> entities) {
+		this.entities = entities;
+	}
+
+	public static ConditionProfile empty() {
+		return EMPTY;
+	}
+
+	public static ConditionProfile read(Path file) {
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(file);
+		} catch (IOException e) {
+			throw CompilationException.from(e);
+		}
+		Map<String, Counts> entities = new HashMap<>();
+		for (String line : lines) {
+			String[] parts = line.trim().split("\\s+");
+			try {
+				if (parts.length == 5 && parts[1].equals("condition")) {
+					Counts counts = entities.computeIfAbsent(parts[0], entity -> new Counts());
+					long[] outcomes = counts.conditions.computeIfAbsent(Integer.parseInt(parts[2]), c -> new long[2]);
+					outcomes[0] += Long.parseLong(parts[3]);
+					outcomes[1] += Long.parseLong(parts[4]);
+				} else if (parts.length == 4 && parts[1].equals("transition")) {
+					Counts counts = entities.computeIfAbsent(parts[0], entity -> new Counts());
+					counts.transitions.merge(Integer.parseInt(parts[2]), Long.parseLong(parts[3]), Long::sum);
+				} else if (!line.trim().isEmpty()) {
+					throw new NumberFormatException();
+				}
+			} catch (NumberFormatException e) {
+				throw new CompilationException(new Diagnostic(Diagnostic.Kind.ERROR, "Invalid line in condition profile " + file + ": " + line));
+			}
+		}
+		return new ConditionProfile(entities);
+	}
+
+	/**
+	 * Returns the counts of an entity, which are all zero if the entity is not in the profile.
+	 */
+	public Counts of(String entity) {
+		return entities.getOrDefault(entity, new Counts());
+	}
+
+	public static final class Counts {
+		private final Map<Integer, long[]> conditions = new HashMap<>();
+		private final Map<Integer, Long> transitions = new HashMap<>();
+
+		/**
+		 * The estimated probability that a condition is true, with one added to each outcome so that conditions
+		 * that were never tested are as likely to be true as false.
+		 */
+		public double probability(int condition) {
+			long[] outcomes = conditions.getOrDefault(condition, new long[2]);
+			return (outcomes[0] + 1.0) / (outcomes[0] + outcomes[1] + 2.0);
+		}
+
+		public long fired(int transition) {
+			return transitions.getOrDefault(transition, 0L);
+		}
+	}
+}
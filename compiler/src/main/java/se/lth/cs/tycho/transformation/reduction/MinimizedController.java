@@ -0,0 +1,279 @@
+package se.lth.cs.tycho.transformation.reduction;
+
+import se.lth.cs.tycho.ir.entity.am.ctrl.Controller;
+import se.lth.cs.tycho.ir.entity.am.ctrl.Exec;
+import se.lth.cs.tycho.ir.entity.am.ctrl.Instruction;
+import se.lth.cs.tycho.ir.entity.am.ctrl.State;
+import se.lth.cs.tycho.ir.entity.am.ctrl.Test;
+import se.lth.cs.tycho.ir.entity.am.ctrl.Wait;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The minimal controller that is equivalent to a given controller. Two states are equivalent if they have the same
+ * instructions, with the same transitions and conditions, and equivalent targets. The equivalence classes are found
+ * by partition refinement, using Hopcroft's algorithm on the states and their targets. As when merging identical
+ * states one level at a time, the waits-for sets of wait instructions are not compared.
+ */
+public class MinimizedController implements Controller {
+	private final State initialState;
+	private final List<State> stateList;
+
+	private MinimizedController(State initialState, List<State> stateList) {
+		this.initialState = initialState;
+		this.stateList = stateList;
+	}
+
+	@Override
+	public State getInitialState() {
+		return initialState;
+	}
+
+	@Override
+	public List<State> getStateList() {
+		return stateList;
+	}
+
+	public static Controller from(Controller controller) {
+		List<State> states = controller.getStateList();
+		int n = states.size();
+		Map<State, Integer> index = new IdentityHashMap<>();
+		for (State state : states) {
+			index.put(state, index.size());
+		}
+
+		// Each state has a label and an ordered list of targets. The position of a target is its letter.
+		int[] label = new int[n];
+		int[][] targets = new int[n][];
+		Map<List<Object>, Integer> labels = new HashMap<>();
+		int letters = 0;
+		for (int s = 0; s < n; s++) {
+			List<Object> key = new ArrayList<>();
+			List<State> successors = new ArrayList<>();
+			for (Instruction instruction : states.get(s).getInstructions()) {
+				if (instruction instanceof Exec) {
+					key.add("exec");
+					key.add(((Exec) instruction).transition());
+					successors.add(((Exec) instruction).target());
+				} else if (instruction instanceof Test) {
+					key.add("test");
+					key.add(((Test) instruction).condition());
+					successors.add(((Test) instruction).targetTrue());
+					successors.add(((Test) instruction).targetFalse());
+				} else {
+					key.add("wait");
+					successors.add(((Wait) instruction).target());
+				}
+			}
+			label[s] = labels.computeIfAbsent(key, k -> labels.size());
+			targets[s] = successors.stream().mapToInt(index::get).toArray();
+			letters = Math.max(letters, targets[s].length);
+		}
+
+		Partition partition = new Partition(n, label, labels.size());
+
+		// The predecessors of each state, for each letter, as compressed rows.
+		int[][] predecessorStart = new int[letters][];
+		int[][] predecessors = new int[letters][];
+		for (int a = 0; a < letters; a++) {
+			int[] start = new int[n + 1];
+			for (int s = 0; s < n; s++) {
+				if (a < targets[s].length) {
+					start[targets[s][a] + 1] += 1;
+				}
+			}
+			for (int t = 0; t < n; t++) {
+				start[t + 1] += start[t];
+			}
+			int[] fill = Arrays.copyOf(start, n);
+			int[] pred = new int[start[n]];
+			for (int s = 0; s < n; s++) {
+				if (a < targets[s].length) {
+					pred[fill[targets[s][a]]++] = s;
+				}
+			}
+			predecessorStart[a] = start;
+			predecessors[a] = pred;
+		}
+
+		Deque<int[]> work = new ArrayDeque<>();
+		boolean[][] inWork = new boolean[letters][];
+		for (int a = 0; a < letters; a++) {
+			inWork[a] = new boolean[n];
+			for (int b = 0; b < partition.blocks; b++) {
+				work.add(new int[] { b, a });
+				inWork[a][b] = true;
+			}
+		}
+
+		int[] splitter = new int[n];
+		List<Integer> touched = new ArrayList<>();
+		while (!work.isEmpty()) {
+			int[] item = work.remove();
+			int block = item[0];
+			int a = item[1];
+			inWork[a][block] = false;
+
+			// The splitter is copied, since marking may reorder the elements of the block itself.
+			int size = partition.end[block] - partition.first[block];
+			System.arraycopy(partition.elements, partition.first[block], splitter, 0, size);
+			for (int i = 0; i < size; i++) {
+				int t = splitter[i];
+				for (int p = predecessorStart[a][t]; p < predecessorStart[a][t + 1]; p++) {
+					int b = partition.mark(predecessors[a][p]);
+					if (b >= 0) {
+						touched.add(b);
+					}
+				}
+			}
+			for (int b : touched) {
+				int created = partition.split(b);
+				if (created >= 0) {
+					for (int letter = 0; letter < letters; letter++) {
+						if (inWork[letter][b]) {
+							work.add(new int[] { created, letter });
+							inWork[letter][created] = true;
+						} else {
+							int smaller = partition.size(created) <= partition.size(b) ? created : b;
+							work.add(new int[] { smaller, letter });
+							inWork[letter][smaller] = true;
+						}
+					}
+				}
+			}
+			touched.clear();
+		}
+
+		// One state per block, in the order that the blocks are first reached.
+		BlockState[] blockStates = new BlockState[partition.blocks];
+		List<State> stateList = new ArrayList<>();
+		for (int s = 0; s < n; s++) {
+			int b = partition.block[s];
+			if (blockStates[b] == null) {
+				blockStates[b] = new BlockState();
+				stateList.add(blockStates[b]);
+			}
+		}
+		boolean[] done = new boolean[partition.blocks];
+		for (int s = 0; s < n; s++) {
+			int b = partition.block[s];
+			if (!done[b]) {
+				done[b] = true;
+				List<Instruction> instructions = new ArrayList<>();
+				for (Instruction instruction : states.get(s).getInstructions()) {
+					instructions.add(instruction.accept(
+							exec -> new Exec(exec.transition(), blockStates[partition.block[index.get(exec.target())]]),
+							test -> new Test(test.condition(),
+									blockStates[partition.block[index.get(test.targetTrue())]],
+									blockStates[partition.block[index.get(test.targetFalse())]]),
+							wait -> new Wait(blockStates[partition.block[index.get(wait.target())]], wait.waitsFor())));
+				}
+				blockStates[b].instructions = Collections.unmodifiableList(instructions);
+			}
+		}
+		State initial = blockStates[partition.block[index.get(controller.getInitialState())]];
+		return new MinimizedController(initial, Collections.unmodifiableList(stateList));
+	}
+
+	private static final class BlockState implements State {
+		private List<Instruction> instructions;
+
+		@Override
+		public List<Instruction> getInstructions() {
+			return instructions;
+		}
+	}
+
+	/**
+	 * A partition of the states into blocks of consecutive elements, where the marked elements of a block are moved
+	 * to its beginning.
+	 */
+	private static final class Partition {
+		private final int[] elements;
+		private final int[] location;
+		private final int[] block;
+		private final int[] first;
+		private final int[] marked;
+		private final int[] end;
+		private int blocks;
+
+		Partition(int n, int[] label, int labels) {
+			elements = new int[n];
+			location = new int[n];
+			block = new int[n];
+			first = new int[n];
+			marked = new int[n];
+			end = new int[n];
+			int[] count = new int[labels + 1];
+			for (int s = 0; s < n; s++) {
+				count[label[s] + 1] += 1;
+			}
+			for (int l = 0; l < labels; l++) {
+				count[l + 1] += count[l];
+			}
+			blocks = labels;
+			for (int l = 0; l < labels; l++) {
+				first[l] = count[l];
+				marked[l] = count[l];
+				end[l] = count[l + 1];
+			}
+			int[] fill = Arrays.copyOf(count, labels);
+			for (int s = 0; s < n; s++) {
+				int position = fill[label[s]]++;
+				elements[position] = s;
+				location[s] = position;
+				block[s] = label[s];
+			}
+		}
+
+		int size(int b) {
+			return end[b] - first[b];
+		}
+
+		/**
+		 * Marks a state and returns its block if this is the first mark in the block, otherwise -1.
+		 */
+		int mark(int s) {
+			int b = block[s];
+			int position = location[s];
+			if (position < marked[b]) {
+				return -1;
+			}
+			int other = elements[marked[b]];
+			elements[position] = other;
+			location[other] = position;
+			elements[marked[b]] = s;
+			location[s] = marked[b];
+			marked[b] += 1;
+			return marked[b] == first[b] + 1 ? b : -1;
+		}
+
+		/**
+		 * Splits the marked states of a block into a new block, unless all states are marked, and clears the marks.
+		 * Returns the new block or -1.
+		 */
+		int split(int b) {
+			if (marked[b] == end[b]) {
+				marked[b] = first[b];
+				return -1;
+			}
+			int created = blocks++;
+			first[created] = first[b];
+			end[created] = marked[b];
+			marked[created] = first[created];
+			first[b] = marked[b];
+			for (int i = first[created]; i < end[created]; i++) {
+				block[elements[i]] = created;
+			}
+			return created;
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package se.lth.cs.tycho.transformation.reduction;
+
+import se.lth.cs.tycho.ir.entity.am.Condition;
+import se.lth.cs.tycho.ir.entity.am.PortCondition;
+import se.lth.cs.tycho.ir.entity.am.ctrl.Instruction;
+import se.lth.cs.tycho.ir.entity.am.ctrl.InstructionKind;
+import se.lth.cs.tycho.ir.entity.am.ctrl.State;
+import se.lth.cs.tycho.util.TychoCollectors;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Selects instructions using a condition profile. The exec instructions of the most frequently fired transitions are
+ * selected first. Otherwise, the tests with the highest probability of leading directly to a state with an exec
+ * instruction are selected, and among those the tests with the most likely true condition. Guards are only tested
+ * when no input port is tested, since they may read the input tokens.
+ */
+public class SelectLikelyTests implements Function<State, State> {
+	private final List<Condition> conditions;
+	private final ConditionProfile.Counts counts;
+
+	public SelectLikelyTests(List<Condition> conditions, ConditionProfile.Counts counts) {
+		this.conditions = conditions;
+		this.counts = counts;
+	}
+
+	@Override
+	public State apply(State state) {
+		if (state.getInstructions().stream().anyMatch(i -> i.getKind() == InstructionKind.EXEC)) {
+			return new MultiInstructionState(state.getInstructions().stream()
+					.filter(i -> i.getKind() == InstructionKind.EXEC)
+					.collect(TychoCollectors.maximaBy(
+							Comparator.comparingLong(i -> counts.fired(i.accept(exec -> exec.transition(), test -> 0, wait -> 0))),
+							Collectors.toList())));
+		}
+		boolean inputTests = state.getInstructions().stream().anyMatch(this::isInputTest);
+		return new MultiInstructionState(state.getInstructions().stream()
+				.filter(i -> !inputTests || isInputTest(i))
+				.collect(TychoCollectors.maximaBy(
+						Comparator.comparingDouble(this::execProbability).thenComparingDouble(this::trueProbability),
+						Collectors.toList())));
+	}
+
+	private boolean isInputTest(Instruction instruction) {
+		return instruction.accept(
+				exec -> false,
+				test -> {
+					Condition condition = conditions.get(test.condition());
+					return condition instanceof PortCondition && ((PortCondition) condition).isInputCondition();
+				},
+				wait -> false);
+	}
+
+	private double execProbability(Instruction instruction) {
+		return instruction.accept(
+				exec -> 1.0,
+				test -> {
+					double p = counts.probability(test.condition());
+					return p * hasExec(test.targetTrue()) + (1 - p) * hasExec(test.targetFalse());
+				},
+				wait -> -1.0);
+	}
+
+	private double trueProbability(Instruction instruction) {
+		return instruction.accept(
+				exec -> 1.0,
+				test -> counts.probability(test.condition()),
+				wait -> -1.0);
+	}
+
+	private static double hasExec(State state) {
+		return state.getInstructions().stream().anyMatch(i -> i.getKind() == InstructionKind.EXEC) ? 1.0 : 0.0;
+	}
+}
@@ -9,4 +9,23 @@ static void println(char *text) {
 	puts(text);
 }
 
+static inline size_t hash_int(uint64_t value) {
+	value ^= value >> 33;
+	value *= 0xff51afd7ed558ccdULL;
+	value ^= value >> 33;
+	value *= 0xc4ceb9fe1a85ec53ULL;
+	value ^= value >> 33;
+	return (size_t) value;
+}
+
+static inline size_t hash_real(double value) {
+	// 0.0 and -0.0 are equal
+	union { double real; uint64_t bits; } u = { value == 0.0 ? 0.0 : value };
+	return hash_int(u.bits);
+}
+
+static inline size_t hash_combine(size_t seed, size_t value) {
+	return seed ^ (value + (size_t) 0x9e3779b97f4a7c15ULL + (seed << 6) + (seed >> 2));
+}
+
 #endif
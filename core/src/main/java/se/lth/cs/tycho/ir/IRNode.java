@@ -2,6 +2,7 @@ package se.lth.cs.tycho.ir;
 
 import se.lth.cs.tycho.ir.util.ImmutableList;
 
+import java.io.Serializable;
 import java.util.List;
 import java.util.Spliterator;
 import java.util.Spliterators;
@@ -18,6 +19,8 @@ import java.util.stream.StreamSupport;
  * tree is immutable, meaning they cannot change. A transformation of the tree is therefore carried out by creating a
  * new tree, possibly with subtrees shared with its predecessor.
  *
+ * <p> Tree nodes are serializable, so that parsed trees can be stored between compilations.
+ *
  * <p> The type hierarchy rooted in {@code IRNode} does not implement the visitor pattern. Instead, it relies on
  * external libraries, such as MultiJ, to provide extensibility and dynamic dispatch.
  *
@@ -34,7 +37,7 @@ import java.util.stream.StreamSupport;
  *
  * @see <a href="http://multij.org">MultiJ</a>
  */
-public interface IRNode extends Cloneable {
+public interface IRNode extends Cloneable, Serializable {
 
 	/**
 	 * Executes an action on each child of this tree node.
@@ -1,5 +1,6 @@
 package se.lth.cs.tycho.ir;
 
+import java.io.Serializable;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -160,6 +161,10 @@ public final class QID extends AbstractIRNode{
 		return new QID(result);
 	}
 
+	private Object writeReplace() {
+		return parts instanceof Serializable ? this : new QID(this, new ArrayList<>(parts));
+	}
+
 	private static void assertNonEmptyNames(QID qid) {
 		if (qid.parts.stream().anyMatch(String::isEmpty)) {
 			throw new IllegalArgumentException("Empty names are not allowed");
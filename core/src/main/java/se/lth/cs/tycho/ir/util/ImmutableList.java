@@ -1,5 +1,6 @@
 package se.lth.cs.tycho.ir.util;
 
+import java.io.Serializable;
 import java.util.AbstractList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -15,7 +16,7 @@ import java.util.stream.Collector;
  * 
  * @param <E> the element type
  */
-public final class ImmutableList<E> extends AbstractList<E> {
+public final class ImmutableList<E> extends AbstractList<E> implements Serializable {
 
 	private final E[] list;
 	private final int size;
@@ -100,6 +101,10 @@ public final class ImmutableList<E> extends AbstractList<E> {
 		return EMPTY_LIST;
 	}
 
+	private Object readResolve() {
+		return size == 0 ? EMPTY_LIST : this;
+	}
+
 	/**
 	 * Returns a list with value v.
 	 * 
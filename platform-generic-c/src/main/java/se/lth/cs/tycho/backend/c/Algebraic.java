@@ -42,6 +42,7 @@ public interface Algebraic {
 				.bind("size").to(size())
 				.bind("copy").to(copy())
 				.bind("compare").to(compare())
+				.bind("hash").to(hash())
 				.instance();
 	}
 
@@ -55,6 +56,7 @@ public interface Algebraic {
 				.bind("size").to(size())
 				.bind("copy").to(copy())
 				.bind("compare").to(compare())
+				.bind("hash").to(hash())
 				.instance();
 	}
 
@@ -148,6 +150,16 @@ public interface Algebraic {
 				.instance();
 	}
 
+	@Binding(LAZY)
+	default Hash hash() {
+		return MultiJ.from(Hash.class)
+				.bind("backend").to(backend())
+				.bind("code").to(backend().code())
+				.bind("emitter").to(backend().emitter())
+				.bind("utils").to(utils())
+				.instance();
+	}
+
 	@Binding(LAZY)
 	default Utils utils() {
 		return MultiJ.from(Utils.class)
@@ -218,6 +230,8 @@ public interface Algebraic {
 		Copy copy();
 		@Binding(BindingKind.INJECTED)
 		Compare compare();
+		@Binding(BindingKind.INJECTED)
+		Hash hash();
 
 		default void apply(AlgebraicType type) {
 			typedef().apply(type);
@@ -228,6 +242,7 @@ public interface Algebraic {
 			size().prototype(type);
 			copy().prototype(type);
 			compare().prototype(type);
+			hash().prototype(type);
 		}
 	}
 
@@ -248,6 +263,8 @@ public interface Algebraic {
 		Copy copy();
 		@Binding(BindingKind.INJECTED)
 		Compare compare();
+		@Binding(BindingKind.INJECTED)
+		Hash hash();
 
 		default void apply(AlgebraicType type) {
 			init().definition(type);
@@ -257,6 +274,7 @@ public interface Algebraic {
 			size().definition(type);
 			copy().definition(type);
 			compare().definition(type);
+			hash().definition(type);
 		}
 	}
 
@@ -825,6 +843,65 @@ public interface Algebraic {
 		}
 	}
 
+	@Module
+	interface Hash {
+
+		@Binding(BindingKind.INJECTED)
+		Backend backend();
+		@Binding(BindingKind.INJECTED)
+		Code code();
+		@Binding(BindingKind.INJECTED)
+		Emitter emitter();
+		@Binding(BindingKind.INJECTED)
+		Utils utils();
+
+		default void prototype(AlgebraicType type) {
+			emitter().emit("size_t hash_%s(%s);", code().type(type), code().declaration(type, "self"));
+			emitter().emit("");
+		}
+
+		void definition(AlgebraicType type);
+
+		default void definition(ProductType product) {
+			emitter().emit("size_t hash_%s(%s) {", code().type(product), code().declaration(product, "self"));
+			emitter().increaseIndentation();
+			emitter().emit("if (!self) return 0;");
+			emitter().emit("size_t hash = 0;");
+			product.getFields().forEach(field -> {
+				emitter().emit("hash = hash_combine(hash, %s);", code().hash(field.getType(), String.format("self->%s", field.getName())));
+			});
+			emitter().emit("return hash;");
+			emitter().decreaseIndentation();
+			emitter().emit("}");
+			emitter().emit("");
+		}
+
+		default void definition(SumType sum) {
+			emitter().emit("size_t hash_%s(%s) {", code().type(sum), code().declaration(sum, "self"));
+			emitter().increaseIndentation();
+			emitter().emit("if (!self) return 0;");
+			emitter().emit("size_t hash = hash_int(self->tag);");
+			emitter().emit("switch (self->tag) {");
+			emitter().increaseIndentation();
+			sum.getVariants().forEach(variant -> {
+				emitter().emit("case tag_%s_%s: {", utils().mangle(sum.getName()), utils().mangle(variant.getName()));
+				emitter().increaseIndentation();
+				variant.getFields().forEach(field -> {
+					emitter().emit("hash = hash_combine(hash, %s);", code().hash(field.getType(), String.format("self->data.%s.%s", utils().mangle(variant.getName()), field.getName())));
+				});
+				emitter().emit("break;");
+				emitter().decreaseIndentation();
+				emitter().emit("}");
+			});
+			emitter().decreaseIndentation();
+			emitter().emit("}");
+			emitter().emit("return hash;");
+			emitter().decreaseIndentation();
+			emitter().emit("}");
+			emitter().emit("");
+		}
+	}
+
 	@Module
 	interface Utils {
 
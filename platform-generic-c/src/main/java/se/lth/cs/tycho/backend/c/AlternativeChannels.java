@@ -5,10 +5,13 @@ import org.multij.BindingKind;
 import org.multij.Module;
 import se.lth.cs.tycho.ir.network.Connection;
 import se.lth.cs.tycho.ir.network.Network;
+import se.lth.cs.tycho.settings.Configuration;
+import se.lth.cs.tycho.settings.OnOffSetting;
 import se.lth.cs.tycho.type.AlgebraicType;
 import se.lth.cs.tycho.type.AliasType;
 import se.lth.cs.tycho.type.Type;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -22,11 +25,78 @@ public interface AlternativeChannels extends Channels {
 		return backend().emitter();
 	}
 
-	default void channelListCodeForType(Type type, int[] size) {
+	OnOffSetting pointerTokenChannels = new OnOffSetting() {
+		@Override
+		public String getKey() {
+			return "pointer-token-channels";
+		}
+
+		@Override
+		public String getDescription() {
+			return "Passes tokens of algebraic types through the channels as pointers instead of serializing them.";
+		}
+
+		@Override
+		public Boolean defaultValue(Configuration configuration) {
+			return false;
+		}
+	};
+
+	/**
+	 * Tokens of algebraic types are serialized to a heap buffer by the producer and deserialized by each peek. With
+	 * pointer tokens, the producer instead gives up ownership of the token, and the channels of a fan-out share it
+	 * with a reference count. A peek lends the token to the consumer, and the last channel to consume it frees it.
+	 */
+	default boolean isPointerToken(Type type) {
+		return false;
+	}
+
+	default boolean isPointerToken(AlgebraicType type) {
+		return backend().context().getConfiguration().get(pointerTokenChannels);
+	}
+
+	default boolean isPointerToken(AliasType type) {
+		return isPointerToken(type.getConcreteType());
+	}
+
+	/**
+	 * When the actors run on several threads, the producer and the consumer of a channel may run concurrently.
+	 * The read and write indices are then atomic. Each end loads the index of the other end with acquire semantics
+	 * and advances its own index with release semantics, so that a token is written before it is announced and
+	 * read before its slot is released.
+	 */
+	default boolean atomicIndices() {
+		return backend().partitioning().isMultiThreaded();
+	}
+
+	default String indexType() {
+		return atomicIndices() ? "_Atomic size_t" : "size_t";
+	}
+
+	default String ownIndex(String index) {
+		return atomicIndices() ? "atomic_load_explicit(&" + index + ", memory_order_relaxed)" : index;
+	}
+
+	default String otherIndex(String index) {
+		return atomicIndices() ? "atomic_load_explicit(&" + index + ", memory_order_acquire)" : index;
+	}
+
+	default String advance(String index, String tokens) {
+		if (atomicIndices()) {
+			return String.format("atomic_store_explicit(&%s, %s + %s, memory_order_release);", index, ownIndex(index), tokens);
+		} else if (tokens.equals("1")) {
+			return index + "++;";
+		} else {
+			return index + " += " + tokens + ";";
+		}
+	}
+
+	default void channelListCodeForType(Type type, int[] size, boolean[] lockFree) {
 		String tokenType = backend().code().type(type);
-		List<String> sizeStrings = Arrays.stream(size)
-				.mapToObj(this::sizeToString)
-				.collect(Collectors.toList());
+		List<String> sizeStrings = new ArrayList<>();
+		for (int i = 0; i < size.length; i++) {
+			sizeStrings.add(channelSizeString(size[i], lockFree[i]));
+		}
 		List<String> bufferSizes = Arrays.stream(size)
 				.mapToObj(this::sizeToBufferSize)
 				.collect(Collectors.toList());
@@ -46,7 +116,11 @@ public interface AlternativeChannels extends Channels {
 		emitter().emit("	size_t min = SIZE_MAX;");
 		for (String bufferSize : bufferSizes) {
 			emitter().emit("	{");
-			emitter().emit("		size_t s = %s - (channel_list.channel_%d->write - channel_list.channel_%2$d->read);", bufferSize, index);
+			if (lockFree[index]) {
+				emitter().emit("		size_t s = channel_space_one_%s_%s(channel_list.channel_%d);", tokenType, sizeStrings.get(index), index);
+			} else {
+				emitter().emit("		size_t s = %s - (%s - %s);", bufferSize, ownIndex("channel_list.channel_" + index + "->write"), otherIndex("channel_list.channel_" + index + "->read"));
+			}
 			emitter().emit("		if (s < min) { min = s; }");
 			emitter().emit("	}");
 			index += 1;
@@ -58,7 +132,11 @@ public interface AlternativeChannels extends Channels {
 		emitter().emit("static inline _Bool channel_has_space_%s_%s(channel_list_%1$s_%2$s channel_list, size_t tokens) {", tokenType, String.join("_", sizeStrings));
 		index = 0;
 		for (String bufferSize : bufferSizes) {
-			emitter().emit("	if (%s - (channel_list.channel_%d->write - channel_list.channel_%2$d->read) < tokens) {", bufferSize, index);
+			if (lockFree[index]) {
+				emitter().emit("	if (!channel_has_space_one_%s_%s(channel_list.channel_%d, tokens)) {", tokenType, sizeStrings.get(index), index);
+			} else {
+				emitter().emit("	if (%s - (%s - %s) < tokens) {", bufferSize, ownIndex("channel_list.channel_" + index + "->write"), otherIndex("channel_list.channel_" + index + "->read"));
+			}
 			emitter().emit("		return false;");
 			emitter().emit("	}");
 			index += 1;
@@ -70,11 +148,15 @@ public interface AlternativeChannels extends Channels {
 		emitter().emit("static inline void channel_write_one_%s_%s(channel_list_%1$s_%2$s channel_list, %1$s data) {", tokenType, String.join("_", sizeStrings));
 		index = 0;
 		for (int s : size) {
-			emitter().emit("	{");
-			emitter().emit("		channel_%s_%s *chan = channel_list.channel_%d;", tokenType, sizeToString(s), index);
-			emitter().emit("		chan->buffer[chan->write %% %s] = data;", sizeToBufferSize(s));
-			emitter().emit("		chan->write++;");
-			emitter().emit("	}");
+			if (lockFree[index]) {
+				emitter().emit("	channel_push_%s_%s(channel_list.channel_%d, &data, 1);", tokenType, sizeStrings.get(index), index);
+			} else {
+				emitter().emit("	{");
+				emitter().emit("		channel_%s_%s *chan = channel_list.channel_%d;", tokenType, sizeToString(s), index);
+				emitter().emit("		chan->buffer[%s %% %s] = data;", ownIndex("chan->write"), sizeToBufferSize(s));
+				emitter().emit("		%s", advance("chan->write", "1"));
+				emitter().emit("	}");
+			}
 			index += 1;
 		}
 		emitter().emit("}");
@@ -83,13 +165,18 @@ public interface AlternativeChannels extends Channels {
 		emitter().emit("static inline void channel_write_%s_%s(channel_list_%1$s_%2$s channel_list, %1$s *data, size_t tokens) {", tokenType, String.join("_", sizeStrings));
 		index = 0;
 		for (int s : size) {
-			emitter().emit("	{");
-			emitter().emit("		channel_%s_%s *chan = channel_list.channel_%d;", tokenType, sizeToString(s), index);
-			emitter().emit("		for (size_t i = 0; i < tokens; i++) {");
-			emitter().emit("			chan->buffer[chan->write %% %s] = data[i];", sizeToBufferSize(s));
-			emitter().emit("			chan->write++;");
-			emitter().emit("		}");
-			emitter().emit("	}");
+			if (lockFree[index]) {
+				emitter().emit("	channel_push_%s_%s(channel_list.channel_%d, data, tokens);", tokenType, sizeStrings.get(index), index);
+			} else {
+				emitter().emit("	{");
+				emitter().emit("		channel_%s_%s *chan = channel_list.channel_%d;", tokenType, sizeToString(s), index);
+				emitter().emit("		size_t start = %s %% %s;", ownIndex("chan->write"), sizeToBufferSize(s));
+				emitter().emit("		size_t first = %s - start < tokens ? %1$s - start : tokens;", sizeToBufferSize(s));
+				emitter().emit("		memcpy(&chan->buffer[start], data, first * sizeof(%s));", tokenType);
+				emitter().emit("		memcpy(chan->buffer, data + first, (tokens - first) * sizeof(%s));", tokenType);
+				emitter().emit("		%s", advance("chan->write", "tokens"));
+				emitter().emit("	}");
+			}
 			index += 1;
 		}
 		emitter().emit("}");
@@ -97,7 +184,11 @@ public interface AlternativeChannels extends Channels {
 
 	}
 
-	default void channelListCodeForType(AlgebraicType type, int[] size) {
+	default void channelListCodeForType(AlgebraicType type, int[] size, boolean[] lockFree) {
+		if (isPointerToken(type)) {
+			pointerChannelListCodeForType(type, size);
+			return;
+		}
 		String tokenType = backend().code().type(type);
 		List<String> sizeStrings = Arrays.stream(size)
 				.mapToObj(this::sizeToString)
@@ -121,7 +212,7 @@ public interface AlternativeChannels extends Channels {
 		emitter().emit("	size_t min = SIZE_MAX;");
 		for (String bufferSize : bufferSizes) {
 			emitter().emit("	{");
-			emitter().emit("		size_t s = %s - (channel_list.channel_%d->write - channel_list.channel_%2$d->read);", bufferSize, index);
+			emitter().emit("		size_t s = %s - (%s - %s);", bufferSize, ownIndex("channel_list.channel_" + index + "->write"), otherIndex("channel_list.channel_" + index + "->read"));
 			emitter().emit("		if (s < min) { min = s; }");
 			emitter().emit("	}");
 			index += 1;
@@ -133,7 +224,7 @@ public interface AlternativeChannels extends Channels {
 		emitter().emit("static inline _Bool channel_has_space_%s_%s(channel_list_%1$s_%2$s channel_list, size_t tokens) {", tokenType, String.join("_", sizeStrings));
 		index = 0;
 		for (String bufferSize : bufferSizes) {
-			emitter().emit("	if (%s - (channel_list.channel_%d->write - channel_list.channel_%2$d->read) < tokens) {", bufferSize, index);
+			emitter().emit("	if (%s - (%s - %s) < tokens) {", bufferSize, ownIndex("channel_list.channel_" + index + "->write"), otherIndex("channel_list.channel_" + index + "->read"));
 			emitter().emit("		return false;");
 			emitter().emit("	}");
 			index += 1;
@@ -147,9 +238,9 @@ public interface AlternativeChannels extends Channels {
 		for (int s : size) {
 			emitter().emit("	{");
 			emitter().emit("		channel_%s_%s *chan = channel_list.channel_%d;", tokenType, sizeToString(s), index);
-			emitter().emit("		chan->buffer[chan->write %% %s] = calloc(1, size_%s(data));", sizeToBufferSize(s), tokenType);
-			emitter().emit("		write_%s(data, chan->buffer[chan->write %% %s]);", tokenType, sizeToBufferSize(s));
-			emitter().emit("		chan->write++;");
+			emitter().emit("		chan->buffer[%s %% %s] = calloc(1, size_%s(data));", ownIndex("chan->write"), sizeToBufferSize(s), tokenType);
+			emitter().emit("		write_%s(data, chan->buffer[%s %% %s]);", tokenType, ownIndex("chan->write"), sizeToBufferSize(s));
+			emitter().emit("		%s", advance("chan->write", "1"));
 			emitter().emit("	}");
 			index += 1;
 		}
@@ -162,9 +253,9 @@ public interface AlternativeChannels extends Channels {
 			emitter().emit("	{");
 			emitter().emit("		channel_%s_%s *chan = channel_list.channel_%d;", tokenType, sizeToString(s), index);
 			emitter().emit("		for (size_t i = 0; i < tokens; i++) {");
-			emitter().emit("			chan->buffer[chan->write %% %s] = calloc(1, size_%s(data[i]));", sizeToBufferSize(s), tokenType);
-			emitter().emit("			write_%s(data[i], chan->buffer[chan->write %% %s]);", tokenType, sizeToBufferSize(s));
-			emitter().emit("			chan->write++;");
+			emitter().emit("			chan->buffer[%s %% %s] = calloc(1, size_%s(data[i]));", ownIndex("chan->write"), sizeToBufferSize(s), tokenType);
+			emitter().emit("			write_%s(data[i], chan->buffer[%s %% %s]);", tokenType, ownIndex("chan->write"), sizeToBufferSize(s));
+			emitter().emit("			%s", advance("chan->write", "1"));
 			emitter().emit("		}");
 			emitter().emit("	}");
 			index += 1;
@@ -173,8 +264,8 @@ public interface AlternativeChannels extends Channels {
 		emitter().emit("");
 	}
 
-	default void channelListCodeForType(AliasType type, int[] size) {
-		channelListCodeForType(type.getConcreteType(), size);
+	default void channelListCodeForType(AliasType type, int[] size, boolean[] lockFree) {
+		channelListCodeForType(type.getConcreteType(), size, lockFree);
 	}
 
 	default String sizeToBufferSize(int size) {
@@ -188,7 +279,7 @@ public interface AlternativeChannels extends Channels {
 				.collect(Collectors.toList());
 		Type type = backend().types().connectionType(network, connections.get(0));
 		String size = connections.stream()
-				.map(c -> sizeToString(connectionBufferSize(c)))
+				.map(this::connectionSizeString)
 				.collect(Collectors.joining("_"));
 		return backend().code().type(type) + "_" + size;
 	}
@@ -199,11 +290,23 @@ public interface AlternativeChannels extends Channels {
 				.filter(conn -> conn.getTarget().equals(target))
 				.findFirst().get();
 		Type type = backend().types().connectionType(network, connection);
-		String size = sizeToString(connectionBufferSize(connection));
+		String size = connectionSizeString(connection);
 		return backend().code().type(type) + "_" + size;
 	}
 
 
+	default String connectionSizeString(Connection connection) {
+		if (isLockFree(connection)) {
+			return channelSizeString(lockFreeBufferSize(connection), true);
+		} else {
+			return channelSizeString(connectionBufferSize(connection), false);
+		}
+	}
+
+	default String channelSizeString(int size, boolean lockFree) {
+		return lockFree ? "L" + sizeToString(size) : sizeToString(size);
+	}
+
 	default String sizeToString(int size) {
 		if (size == 0) {
 			return "D";
@@ -221,32 +324,32 @@ public interface AlternativeChannels extends Channels {
 
 		emitter().emit("// CHANNEL %s", type);
 		emitter().emit("typedef struct {");
-		emitter().emit("	size_t read;");
-		emitter().emit("	size_t write;");
+		emitter().emit("	%s read;", indexType());
+		emitter().emit("	%s write;", indexType());
 		emitter().emit("	%s *buffer;", tokenType);
 		emitter().emit("} channel_%s_%s;", tokenType, sizeString);
 		emitter().emit("");
 
 		emitter().emit("static inline _Bool channel_has_data_%s_%s(channel_%1$s_%2$s *channel, size_t tokens) {", tokenType, sizeString);
-		emitter().emit("	return channel->write - channel->read >= tokens;");
+		emitter().emit("	return %s - %s >= tokens;", otherIndex("channel->write"), ownIndex("channel->read"));
 		emitter().emit("}");
 		emitter().emit("");
 
 		emitter().emit("static inline %s channel_peek_first_%1$s_%s(channel_%1$s_%2$s *channel) {", tokenType, sizeString);
-		emitter().emit("	return channel->buffer[channel->read %% %s];", bufferSize);
+		emitter().emit("	return channel->buffer[%s %% %s];", ownIndex("channel->read"), bufferSize);
 		emitter().emit("}");
 		emitter().emit("");
 
 		emitter().emit("static inline void channel_peek_%s_%s(channel_%1$s_%2$s *channel, size_t offset, size_t tokens, %1$s *result) {", tokenType, sizeString);
-		emitter().emit("	%s *res = result;", tokenType);
-		emitter().emit("	for (size_t i = 0; i < tokens; i++) {");
-		emitter().emit("		res[i] = channel->buffer[(channel->read+i+offset) %% %s];", bufferSize);
-		emitter().emit("	}");
+		emitter().emit("	size_t start = (%s + offset) %% %s;", ownIndex("channel->read"), bufferSize);
+		emitter().emit("	size_t first = %s - start < tokens ? %1$s - start : tokens;", bufferSize);
+		emitter().emit("	memcpy(result, &channel->buffer[start], first * sizeof(%s));", tokenType);
+		emitter().emit("	memcpy(result + first, channel->buffer, (tokens - first) * sizeof(%s));", tokenType);
 		emitter().emit("}");
 		emitter().emit("");
 
 		emitter().emit("static inline void channel_consume_%s_%s(channel_%1$s_%2$s *channel, size_t tokens) {", tokenType, sizeString);
-		emitter().emit("	channel->read += tokens;");
+		emitter().emit("	%s", advance("channel->read", "tokens"));
 		emitter().emit("}");
 		emitter().emit("");
 
@@ -265,25 +368,29 @@ public interface AlternativeChannels extends Channels {
 	}
 
 	default void channelCodeForType(AlgebraicType type, int size) {
+		if (isPointerToken(type)) {
+			pointerChannelCodeForType(type, size);
+			return;
+		}
 		String tokenType = backend().code().type(type);
 		String sizeString = sizeToString(size);
 		String bufferSize = sizeToBufferSize(size);
 
 		emitter().emit("// CHANNEL %s", type);
 		emitter().emit("typedef struct {");
-		emitter().emit("	size_t read;");
-		emitter().emit("	size_t write;");
+		emitter().emit("	%s read;", indexType());
+		emitter().emit("	%s write;", indexType());
 		emitter().emit("	char *buffer[%s];", bufferSize);
 		emitter().emit("} channel_%s_%s;", tokenType, sizeString);
 		emitter().emit("");
 
 		emitter().emit("static inline _Bool channel_has_data_%s_%s(channel_%1$s_%2$s *channel, size_t tokens) {", tokenType, sizeString);
-		emitter().emit("	return channel->write - channel->read >= tokens;");
+		emitter().emit("	return %s - %s >= tokens;", otherIndex("channel->write"), ownIndex("channel->read"));
 		emitter().emit("}");
 		emitter().emit("");
 
 		emitter().emit("static inline %s channel_peek_first_%1$s_%s(channel_%1$s_%2$s *channel) {", tokenType, sizeString);
-		emitter().emit("	%s res = read_%1$s(channel->buffer[channel->read %% %2$s]);", tokenType, bufferSize);
+		emitter().emit("	%s res = read_%1$s(channel->buffer[%s %% %s]);", tokenType, ownIndex("channel->read"), bufferSize);
 		emitter().emit("	return res;");
 		emitter().emit("}");
 		emitter().emit("");
@@ -291,17 +398,17 @@ public interface AlternativeChannels extends Channels {
 		emitter().emit("static inline void channel_peek_%s_%s(channel_%1$s_%2$s *channel, size_t offset, size_t tokens, %1$s *result) {", tokenType, sizeString);
 		emitter().emit("	%s *res = result;", tokenType);
 		emitter().emit("	for (size_t i = 0; i < tokens; i++) {");
-		emitter().emit("		res[i] = read_%s(channel->buffer[(channel->read+i+offset) %% %s]);", tokenType, bufferSize);
+		emitter().emit("		res[i] = read_%s(channel->buffer[(%s+i+offset) %% %s]);", tokenType, ownIndex("channel->read"), bufferSize);
 		emitter().emit("	}");
 		emitter().emit("}");
 		emitter().emit("");
 
 		emitter().emit("static inline void channel_consume_%s_%s(channel_%1$s_%2$s *channel, size_t tokens) {", tokenType, sizeString);
 		emitter().emit("	for (size_t i = 0; i < tokens; i++) {");
-		emitter().emit("		free(channel->buffer[(channel->read+i) %% %s]);", bufferSize);
-		emitter().emit("		channel->buffer[(channel->read+i) %% %s] = NULL;", bufferSize);
+		emitter().emit("		free(channel->buffer[(%s+i) %% %s]);", ownIndex("channel->read"), bufferSize);
+		emitter().emit("		channel->buffer[(%s+i) %% %s] = NULL;", ownIndex("channel->read"), bufferSize);
 		emitter().emit("	}");
-		emitter().emit("	channel->read += tokens;");
+		emitter().emit("	%s", advance("channel->read", "tokens"));
 		emitter().emit("}");
 		emitter().emit("");
 
@@ -327,6 +434,255 @@ public interface AlternativeChannels extends Channels {
 		channelCodeForType(type.getConcreteType(), size);
 	}
 
+	default void pointerChannelListCodeForType(AlgebraicType type, int[] size) {
+		String tokenType = backend().code().type(type);
+		List<String> sizeStrings = Arrays.stream(size)
+				.mapToObj(this::sizeToString)
+				.collect(Collectors.toList());
+		List<String> bufferSizes = Arrays.stream(size)
+				.mapToObj(this::sizeToBufferSize)
+				.collect(Collectors.toList());
+		String typeSize = tokenType + "_" + String.join("_", sizeStrings);
+
+		emitter().emit("typedef struct {");
+		int index = 0;
+		for (String sizeString : sizeStrings) {
+			emitter().emit("	channel_%s_%s *channel_%d;", tokenType, sizeString, index);
+			index += 1;
+		}
+		emitter().emit("");
+		emitter().emit("} channel_list_%s;", typeSize);
+		emitter().emit("");
+
+		emitter().emit("static inline size_t channel_space_%s(channel_list_%1$s channel_list) {", typeSize);
+		index = 0;
+		emitter().emit("	size_t min = SIZE_MAX;");
+		for (String bufferSize : bufferSizes) {
+			emitter().emit("	{");
+			emitter().emit("		size_t s = %s - (%s - %s);", bufferSize, ownIndex("channel_list.channel_" + index + "->write"), otherIndex("channel_list.channel_" + index + "->read"));
+			emitter().emit("		if (s < min) { min = s; }");
+			emitter().emit("	}");
+			index += 1;
+		}
+		emitter().emit("	return min;");
+		emitter().emit("}");
+		emitter().emit("");
+
+		emitter().emit("static inline _Bool channel_has_space_%s(channel_list_%1$s channel_list, size_t tokens) {", typeSize);
+		index = 0;
+		for (String bufferSize : bufferSizes) {
+			emitter().emit("	if (%s - (%s - %s) < tokens) {", bufferSize, ownIndex("channel_list.channel_" + index + "->write"), otherIndex("channel_list.channel_" + index + "->read"));
+			emitter().emit("		return false;");
+			emitter().emit("	}");
+			index += 1;
+		}
+		emitter().emit("	return true;");
+		emitter().emit("}");
+		emitter().emit("");
+
+		emitter().emit("static inline void channel_write_one_%s(channel_list_%1$s channel_list, %s data) {", typeSize, tokenType);
+		emitter().emit("	token_%s *token = malloc(sizeof(token_%1$s));", tokenType);
+		if (atomicIndices()) {
+			emitter().emit("	atomic_init(&token->refs, %d);", size.length);
+		} else {
+			emitter().emit("	token->refs = %d;", size.length);
+		}
+		emitter().emit("	token->value = data;");
+		index = 0;
+		for (int s : size) {
+			emitter().emit("	{");
+			emitter().emit("		channel_%s_%s *chan = channel_list.channel_%d;", tokenType, sizeToString(s), index);
+			emitter().emit("		chan->buffer[%s %% %s] = token;", ownIndex("chan->write"), sizeToBufferSize(s));
+			emitter().emit("		%s", advance("chan->write", "1"));
+			emitter().emit("	}");
+			index += 1;
+		}
+		emitter().emit("}");
+		emitter().emit("");
+
+		emitter().emit("static inline void channel_write_%s(channel_list_%1$s channel_list, %s *data, size_t tokens) {", typeSize, tokenType);
+		emitter().emit("	for (size_t i = 0; i < tokens; i++) {");
+		emitter().emit("		channel_write_one_%s(channel_list, data[i]);", typeSize);
+		emitter().emit("	}");
+		emitter().emit("}");
+		emitter().emit("");
+	}
+
+	default void pointerChannelCodeForType(AlgebraicType type, int size) {
+		String tokenType = backend().code().type(type);
+		String sizeString = sizeToString(size);
+		String bufferSize = sizeToBufferSize(size);
+
+		emitter().emit("// CHANNEL %s", type);
+		emitter().emit("#ifndef TOKEN_%s", tokenType);
+		emitter().emit("#define TOKEN_%s", tokenType);
+		emitter().emit("typedef struct {");
+		emitter().emit("	%s refs;", indexType());
+		emitter().emit("	%s value;", tokenType);
+		emitter().emit("} token_%s;", tokenType);
+		emitter().emit("");
+
+		emitter().emit("static inline void token_release_%s(token_%1$s *token) {", tokenType);
+		emitter().emit("	if (token == NULL) return;");
+		if (atomicIndices()) {
+			emitter().emit("	if (atomic_fetch_sub_explicit(&token->refs, 1, memory_order_acq_rel) == 1) {");
+		} else {
+			emitter().emit("	if (--token->refs == 0) {");
+		}
+		emitter().emit("		free_%s(token->value);", tokenType);
+		emitter().emit("		free(token);");
+		emitter().emit("	}");
+		emitter().emit("}");
+		emitter().emit("#endif");
+		emitter().emit("");
+
+		emitter().emit("typedef struct {");
+		emitter().emit("	%s read;", indexType());
+		emitter().emit("	%s write;", indexType());
+		emitter().emit("	token_%s *buffer[%s];", tokenType, bufferSize);
+		emitter().emit("} channel_%s_%s;", tokenType, sizeString);
+		emitter().emit("");
+
+		emitter().emit("static inline _Bool channel_has_data_%s_%s(channel_%1$s_%2$s *channel, size_t tokens) {", tokenType, sizeString);
+		emitter().emit("	return %s - %s >= tokens;", otherIndex("channel->write"), ownIndex("channel->read"));
+		emitter().emit("}");
+		emitter().emit("");
+
+		emitter().emit("static inline %s channel_peek_first_%1$s_%s(channel_%1$s_%2$s *channel) {", tokenType, sizeString);
+		emitter().emit("	return channel->buffer[%s %% %s]->value;", ownIndex("channel->read"), bufferSize);
+		emitter().emit("}");
+		emitter().emit("");
+
+		emitter().emit("static inline void channel_peek_%s_%s(channel_%1$s_%2$s *channel, size_t offset, size_t tokens, %1$s *result) {", tokenType, sizeString);
+		emitter().emit("	for (size_t i = 0; i < tokens; i++) {");
+		emitter().emit("		result[i] = channel->buffer[(%s+i+offset) %% %s]->value;", ownIndex("channel->read"), bufferSize);
+		emitter().emit("	}");
+		emitter().emit("}");
+		emitter().emit("");
+
+		emitter().emit("static inline void channel_consume_%s_%s(channel_%1$s_%2$s *channel, size_t tokens) {", tokenType, sizeString);
+		emitter().emit("	for (size_t i = 0; i < tokens; i++) {");
+		emitter().emit("		token_release_%s(channel->buffer[(%s+i) %% %s]);", tokenType, ownIndex("channel->read"), bufferSize);
+		emitter().emit("		channel->buffer[(%s+i) %% %s] = NULL;", ownIndex("channel->read"), bufferSize);
+		emitter().emit("	}");
+		emitter().emit("	%s", advance("channel->read", "tokens"));
+		emitter().emit("}");
+		emitter().emit("");
+
+		emitter().emit("static void channel_create_%s_%s(channel_%1$s_%2$s *channel) {", tokenType, sizeString);
+		emitter().emit("	channel->read = 0;");
+		emitter().emit("	channel->write = 0;");
+		emitter().emit("	for (size_t i = 0; i < %s; ++i) {", bufferSize);
+		emitter().emit("		channel->buffer[i] = NULL;");
+		emitter().emit("	}");
+		emitter().emit("}");
+		emitter().emit("");
+
+		emitter().emit("static void channel_destroy_%s_%s(channel_%1$s_%2$s *channel) {", tokenType, sizeString);
+		emitter().emit("	for (size_t i = 0; i < %s; ++i) {", bufferSize);
+		emitter().emit("		token_release_%s(channel->buffer[i]);", tokenType);
+		emitter().emit("		channel->buffer[i] = NULL;");
+		emitter().emit("	}");
+		emitter().emit("}");
+		emitter().emit("");
+	}
+
+	/**
+	 * A single-producer single-consumer channel where each end only writes its own index. The write index and the
+	 * consumer's copy of it, and the read index and the producer's copy of it, are on separate cache lines. Each end
+	 * reloads the index of the other end only when its cached copy is not enough to proceed.
+	 */
+	default void lockFreeChannelCodeForType(Type type, int size) {
+		String tokenType = backend().code().type(type);
+		String sizeString = channelSizeString(size, true);
+		String bufferSize = size == 0 ? "LOCK_FREE_BUFFER_SIZE" : Integer.toString(size);
+		String mask = "(" + bufferSize + " - 1)";
+
+		emitter().emit("// LOCK-FREE CHANNEL %s", type);
+		emitter().emit("typedef struct {");
+		emitter().emit("	_Alignas(CACHE_LINE_SIZE) _Atomic size_t write;");
+		emitter().emit("	size_t read_cache;");
+		emitter().emit("	_Alignas(CACHE_LINE_SIZE) _Atomic size_t read;");
+		emitter().emit("	size_t write_cache;");
+		emitter().emit("	_Alignas(CACHE_LINE_SIZE) %s *buffer;", tokenType);
+		emitter().emit("} channel_%s_%s;", tokenType, sizeString);
+		emitter().emit("");
+
+		emitter().emit("static inline _Bool channel_has_data_%s_%s(channel_%1$s_%2$s *channel, size_t tokens) {", tokenType, sizeString);
+		emitter().emit("	size_t read = atomic_load_explicit(&channel->read, memory_order_relaxed);");
+		emitter().emit("	if (channel->write_cache - read >= tokens) {");
+		emitter().emit("		return true;");
+		emitter().emit("	}");
+		emitter().emit("	channel->write_cache = atomic_load_explicit(&channel->write, memory_order_acquire);");
+		emitter().emit("	return channel->write_cache - read >= tokens;");
+		emitter().emit("}");
+		emitter().emit("");
+
+		emitter().emit("static inline %s channel_peek_first_%1$s_%s(channel_%1$s_%2$s *channel) {", tokenType, sizeString);
+		emitter().emit("	return channel->buffer[atomic_load_explicit(&channel->read, memory_order_relaxed) & %s];", mask);
+		emitter().emit("}");
+		emitter().emit("");
+
+		emitter().emit("static inline void channel_peek_%s_%s(channel_%1$s_%2$s *channel, size_t offset, size_t tokens, %1$s *result) {", tokenType, sizeString);
+		emitter().emit("	size_t start = (atomic_load_explicit(&channel->read, memory_order_relaxed) + offset) & %s;", mask);
+		emitter().emit("	size_t first = %s - start < tokens ? %1$s - start : tokens;", bufferSize);
+		emitter().emit("	memcpy(result, &channel->buffer[start], first * sizeof(%s));", tokenType);
+		emitter().emit("	memcpy(result + first, channel->buffer, (tokens - first) * sizeof(%s));", tokenType);
+		emitter().emit("}");
+		emitter().emit("");
+
+		emitter().emit("static inline void channel_consume_%s_%s(channel_%1$s_%2$s *channel, size_t tokens) {", tokenType, sizeString);
+		emitter().emit("	size_t read = atomic_load_explicit(&channel->read, memory_order_relaxed);");
+		emitter().emit("	atomic_store_explicit(&channel->read, read + tokens, memory_order_release);");
+		emitter().emit("}");
+		emitter().emit("");
+
+		emitter().emit("static inline size_t channel_space_one_%s_%s(channel_%1$s_%2$s *channel) {", tokenType, sizeString);
+		emitter().emit("	size_t write = atomic_load_explicit(&channel->write, memory_order_relaxed);");
+		emitter().emit("	channel->read_cache = atomic_load_explicit(&channel->read, memory_order_acquire);");
+		emitter().emit("	return %s - (write - channel->read_cache);", bufferSize);
+		emitter().emit("}");
+		emitter().emit("");
+
+		emitter().emit("static inline _Bool channel_has_space_one_%s_%s(channel_%1$s_%2$s *channel, size_t tokens) {", tokenType, sizeString);
+		emitter().emit("	size_t write = atomic_load_explicit(&channel->write, memory_order_relaxed);");
+		emitter().emit("	if (%s - (write - channel->read_cache) >= tokens) {", bufferSize);
+		emitter().emit("		return true;");
+		emitter().emit("	}");
+		emitter().emit("	channel->read_cache = atomic_load_explicit(&channel->read, memory_order_acquire);");
+		emitter().emit("	return %s - (write - channel->read_cache) >= tokens;", bufferSize);
+		emitter().emit("}");
+		emitter().emit("");
+
+		emitter().emit("static inline void channel_push_%s_%s(channel_%1$s_%2$s *channel, const %1$s *data, size_t tokens) {", tokenType, sizeString);
+		emitter().emit("	size_t write = atomic_load_explicit(&channel->write, memory_order_relaxed);");
+		emitter().emit("	size_t start = write & %s;", mask);
+		emitter().emit("	size_t first = %s - start < tokens ? %1$s - start : tokens;", bufferSize);
+		emitter().emit("	memcpy(&channel->buffer[start], data, first * sizeof(%s));", tokenType);
+		emitter().emit("	memcpy(channel->buffer, data + first, (tokens - first) * sizeof(%s));", tokenType);
+		emitter().emit("	atomic_store_explicit(&channel->write, write + tokens, memory_order_release);");
+		emitter().emit("}");
+		emitter().emit("");
+
+		emitter().emit("static void channel_create_%s_%s(channel_%1$s_%2$s *channel) {", tokenType, sizeString);
+		emitter().emit("	channel->buffer = malloc(sizeof(%s)*%s);", tokenType, bufferSize);
+		emitter().emit("	atomic_init(&channel->write, 0);");
+		emitter().emit("	atomic_init(&channel->read, 0);");
+		emitter().emit("	channel->read_cache = 0;");
+		emitter().emit("	channel->write_cache = 0;");
+		emitter().emit("}");
+		emitter().emit("");
+
+		emitter().emit("static void channel_destroy_%s_%s(channel_%1$s_%2$s *channel) {", tokenType, sizeString);
+		emitter().emit("	free(channel->buffer);");
+		emitter().emit("}");
+		emitter().emit("");
+	}
+
+	default void lockFreeChannelCodeForType(AliasType type, int size) {
+		lockFreeChannelCodeForType(type.getConcreteType(), size);
+	}
+
 	default void inputActorCodeForType(Type type, int[] size) {
 		String tokenType = backend().code().type(type);
 		List<String> sizeStrings = Arrays.stream(size)
@@ -395,6 +751,27 @@ public interface AlternativeChannels extends Channels {
 
 		emitter().emit("static _Bool output_actor_run_%s(output_actor_%1$s* actor) {", typeSize);
 		emitter().emit("    channel_%s *channel = actor->channel;", typeSize);
+		if (atomicIndices()) {
+			// The producer may run on another thread, so tokens are consumed instead of resetting the channel.
+			String bufferSize = sizeToBufferSize(size);
+			emitter().emit("    size_t read = %s;", ownIndex("channel->read"));
+			emitter().emit("    size_t tokens = %s - read;", otherIndex("channel->write"));
+			emitter().emit("    if (tokens > 0) {");
+			emitter().emit("        for (size_t i = 0; i < tokens; ) {");
+			emitter().emit("            size_t start = (read + i) %% %s;", bufferSize);
+			emitter().emit("            size_t n = %s - start < tokens - i ? %1$s - start : tokens - i;", bufferSize);
+			emitter().emit("            fwrite(&channel->buffer[start], sizeof(%s), n, actor->stream);", tokenType);
+			emitter().emit("            i += n;");
+			emitter().emit("        }");
+			emitter().emit("        %s", advance("channel->read", "tokens"));
+			emitter().emit("        return true;");
+			emitter().emit("    } else {");
+			emitter().emit("        return false;");
+			emitter().emit("    }");
+			emitter().emit("}");
+			emitter().emit("");
+			return;
+		}
 		emitter().emit("    if (channel->write > 0) {");
 		emitter().emit("        fwrite(channel->buffer, sizeof(%s), channel->write, actor->stream);", tokenType);
 		emitter().emit("        channel->write = 0;");
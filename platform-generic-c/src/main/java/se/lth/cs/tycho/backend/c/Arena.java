@@ -0,0 +1,312 @@
+package se.lth.cs.tycho.backend.c;
+
+import org.multij.Binding;
+import org.multij.BindingKind;
+import org.multij.Module;
+import se.lth.cs.tycho.ir.IRNode;
+import se.lth.cs.tycho.ir.decl.GlobalVarDecl;
+import se.lth.cs.tycho.ir.decl.VarDecl;
+import se.lth.cs.tycho.ir.entity.am.ActorMachine;
+import se.lth.cs.tycho.ir.entity.am.Scope;
+import se.lth.cs.tycho.ir.stmt.lvalue.LValue;
+import se.lth.cs.tycho.ir.stmt.lvalue.LValueField;
+import se.lth.cs.tycho.ir.stmt.lvalue.LValueIndexer;
+import se.lth.cs.tycho.ir.stmt.lvalue.LValueNth;
+import se.lth.cs.tycho.ir.stmt.lvalue.LValueVariable;
+import se.lth.cs.tycho.settings.Configuration;
+import se.lth.cs.tycho.settings.OnOffSetting;
+import se.lth.cs.tycho.type.Type;
+
+/**
+ * Allocates the strings, sets, maps and algebraic values of a transition from a bump pointer arena of the actor
+ * instance, which is reset when the transition ends. The allocation functions in global.c are redirected to the arena
+ * while a transition runs. Values only outlive a transition when they are copied to actor state, global variables or
+ * through references, and such copies are made on the heap by suspending the arena. Tokens are serialized to heap
+ * buffers by the channels, or copied to the heap before they are passed to a channel as pointers.
+ */
+@Module
+public interface Arena {
+	@Binding(BindingKind.INJECTED)
+	Backend backend();
+
+	default Emitter emitter() {
+		return backend().emitter();
+	}
+
+	OnOffSetting arenaAllocation = new OnOffSetting() {
+		@Override
+		public String getKey() {
+			return "arena-allocation";
+		}
+
+		@Override
+		public String getDescription() {
+			return "Allocates the values that do not outlive a transition from an arena that is reset after each transition.";
+		}
+
+		@Override
+		public Boolean defaultValue(Configuration configuration) {
+			return false;
+		}
+	};
+
+	int CHUNK_SIZE = 65536;
+
+	default boolean enabled() {
+		return backend().context().getConfiguration().get(arenaAllocation);
+	}
+
+	default String threadLocal() {
+		return backend().partitioning().isMultiThreaded() ? "__thread " : "";
+	}
+
+	default void declareArena() {
+		if (!enabled()) {
+			return;
+		}
+		emitter().emit("// ARENA");
+		emitter().emit("typedef struct arena_chunk_t {");
+		emitter().increaseIndentation();
+		emitter().emit("struct arena_chunk_t *next;");
+		emitter().emit("char *start;");
+		emitter().emit("char *top;");
+		emitter().emit("char *end;");
+		emitter().decreaseIndentation();
+		emitter().emit("} arena_chunk_t;");
+		emitter().emit("");
+		emitter().emit("typedef struct {");
+		emitter().increaseIndentation();
+		emitter().emit("arena_chunk_t *chunks;");
+		emitter().decreaseIndentation();
+		emitter().emit("} arena_t;");
+		emitter().emit("");
+		emitter().emit("extern %sarena_t *arena_current;", threadLocal());
+		emitter().emit("extern %sint arena_suspended;", threadLocal());
+		emitter().emit("");
+		emitter().emit("void *arena_calloc(size_t count, size_t size);");
+		emitter().emit("void *arena_realloc(void *ptr, size_t size);");
+		emitter().emit("void arena_free(void *ptr);");
+		emitter().emit("arena_t *arena_enter(arena_t *arena);");
+		emitter().emit("void arena_leave(arena_t *arena, arena_t *saved);");
+		emitter().emit("void arena_destroy(arena_t *arena);");
+		emitter().emit("");
+	}
+
+	/**
+	 * Defines the arena functions and redirects the allocation functions of the rest of global.c to them. Every
+	 * allocation is preceded by its size, so that it can be reallocated.
+	 */
+	default void defineArena() {
+		if (!enabled()) {
+			return;
+		}
+		emitter().emit("// ARENA DEFINITIONS");
+		emitter().emit("%sarena_t *arena_current = NULL;", threadLocal());
+		emitter().emit("%sint arena_suspended = 0;", threadLocal());
+		emitter().emit("");
+		emitter().emit("static arena_chunk_t *arena_chunk(arena_chunk_t *next, size_t capacity) {");
+		emitter().increaseIndentation();
+		emitter().emit("arena_chunk_t *chunk = malloc(sizeof(arena_chunk_t));");
+		emitter().emit("if (chunk == NULL) return NULL;");
+		emitter().emit("chunk->start = malloc(capacity);");
+		emitter().emit("if (chunk->start == NULL) { free(chunk); return NULL; }");
+		emitter().emit("chunk->next = next;");
+		emitter().emit("chunk->top = chunk->start;");
+		emitter().emit("chunk->end = chunk->start + capacity;");
+		emitter().emit("return chunk;");
+		emitter().decreaseIndentation();
+		emitter().emit("}");
+		emitter().emit("");
+		emitter().emit("static void *arena_allocate(arena_t *arena, size_t size) {");
+		emitter().increaseIndentation();
+		emitter().emit("size_t block = 16 + ((size + 15) & ~(size_t) 15);");
+		emitter().emit("arena_chunk_t *chunk = arena->chunks;");
+		emitter().emit("if (chunk == NULL || (size_t) (chunk->end - chunk->top) < block) {");
+		emitter().increaseIndentation();
+		emitter().emit("size_t capacity = chunk == NULL ? %d : 2 * (size_t) (chunk->end - chunk->start);", CHUNK_SIZE);
+		emitter().emit("while (capacity < block) capacity *= 2;");
+		emitter().emit("chunk = arena_chunk(chunk, capacity);");
+		emitter().emit("if (chunk == NULL) return NULL;");
+		emitter().emit("arena->chunks = chunk;");
+		emitter().decreaseIndentation();
+		emitter().emit("}");
+		emitter().emit("*(size_t *) chunk->top = size;");
+		emitter().emit("chunk->top += block;");
+		emitter().emit("return chunk->top - block + 16;");
+		emitter().decreaseIndentation();
+		emitter().emit("}");
+		emitter().emit("");
+		emitter().emit("static _Bool arena_owns(const arena_t *arena, const void *ptr) {");
+		emitter().increaseIndentation();
+		emitter().emit("for (const arena_chunk_t *chunk = arena->chunks; chunk != NULL; chunk = chunk->next) {");
+		emitter().increaseIndentation();
+		emitter().emit("if ((const char *) ptr >= chunk->start && (const char *) ptr < chunk->top) return true;");
+		emitter().decreaseIndentation();
+		emitter().emit("}");
+		emitter().emit("return false;");
+		emitter().decreaseIndentation();
+		emitter().emit("}");
+		emitter().emit("");
+		emitter().emit("void *arena_calloc(size_t count, size_t size) {");
+		emitter().increaseIndentation();
+		emitter().emit("if (arena_current == NULL || arena_suspended) return calloc(count, size);");
+		emitter().emit("void *result = arena_allocate(arena_current, count * size);");
+		emitter().emit("if (result != NULL) memset(result, 0, count * size);");
+		emitter().emit("return result;");
+		emitter().decreaseIndentation();
+		emitter().emit("}");
+		emitter().emit("");
+		emitter().emit("void *arena_realloc(void *ptr, size_t size) {");
+		emitter().increaseIndentation();
+		emitter().emit("if (ptr == NULL) return arena_calloc(1, size);");
+		emitter().emit("if (arena_current == NULL || !arena_owns(arena_current, ptr)) return realloc(ptr, size);");
+		emitter().emit("size_t old = *(size_t *) ((char *) ptr - 16);");
+		emitter().emit("if (size <= old) return ptr;");
+		emitter().emit("void *result = arena_calloc(1, size);");
+		emitter().emit("if (result != NULL) memcpy(result, ptr, old);");
+		emitter().emit("return result;");
+		emitter().decreaseIndentation();
+		emitter().emit("}");
+		emitter().emit("");
+		emitter().emit("void arena_free(void *ptr) {");
+		emitter().increaseIndentation();
+		emitter().emit("if (ptr == NULL || (arena_current != NULL && arena_owns(arena_current, ptr))) return;");
+		emitter().emit("free(ptr);");
+		emitter().decreaseIndentation();
+		emitter().emit("}");
+		emitter().emit("");
+		emitter().emit("arena_t *arena_enter(arena_t *arena) {");
+		emitter().increaseIndentation();
+		emitter().emit("arena_t *saved = arena_current;");
+		emitter().emit("arena_current = arena;");
+		emitter().emit("return saved;");
+		emitter().decreaseIndentation();
+		emitter().emit("}");
+		emitter().emit("");
+		emitter().emit("// Replaces several chunks by one chunk of their total size, so that the next transition does not allocate.");
+		emitter().emit("void arena_leave(arena_t *arena, arena_t *saved) {");
+		emitter().increaseIndentation();
+		emitter().emit("arena_current = saved;");
+		emitter().emit("if (arena->chunks == NULL) return;");
+		emitter().emit("if (arena->chunks->next == NULL) {");
+		emitter().increaseIndentation();
+		emitter().emit("arena->chunks->top = arena->chunks->start;");
+		emitter().emit("return;");
+		emitter().decreaseIndentation();
+		emitter().emit("}");
+		emitter().emit("size_t capacity = 0;");
+		emitter().emit("for (arena_chunk_t *chunk = arena->chunks; chunk != NULL; chunk = chunk->next) {");
+		emitter().increaseIndentation();
+		emitter().emit("capacity += (size_t) (chunk->end - chunk->start);");
+		emitter().decreaseIndentation();
+		emitter().emit("}");
+		emitter().emit("arena_destroy(arena);");
+		emitter().emit("arena->chunks = arena_chunk(NULL, capacity);");
+		emitter().decreaseIndentation();
+		emitter().emit("}");
+		emitter().emit("");
+		emitter().emit("void arena_destroy(arena_t *arena) {");
+		emitter().increaseIndentation();
+		emitter().emit("arena_chunk_t *chunk = arena->chunks;");
+		emitter().emit("while (chunk != NULL) {");
+		emitter().increaseIndentation();
+		emitter().emit("arena_chunk_t *next = chunk->next;");
+		emitter().emit("free(chunk->start);");
+		emitter().emit("free(chunk);");
+		emitter().emit("chunk = next;");
+		emitter().decreaseIndentation();
+		emitter().emit("}");
+		emitter().emit("arena->chunks = NULL;");
+		emitter().decreaseIndentation();
+		emitter().emit("}");
+		emitter().emit("");
+		emitter().emit("#define calloc(count, size) arena_calloc(count, size)");
+		emitter().emit("#define realloc(ptr, size) arena_realloc(ptr, size)");
+		emitter().emit("#define free(ptr) arena_free(ptr)");
+		emitter().emit("");
+	}
+
+	default void emitStateField() {
+		if (enabled()) {
+			emitter().emit("arena_t arena;");
+			emitter().emit("");
+		}
+	}
+
+	default void emitInit() {
+		if (enabled()) {
+			emitter().emit("self->arena.chunks = NULL;");
+			emitter().emit("");
+		}
+	}
+
+	default void emitFree() {
+		if (enabled()) {
+			emitter().emit("arena_destroy(&self->arena);");
+		}
+	}
+
+	default void enterTransition() {
+		if (enabled()) {
+			emitter().emit("arena_t *arena_saved = arena_enter(&self->arena);");
+		}
+	}
+
+	default void exitTransition() {
+		if (enabled()) {
+			emitter().emit("arena_leave(&self->arena, arena_saved);");
+		}
+	}
+
+	/**
+	 * Makes the allocations of a copy to the lvalue on the heap if the copy may outlive the transition.
+	 */
+	default void suspend(LValue lvalue, Type type) {
+		if (enabled() && backend().trackable().isTrackable(type) && escapes(lvalue)) {
+			emitter().emit("arena_suspended++;");
+		}
+	}
+
+	default void resume(LValue lvalue, Type type) {
+		if (enabled() && backend().trackable().isTrackable(type) && escapes(lvalue)) {
+			emitter().emit("arena_suspended--;");
+		}
+	}
+
+	default void suspendAll() {
+		if (enabled()) {
+			emitter().emit("arena_suspended++;");
+		}
+	}
+
+	default void resumeAll() {
+		if (enabled()) {
+			emitter().emit("arena_suspended--;");
+		}
+	}
+
+	default boolean escapes(LValue lvalue) {
+		return true;
+	}
+
+	default boolean escapes(LValueVariable lvalue) {
+		if (backend().closures().isDeclaredInClosure(lvalue.getVariable())) {
+			return true;
+		}
+		VarDecl decl = backend().varDecls().declaration(lvalue.getVariable());
+		IRNode parent = backend().tree().parent(decl);
+		return decl instanceof GlobalVarDecl || parent instanceof Scope || parent instanceof ActorMachine;
+	}
+
+	default boolean escapes(LValueIndexer lvalue) {
+		return escapes(lvalue.getStructure());
+	}
+
+	default boolean escapes(LValueField lvalue) {
+		return escapes(lvalue.getStructure());
+	}
+
+	default boolean escapes(LValueNth lvalue) {
+		return escapes(lvalue.getStructure());
+	}
+}
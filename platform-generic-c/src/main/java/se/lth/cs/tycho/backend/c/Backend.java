@@ -29,8 +29,15 @@ public interface Backend {
 	@Binding(INJECTED) CompilationTask task();
 	@Binding(INJECTED) Context context();
 
-	@Binding(LAZY) default Box<Instance> instance() { return Box.empty(); }
-	@Binding(LAZY) default Emitter emitter() { return new Emitter(); };
+	// Per-thread state, so that actors can be generated in parallel
+	@Binding(LAZY) default ThreadLocal<Box<Instance>> instances() { return ThreadLocal.withInitial(Box::empty); }
+	default Box<Instance> instance() { return instances().get(); }
+	@Binding(LAZY) default ThreadLocal<Emitter> emitters() {
+		boolean onlyWriteChanges = context().getConfiguration().get(Main.incrementalCodeGeneration);
+		return ThreadLocal.withInitial(() -> new Emitter(onlyWriteChanges));
+	}
+	default Emitter emitter() { return emitters().get(); }
+	@Binding(LAZY) default ThreadLocal<UniqueNumbers> localUniqueNumbers() { return ThreadLocal.withInitial(UniqueNumbers::new); }
 	@Binding(LAZY) default Types types() {
 		return task().getModule(Types.key);
 	}
@@ -43,7 +50,13 @@ public interface Backend {
 	@Binding(LAZY) default GlobalNames globalNames() {
 		return task().getModule(GlobalNames.key);
 	}
-	@Binding(LAZY) default UniqueNumbers uniqueNumbers() { return context().getUniqueNumbers(); }
+	default UniqueNumbers uniqueNumbers() {
+		if (main().fileLocalNumbering()) {
+			return localUniqueNumbers().get();
+		} else {
+			return context().getUniqueNumbers();
+		}
+	}
 	@Binding(LAZY) default TreeShadow tree() {
 		return task().getModule(TreeShadow.key);
 	}
@@ -100,6 +113,9 @@ public interface Backend {
 	@Binding(LAZY) default MainNetwork mainNetwork() {
 		return MultiJ.from(MainNetwork.class).bind("backend").to(this).instance();
 	}
+	@Binding(LAZY) default Partitioning partitioning() {
+		return MultiJ.from(Partitioning.class).bind("backend").to(this).instance();
+	}
 	@Binding(LAZY) default Global global() {
 		return MultiJ.from(Global.class).bind("backend").to(this).instance();
 	}
@@ -124,6 +140,9 @@ public interface Backend {
 	@Binding(LAZY) default Tuples tuples() {
 		return MultiJ.from(Tuples.class).bind("backend").to(this).instance();
 	}
+	@Binding(LAZY) default Arena arena() {
+		return MultiJ.from(Arena.class).bind("backend").to(this).instance();
+	}
 
 	// Utils
 	@Binding(LAZY) default Trackable trackable() {
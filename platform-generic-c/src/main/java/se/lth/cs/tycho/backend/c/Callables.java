@@ -299,24 +299,26 @@ public interface Callables {
 	/** The name of the C-function */
 	default String functionName(Expression callable) {
 		assert callable instanceof ExprLambda || callable instanceof ExprProc;
-		if (!callablesNames().containsKey(callable)) {
-			IRNode parent = backend().tree().parent(callable);
-			String candidate;
-			if (parent instanceof VarDecl) {
-				VarDecl decl = (VarDecl) parent;
-				candidate = "f_" + decl.getName();
-			} else {
-				candidate = "f_anon";
-			}
-			int i = 0;
-			while (usedNames().contains(candidate + "_" + i)) {
-				i++;
+		synchronized (usedNames()) {
+			if (!callablesNames().containsKey(callable)) {
+				IRNode parent = backend().tree().parent(callable);
+				String candidate;
+				if (parent instanceof VarDecl) {
+					VarDecl decl = (VarDecl) parent;
+					candidate = "f_" + decl.getName();
+				} else {
+					candidate = "f_anon";
+				}
+				int i = 0;
+				while (usedNames().contains(candidate + "_" + i)) {
+					i++;
+				}
+				candidate = candidate + "_" + i;
+				usedNames().add(candidate);
+				callablesNames().put(callable, candidate);
 			}
-			candidate = candidate + "_" + i;
-			usedNames().add(candidate);
-			callablesNames().put(callable, candidate);
+			return callablesNames().get(callable);
 		}
-		return callablesNames().get(callable);
 	}
 
 	default IRNode environmentScope(IRNode callable) {
@@ -349,17 +351,19 @@ public interface Callables {
 
 	default String externalWrapperFunctionName(VarDecl external) {
 		assert external.isExternal();
-		if (!externalNames().containsKey(external)) {
-			int i = 0;
-			String name;
-			do {
-				name = "external_" + i;
-				i++;
-			} while (usedNames().contains(name));
-			externalNames().put(external, name);
-			usedNames().add(name);
+		synchronized (usedNames()) {
+			if (!externalNames().containsKey(external)) {
+				int i = 0;
+				String name;
+				do {
+					name = "external_" + i;
+					i++;
+				} while (usedNames().contains(name));
+				externalNames().put(external, name);
+				usedNames().add(name);
+			}
+			return externalNames().get(external);
 		}
-		return externalNames().get(external);
 	}
 
 	default void externalCallableDeclaration(IRNode varDecl) { }
@@ -396,6 +400,9 @@ public interface Callables {
 			String call = varDecl.getOriginalName() + "(" + String.join(", ", parameterNames) + ")";
 			if (callable.getReturnType().equals(UnitType.INSTANCE)) {
 				backend().emitter().emit("%s;", call);
+			} else if (callable.getReturnType() instanceof StringType) {
+				// external functions return plain C strings
+				backend().emitter().emit("return init_%s(%s);", backend().code().type(callable.getReturnType()), call);
 			} else {
 				backend().emitter().emit("return %s;", call);
 			}
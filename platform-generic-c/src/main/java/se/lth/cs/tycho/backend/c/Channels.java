@@ -6,6 +6,8 @@ import org.multij.Module;
 import se.lth.cs.tycho.ir.ToolValueAttribute;
 import se.lth.cs.tycho.ir.network.Connection;
 import se.lth.cs.tycho.ir.util.ImmutableEntry;
+import se.lth.cs.tycho.type.AlgebraicType;
+import se.lth.cs.tycho.type.AliasType;
 import se.lth.cs.tycho.type.IntType;
 import se.lth.cs.tycho.type.Type;
 
@@ -22,7 +24,8 @@ public interface Channels {
 	default Emitter emitter() { return backend().emitter(); }
 
 	void channelCodeForType(Type type, int size);
-	void channelListCodeForType(Type type, int[] size);
+	void lockFreeChannelCodeForType(Type type, int size);
+	void channelListCodeForType(Type type, int[] size, boolean[] lockFree);
 	void inputActorCodeForType(Type type, int[] size);
 	void outputActorCodeForType(Type type, int size);
 
@@ -42,11 +45,27 @@ public interface Channels {
 
 	default void fifo_h() {
 		emitter().emit("#include <stdint.h>");
+		emitter().emit("#include <string.h>");
+		boolean lockFree = backend().task().getNetwork().getConnections().stream().anyMatch(this::isLockFree);
+		if (backend().partitioning().isMultiThreaded() || lockFree) {
+			emitter().emit("#include <stdatomic.h>");
+		}
 		backend().main().includeUser("global.h");
 		emitter().emit("");
 		emitter().emitRawLine("#ifndef BUFFER_SIZE\n" +
 				"#define BUFFER_SIZE 256\n" +
 				"#endif\n");
+		if (lockFree) {
+			emitter().emitRawLine("#ifndef LOCK_FREE_BUFFER_SIZE\n" +
+					"#define LOCK_FREE_BUFFER_SIZE 256\n" +
+					"#endif\n" +
+					"#if (LOCK_FREE_BUFFER_SIZE & (LOCK_FREE_BUFFER_SIZE - 1)) != 0\n" +
+					"#error \"LOCK_FREE_BUFFER_SIZE must be a power of two\"\n" +
+					"#endif\n" +
+					"#ifndef CACHE_LINE_SIZE\n" +
+					"#define CACHE_LINE_SIZE 64\n" +
+					"#endif\n");
+		}
 		channelCode();
 	}
 
@@ -67,8 +86,51 @@ public interface Channels {
 		}
 	}
 
+	/**
+	 * A connection between two instances uses a lock-free single-producer single-consumer channel if it has the
+	 * attribute lockFree = true, or if its ends run on different threads. The channels from the network inputs and
+	 * to the network outputs, and channels of algebraic types, always use the default channel.
+	 */
+	default boolean isLockFree(Connection connection) {
+		Optional<String> source = connection.getSource().getInstance();
+		Optional<String> target = connection.getTarget().getInstance();
+		if (!source.isPresent() || !target.isPresent() || !isLockFreeType(alignedConnectionTypes(connection))) {
+			return false;
+		}
+		Optional<ToolValueAttribute> attribute = connection.getValueAttribute("lockfree");
+		if (!attribute.isPresent()) {
+			attribute = connection.getValueAttribute("lockFree");
+		}
+		if (attribute.isPresent()) {
+			return backend().constants().boolValue(attribute.get().getValue()).orElse(false);
+		}
+		Partitioning partitioning = backend().partitioning();
+		return partitioning.isMultiThreaded() && partitioning.partitionOf(source.get()) != partitioning.partitionOf(target.get());
+	}
+
+	default boolean isLockFreeType(Type type) {
+		return true;
+	}
+
+	default boolean isLockFreeType(AlgebraicType type) {
+		return false;
+	}
+
+	default boolean isLockFreeType(AliasType type) {
+		return isLockFreeType(type.getConcreteType());
+	}
+
+	/**
+	 * The buffer size of a lock-free channel, rounded up to a power of two so that the indices can be masked.
+	 */
+	default int lockFreeBufferSize(Connection connection) {
+		int size = connectionBufferSize(connection);
+		return size <= 1 ? size : Integer.highestOneBit(size - 1) << 1;
+	}
+
 	default void channelCode() {
 		Map<Type, Set<Integer>> buffers = backend().task().getNetwork().getConnections().stream()
+				.filter(connection -> !isLockFree(connection))
 				.collect(Collectors.groupingBy(
 						this::alignedConnectionTypes,
 						Collectors.mapping(
@@ -79,20 +141,38 @@ public interface Channels {
 			channelCodeForType(type, size);
 		}));
 
-		List<Map.Entry<Type, List<Integer>>> bufferLists = backend().task().getNetwork()
+		Map<Type, Set<Integer>> lockFreeBuffers = backend().task().getNetwork().getConnections().stream()
+				.filter(this::isLockFree)
+				.collect(Collectors.groupingBy(
+						this::alignedConnectionTypes,
+						Collectors.mapping(
+								this::lockFreeBufferSize,
+								Collectors.toSet())));
+
+		lockFreeBuffers.forEach((type, sizes) -> sizes.forEach(size -> {
+			lockFreeChannelCodeForType(type, size);
+		}));
+
+		List<Map.Entry<Type, List<ImmutableEntry<Integer, Boolean>>>> bufferLists = backend().task().getNetwork()
 				.getConnections().stream()
 				.collect(Collectors.groupingBy(Connection::getSource))
 				.entrySet().stream()
 				.map(entry -> ImmutableEntry.of(
 						alignedConnectionTypes(entry.getValue().get(0)),
-						entry.getValue().stream().map(this::connectionBufferSize).collect(Collectors.toList())))
+						entry.getValue().stream()
+								.map(c -> isLockFree(c) ? ImmutableEntry.of(lockFreeBufferSize(c), true) : ImmutableEntry.of(connectionBufferSize(c), false))
+								.collect(Collectors.toList())))
 				.distinct()
 				.collect(Collectors.toList());
 
 		bufferLists.forEach(entry -> {
 			Type type = entry.getKey();
-			int[] sizes = entry.getValue().stream().mapToInt(s -> s).toArray();
-			channelListCodeForType(type, sizes);
+			int[] sizes = entry.getValue().stream().mapToInt(Map.Entry::getKey).toArray();
+			boolean[] lockFree = new boolean[sizes.length];
+			for (int i = 0; i < sizes.length; i++) {
+				lockFree[i] = entry.getValue().get(i).getValue();
+			}
+			channelListCodeForType(type, sizes, lockFree);
 		});
 	}
 
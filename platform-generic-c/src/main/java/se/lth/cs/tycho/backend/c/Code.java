@@ -158,6 +158,58 @@ public interface Code {
 		return compare(backend().tuples().convert().apply(lvalueType), lvalue, backend().tuples().convert().apply(rvalueType), rvalue);
 	}
 
+	/**
+	 * A hash of the value that is equal for values that are equal according to compare. Sets, maps and the other
+	 * types without a hash function hash to zero.
+	 */
+	default String hash(Type type, String value) {
+		return "0";
+	}
+
+	default String hash(IntType type, String value) {
+		return String.format("hash_int((uint64_t) (%s))", value);
+	}
+
+	default String hash(BoolType type, String value) {
+		return String.format("hash_int((uint64_t) (%s))", value);
+	}
+
+	default String hash(CharType type, String value) {
+		return String.format("hash_int((uint64_t) (%s))", value);
+	}
+
+	default String hash(RealType type, String value) {
+		return String.format("hash_real(%s)", value);
+	}
+
+	default String hash(ListType type, String value) {
+		String tmp = variables().generateTemp();
+		String index = variables().generateTemp();
+		emitter().emit("size_t %s = 0;", tmp);
+		emitter().emit("for (size_t %1$s = 0; %1$s < %2$s; %1$s++) {", index, type.getSize().getAsInt());
+		emitter().increaseIndentation();
+		emitter().emit("%1$s = hash_combine(%1$s, %2$s);", tmp, hash(type.getElementType(), String.format("%s.data[%s]", value, index)));
+		emitter().decreaseIndentation();
+		emitter().emit("}");
+		return tmp;
+	}
+
+	default String hash(StringType type, String value) {
+		return String.format("hash_%s(%s)", type(type), value);
+	}
+
+	default String hash(AlgebraicType type, String value) {
+		return String.format("hash_%s(%s)", backend().algebraic().utils().name(type), value);
+	}
+
+	default String hash(AliasType type, String value) {
+		return hash(type.getType(), value);
+	}
+
+	default String hash(TupleType type, String value) {
+		return hash(backend().tuples().convert().apply(type), value);
+	}
+
 	default String declaration(Type type, String name) {
 		return type(type) + " " + name;
 	}
@@ -310,7 +362,9 @@ public interface Code {
 		String tmp = variables().generateTemp();
 		Type type = types().type(input);
 		emitter().emit("%s = %s;", declaration(type, tmp), backend().defaultValues().defaultValue(type));
-		trackable().track(tmp, type);
+		if (!backend().channels().isPointerToken(types().portType(input.getPort()))) {
+			trackable().track(tmp, type);
+		}
 		if (input.hasRepeat()) {
 		    if (input.getOffset() == 0) {
 				emitter().emit("channel_peek_%s(self->%s_channel, 0, %d, %s.data);", inputPortTypeSize(input.getPort()), input.getPort().getName(), input.getRepeat(), tmp);
@@ -416,7 +470,7 @@ public interface Code {
 		String tmp = variables().generateTemp();
 		Expression left = binaryOp.getOperands().get(0);
 		Expression right = binaryOp.getOperands().get(1);
-		trackable().track(tmp, lhs);
+		trackable().track(tmp, rhs);
 		emitter().emit("%s;", declaration(rhs, tmp));
 		emitter().emit("%1$s = concat_%2$s_%3$s(%4$s, %5$s);", tmp, type(lhs), type(rhs), evaluate(left), evaluate(right));
 		return tmp;
@@ -436,7 +490,7 @@ public interface Code {
 		String tmp = variables().generateTemp();
 		Expression left = binaryOp.getOperands().get(0);
 		Expression right = binaryOp.getOperands().get(1);
-		trackable().track(tmp, lhs);
+		trackable().track(tmp, rhs);
 		emitter().emit("%s;", declaration(rhs, tmp));
 		emitter().emit("%1$s = concat_%2$s_%3$s(%4$s, %5$s);", tmp, type(RealType.f64), type(rhs), evaluate(left), evaluate(right));
 		return tmp;
@@ -457,7 +511,7 @@ public interface Code {
 		Type type = lhs.isSigned() ? new IntType(OptionalInt.empty(), true) : new IntType(OptionalInt.empty(), false);
 		Expression left = binaryOp.getOperands().get(0);
 		Expression right = binaryOp.getOperands().get(1);
-		trackable().track(tmp, lhs);
+		trackable().track(tmp, rhs);
 		emitter().emit("%s;", declaration(rhs, tmp));
 		emitter().emit("%1$s = concat_%2$s_%3$s(%4$s, %5$s);", tmp, type(type), type(rhs), evaluate(left), evaluate(right));
 		return tmp;
@@ -903,7 +957,7 @@ public interface Code {
 
 	default String evaluateUnarySize(StringType type, ExprUnaryOp expr) {
 		String tmp = variables().generateTemp();
-		emitter().emit("%s = strlen(%s);", declaration(types().type(expr), tmp), evaluate(expr.getOperand()));
+		emitter().emit("%s = length_%s(%s);", declaration(types().type(expr), tmp), type(type), evaluate(expr.getOperand()));
 		return tmp;
 	}
 
@@ -1029,6 +1083,9 @@ public interface Code {
 		SetType type = (SetType) types().type(set);
 		trackable().track(String.format("%s", name), type);
 		emitter().emit("%1$s = init_%2$s();", declaration(type, name), type(type));
+		if (set.getElements().size() > Sets.CAPACITY) {
+			emitter().emit("reserve_%1$s(%2$s, %3$d);", type(type), name, set.getElements().size());
+		}
 		set.getElements().stream().map(this::evaluate).forEach(elem -> {
 			emitter().emit("add_%1$s(%2$s, %3$s);", type(type), name, elem);
 		});
@@ -1040,6 +1097,9 @@ public interface Code {
 		MapType type = (MapType) types().type(map);
 		trackable().track(String.format("%s", name), type);
 		emitter().emit("%1$s = init_%2$s();", declaration(type, name), type(type));
+		if (map.getMappings().size() > Maps.CAPACITY) {
+			emitter().emit("reserve_%1$s(%2$s, %3$d);", type(type), name, map.getMappings().size());
+		}
 		map.getMappings().forEach(mapping -> {
 			String key = evaluate(mapping.getKey());
 			String value = evaluate(mapping.getValue());
@@ -1061,12 +1121,7 @@ public interface Code {
 		String index = variables().generateTemp();
 		String map = evaluate(indexer.getStructure());
 		String key = evaluate(indexer.getIndex());
-		emitter().emit("size_t %s;", index);
-		emitter().emit("for (%1$s = 0; %1$s < %2$s->size; %1$s++) {", index, map);
-		emitter().increaseIndentation();
-		emitter().emit("if (%s) break;", compare(type.getKeyType(), key, type.getValueType(), String.format("%s->data[%s].key", map, index)));
-		emitter().decreaseIndentation();
-		emitter().emit("}");
+		emitter().emit("size_t %s = find_%s(%s, %s);", index, type(type), map, key);
 		return String.format("%s->data[%s].value", map, index);
 	}
 
@@ -1224,22 +1279,37 @@ public interface Code {
 
 	default void execute(StmtWrite write) {
 		String portName = write.getPort().getName();
+		Type tokenType = types().portType(write.getPort());
+		boolean pointerToken = backend().channels().isPointerToken(tokenType);
 		if (write.getRepeatExpression() == null) {
 			String portType = type(types().portType(write.getPort()));
 			String tmp = variables().generateTemp();
 			emitter().emit("%s;", declaration(types().portType(write.getPort()), tmp));
 			for (Expression expr : write.getValues()) {
-				emitter().emit("%s = %s;", tmp, evaluate(expr));
+				String value = evaluate(expr);
+				if (pointerToken) {
+					value = ownedToken(tokenType, types().type(expr), value);
+				}
+				emitter().emit("%s = %s;", tmp, value);
 				emitter().emit("channel_write_one_%s(self->%s_channels, %s);", outputPortTypeSize(write.getPort()), portName, tmp);
 			}
 		} else if (write.getValues().size() == 1) {
 			String portType = type(types().portType(write.getPort()));
 			String value = evaluate(write.getValues().get(0));
 			String repeat = evaluate(write.getRepeatExpression());
+			Type valueType = types().type(write.getValues().get(0));
+			if (!pointerToken && valueType instanceof ListType && type(((ListType) valueType).getElementType()).equals(portType)) {
+				emitter().emit("channel_write_%s(self->%s_channels, %s.data, %s);", outputPortTypeSize(write.getPort()), portName, value, repeat);
+				return;
+			}
 			String temp = variables().generateTemp();
 			emitter().emit("for (size_t %1$s = 0; %1$s < %2$s; %1$s++) {", temp, repeat);
 			emitter().increaseIndentation();
-			emitter().emit("channel_write_one_%1$s(self->%2$s_channels, %3$s.data[%4$s]);", outputPortTypeSize(write.getPort()), portName, value, temp);
+			String element = String.format("%s.data[%s]", value, temp);
+			if (pointerToken) {
+				element = ownedToken(tokenType, ((ListType) valueType).getElementType(), element);
+			}
+			emitter().emit("channel_write_one_%1$s(self->%2$s_channels, %3$s);", outputPortTypeSize(write.getPort()), portName, element);
 			emitter().decreaseIndentation();
 			emitter().emit("}");
 		} else {
@@ -1247,14 +1317,103 @@ public interface Code {
 		}
 	}
 
+	/**
+	 * Returns a token that a channel may take ownership of. A temporary value that is not allocated from an arena is
+	 * given to the channel as it is, and other values are copied to the heap.
+	 */
+	default String ownedToken(Type tokenType, Type valueType, String value) {
+		if (!backend().arena().enabled() && trackable().untrack(value)) {
+			return value;
+		}
+		String tmp = variables().generateTemp();
+		emitter().emit("%s = %s;", declaration(tokenType, tmp), backend().defaultValues().defaultValue(tokenType));
+		backend().arena().suspendAll();
+		copy(tokenType, tmp, valueType, value);
+		backend().arena().resumeAll();
+		return tmp;
+	}
+
 	default void execute(StmtAssignment assign) {
 		trackable().enter();
 		Type type = types().type(assign.getLValue());
 		String lvalue = lvalue(assign.getLValue());
-		copy(type, lvalue, types().type(assign.getExpression()), evaluate(assign.getExpression()));
+		List<Expression> appended = appendedStrings(assign);
+		if (!appended.isEmpty()) {
+			List<String> values = new ArrayList<>();
+			for (Expression operand : appended) {
+				values.add(evaluate(operand));
+			}
+			backend().arena().suspend(assign.getLValue(), type);
+			for (int i = 0; i < appended.size(); i++) {
+				emitter().emit("append_%s_%s(&(%s), %s);", type(type), appendType(types().type(appended.get(i))), lvalue, values.get(i));
+			}
+			backend().arena().resume(assign.getLValue(), type);
+			trackable().exit();
+			return;
+		}
+		String value = evaluate(assign.getExpression());
+		backend().arena().suspend(assign.getLValue(), type);
+		copy(type, lvalue, types().type(assign.getExpression()), value);
+		backend().arena().resume(assign.getLValue(), type);
 		trackable().exit();
 	}
 
+	/**
+	 * An assignment of the form x := x + a + b, where x is a string variable, appends a and b to x in place. Returns
+	 * the appended operands in order, or an empty list if the assignment is not of this form.
+	 */
+	default List<Expression> appendedStrings(StmtAssignment assign) {
+		if (!(assign.getLValue() instanceof LValueVariable) || !(types().type(assign.getLValue()) instanceof StringType)) {
+			return Collections.emptyList();
+		}
+		VarDecl decl = backend().varDecls().declaration(((LValueVariable) assign.getLValue()).getVariable());
+		List<Expression> operands = new ArrayList<>();
+		Expression expr = assign.getExpression();
+		while (expr instanceof ExprBinaryOp && ((ExprBinaryOp) expr).getOperations().equals(Collections.singletonList("+"))) {
+			Expression right = ((ExprBinaryOp) expr).getOperands().get(1);
+			if (appendType(types().type(right)) == null) {
+				return Collections.emptyList();
+			}
+			operands.add(0, right);
+			expr = ((ExprBinaryOp) expr).getOperands().get(0);
+		}
+		if (!(expr instanceof ExprVariable) || backend().varDecls().declaration(((ExprVariable) expr).getVariable()) != decl) {
+			return Collections.emptyList();
+		}
+		// the operands are evaluated before appending, but variables are not copied when they are evaluated
+		boolean readsVariable = operands.stream()
+				.flatMap(Expression::walk)
+				.anyMatch(node -> node instanceof ExprVariable && backend().varDecls().declaration(((ExprVariable) node).getVariable()) == decl);
+		if (operands.size() > 1 && readsVariable) {
+			return Collections.emptyList();
+		}
+		return operands;
+	}
+
+	default String appendType(Type type) {
+		return null;
+	}
+
+	default String appendType(StringType type) {
+		return type(type);
+	}
+
+	default String appendType(CharType type) {
+		return type(type);
+	}
+
+	default String appendType(BoolType type) {
+		return type(type);
+	}
+
+	default String appendType(RealType type) {
+		return type(RealType.f64);
+	}
+
+	default String appendType(IntType type) {
+		return type(new IntType(OptionalInt.empty(), type.isSigned()));
+	}
+
 	default void execute(StmtBlock block) {
 		emitter().emit("{");
 		emitter().increaseIndentation();
@@ -1372,12 +1531,9 @@ public interface Code {
 		String index = variables().generateTemp();
 		String map = lvalue(indexer.getStructure());
 		String key = evaluate(indexer.getIndex());
-		emitter().emit("size_t %s;", index);
-		emitter().emit("for (%1$s = 0; %1$s < %2$s->size; %1$s++) {", index, map);
-		emitter().increaseIndentation();
-		emitter().emit("if (%s) break;", compare(type.getKeyType(), key, type.getValueType(), String.format("%s.data[%s]->key", map, index)));
-		emitter().decreaseIndentation();
-		emitter().emit("}");
+		backend().arena().suspend(indexer.getStructure(), type);
+		emitter().emit("size_t %s = slot_%s(%s, %s);", index, type(type), map, key);
+		backend().arena().resume(indexer.getStructure(), type);
 		return String.format("%s->data[%s].value", map, index);
 	}
 
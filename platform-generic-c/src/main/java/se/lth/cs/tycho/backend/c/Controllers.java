@@ -3,24 +3,47 @@ package se.lth.cs.tycho.backend.c;
 import org.multij.Binding;
 import org.multij.BindingKind;
 import org.multij.Module;
+import se.lth.cs.tycho.ir.IRNode;
 import se.lth.cs.tycho.ir.entity.am.ActorMachine;
+import se.lth.cs.tycho.ir.entity.am.Condition;
+import se.lth.cs.tycho.ir.entity.am.PortCondition;
+import se.lth.cs.tycho.ir.entity.am.PredicateCondition;
 import se.lth.cs.tycho.ir.entity.am.ctrl.Exec;
 import se.lth.cs.tycho.ir.entity.am.ctrl.Instruction;
 import se.lth.cs.tycho.ir.entity.am.ctrl.InstructionKind;
 import se.lth.cs.tycho.ir.entity.am.ctrl.State;
 import se.lth.cs.tycho.ir.entity.am.ctrl.Test;
 import se.lth.cs.tycho.ir.entity.am.ctrl.Wait;
+import se.lth.cs.tycho.attribute.ActorMachineScopes;
+import se.lth.cs.tycho.attribute.ScopeInvalidation;
 import se.lth.cs.tycho.attribute.ScopeLiveness;
+import se.lth.cs.tycho.ir.decl.VarDecl;
+import se.lth.cs.tycho.ir.expr.ExprGlobalVariable;
+import se.lth.cs.tycho.ir.expr.ExprInput;
+import se.lth.cs.tycho.ir.expr.ExprVariable;
 import se.lth.cs.tycho.settings.Configuration;
 import se.lth.cs.tycho.settings.OnOffSetting;
+import se.lth.cs.tycho.settings.OptionalSetting;
+import se.lth.cs.tycho.settings.PathSetting;
+import se.lth.cs.tycho.settings.Setting;
+import se.lth.cs.tycho.util.BitSets;
 
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Module
 public interface Controllers {
@@ -53,7 +76,204 @@ public interface Controllers {
 	};
 
 
+	Setting<Optional<Path>> conditionProfile = new OptionalSetting<>(new PathSetting() {
+		@Override
+		public String getKey() {
+			return "condition-profile";
+		}
+
+		@Override
+		public String getDescription() {
+			return "File that the generated program writes the outcomes of the condition tests and the firings of the " +
+					"transitions of each actor to, for use with the PROFILE reduction algorithm.";
+		}
+
+		@Override
+		public Optional<Path> read(String value) {
+			return value.equals("off") ? Optional.empty() : super.read(value);
+		}
+
+		@Override
+		public Path defaultValue(Configuration configuration) {
+			throw new UnsupportedOperationException();
+		}
+	}, "off");
+
+	OnOffSetting computedGotoController = new OnOffSetting() {
+		@Override
+		public String getKey() {
+			return "computed-goto-controller";
+		}
+
+		@Override
+		public String getDescription() {
+			return "Emits the actor machine controllers with a computed goto table for re-entry, inlined port conditions " +
+					"and the states laid out along the path where all tests are true. Requires GCC or Clang.";
+		}
+
+		@Override
+		public Boolean defaultValue(Configuration configuration) {
+			return false;
+		}
+	};
+
+	OnOffSetting conditionMemoization = new OnOffSetting() {
+		@Override
+		public String getKey() {
+			return "condition-memoization";
+		}
+
+		@Override
+		public String getDescription() {
+			return "Keeps the results of the predicate conditions of each actor until a transition changes the scopes " +
+					"or input tokens that they depend on, so that guards are not reevaluated after a wait. Conditions " +
+					"that call external functions, directly or through other functions, are always reevaluated.";
+		}
+
+		@Override
+		public Boolean defaultValue(Configuration configuration) {
+			return false;
+		}
+	};
+
+	default boolean memoizing() {
+		return backend().context().getConfiguration().get(conditionMemoization);
+	}
+
+	default boolean isMemoized(Condition condition) {
+		return memoizing() && condition instanceof PredicateCondition
+				&& !callsExternal(((PredicateCondition) condition).getExpression(), new HashSet<>());
+	}
+
+	/**
+	 * Returns true if the node refers to an external declaration, or to a declaration whose value does.
+	 */
+	default boolean callsExternal(IRNode node, Set<VarDecl> visited) {
+		VarDecl declaration = null;
+		if (node instanceof ExprVariable) {
+			declaration = backend().varDecls().declaration((ExprVariable) node);
+		} else if (node instanceof ExprGlobalVariable) {
+			declaration = backend().varDecls().declaration((ExprGlobalVariable) node);
+		}
+		if (declaration != null && visited.add(declaration)) {
+			if (declaration.isExternal() || declaration.getValue() != null && callsExternal(declaration.getValue(), visited)) {
+				return true;
+			}
+		}
+		boolean[] result = { false };
+		node.forEachChild(child -> result[0] |= callsExternal(child, visited));
+		return result[0];
+	}
+
+	default void emitConditionCache(ActorMachine actorMachine) {
+		if (memoizing()) {
+			emitter().emit("// condition cache");
+			emitter().emit("_Bool condition_valid[%d];", Math.max(1, actorMachine.getConditions().size()));
+			emitter().emit("_Bool condition_value[%d];", Math.max(1, actorMachine.getConditions().size()));
+			emitter().emit("");
+		}
+	}
+
+	default void emitConditionCacheInit(ActorMachine actorMachine) {
+		if (memoizing()) {
+			emitter().emit("for (int i = 0; i < %d; i++) {", actorMachine.getConditions().size());
+			emitter().emit("	self->condition_valid[i] = false;");
+			emitter().emit("}");
+			emitter().emit("");
+		}
+	}
+
+	/**
+	 * Returns the action that clears the cached results that an instruction may change. An exec changes the
+	 * conditions that depend on the scopes that its transition invalidates, on the persistent scopes that it refers
+	 * to, or directly on input tokens.
+	 */
+	default Consumer<Instruction> conditionInvalidation(ActorMachine actorMachine) {
+		if (!memoizing()) {
+			return instruction -> {};
+		}
+		ActorMachineScopes scopes = backend().scopes();
+		ScopeInvalidation invalidation = new ScopeInvalidation(actorMachine, scopes, backend().scopeDependencies());
+		Map<Integer, BitSet> conditionScopes = new HashMap<>();
+		for (State state : actorMachine.controller().getStateList()) {
+			for (Instruction instruction : state.getInstructions()) {
+				if (instruction.getKind() == InstructionKind.TEST) {
+					int condition = ((Test) instruction).condition();
+					conditionScopes.computeIfAbsent(condition, c -> scopes.required(actorMachine, instruction));
+				}
+			}
+		}
+		BitSet persistent = scopes.persistentScopes(actorMachine);
+		return instruction -> {
+			if (instruction.getKind() == InstructionKind.EXEC) {
+				BitSet changed = BitSets.union(invalidation.killed(instruction),
+						BitSets.intersection(scopes.required(actorMachine, instruction), persistent));
+				conditionScopes.forEach((c, required) -> {
+					Condition condition = actorMachine.getCondition(c);
+					if (isMemoized(condition) && (required.intersects(changed) || readsInput(condition))) {
+						emitter().emit("self->condition_valid[%d] = false;", c);
+					}
+				});
+			}
+		};
+	}
+
+	default boolean readsInput(IRNode node) {
+		if (node instanceof ExprInput) {
+			return true;
+		}
+		boolean[] result = { false };
+		node.forEachChild(child -> result[0] |= readsInput(child));
+		return result[0];
+	}
+
+	default boolean profiling() {
+		return backend().context().getConfiguration().get(conditionProfile).isPresent();
+	}
+
+	default void emitProfileCounters(ActorMachine actorMachine) {
+		if (profiling()) {
+			emitter().emit("// profile");
+			emitter().emit("unsigned long profile_true[%d];", Math.max(1, actorMachine.getConditions().size()));
+			emitter().emit("unsigned long profile_false[%d];", Math.max(1, actorMachine.getConditions().size()));
+			emitter().emit("unsigned long profile_fired[%d];", Math.max(1, actorMachine.getTransitions().size()));
+			emitter().emit("");
+		}
+	}
+
+	default void emitProfileWriterHeader(String name) {
+		if (profiling()) {
+			emitter().emit("void %s_write_profile(%1$s_state *self, FILE *file);", name);
+			emitter().emit("");
+		}
+	}
+
+	/**
+	 * Emits a function that writes the counters of an instance as lines of "entity condition index true false" and
+	 * "entity transition index count", where entity is the original name of the entity of the instance.
+	 */
+	default void emitProfileWriter(String name, String entity, ActorMachine actorMachine) {
+		if (profiling()) {
+			emitter().emit("void %s_write_profile(%1$s_state *self, FILE *file) {", name);
+			emitter().increaseIndentation();
+			emitter().emit("for (int i = 0; i < %d; i++) {", actorMachine.getConditions().size());
+			emitter().emit("	fprintf(file, \"%s condition %%d %%lu %%lu\\n\", i, self->profile_true[i], self->profile_false[i]);", entity);
+			emitter().emit("}");
+			emitter().emit("for (int i = 0; i < %d; i++) {", actorMachine.getTransitions().size());
+			emitter().emit("	fprintf(file, \"%s transition %%d %%lu\\n\", i, self->profile_fired[i]);", entity);
+			emitter().emit("}");
+			emitter().decreaseIndentation();
+			emitter().emit("}");
+			emitter().emit("");
+			emitter().emit("");
+		}
+	}
+
 	default void emitController(String name, ActorMachine actorMachine) {
+		if (backend().context().getConfiguration().get(computedGotoController)) {
+			emitComputedGotoController(name, actorMachine);
+			return;
+		}
 		List<? extends State> stateList = actorMachine.controller().getStateList();
 		Map<State, Integer> stateMap = stateMap(stateList);
 		Set<State> waitTargets = collectWaitTargets(stateList);
@@ -66,27 +286,162 @@ public interface Controllers {
 
 		jumpInto(waitTargets.stream().mapToInt(stateMap::get).collect(BitSet::new, BitSet::set, BitSet::or));
 
-		Function<Instruction, BitSet> initialize;
+		Function<Instruction, BitSet> initialize = scopeInitialization(actorMachine);
+		Consumer<Instruction> invalidate = conditionInvalidation(actorMachine);
+
+		for (State s : stateList) {
+			emitter().emit("S%d:", stateMap.get(s));
+			Instruction instruction = s.getInstructions().get(0);
+			initialize.apply(instruction).stream().forEach(scope ->
+					emitter().emit("%s_init_scope_%d(self);", name, scope)
+			);
+			invalidate.accept(instruction);
+			emitInstruction(name, instruction, stateMap);
+		}
+
+		emitter().decreaseIndentation();
+		emitter().emit("}");
+	}
+
+	default Function<Instruction, BitSet> scopeInitialization(ActorMachine actorMachine) {
 		if (backend().context().getConfiguration().get(scopeLivenessAnalysis)) {
 			ScopeLiveness liveness = new ScopeLiveness(backend().scopes(), actorMachine, backend().scopeDependencies());
-			initialize = liveness::init;
+			return liveness::init;
 		} else {
-			initialize = instruction -> backend().scopes().init(actorMachine, instruction);
+			return instruction -> backend().scopes().init(actorMachine, instruction);
 		}
+	}
 
-		for (State s : stateList) {
+	/**
+	 * Emits a controller that re-enters through a table of label addresses, where the program counter is an index in
+	 * the table and zero is the first state. The states are laid out so that each test falls through to its true
+	 * target and each exec to its target, when they have not already been emitted, and port conditions are evaluated
+	 * directly instead of through their condition functions.
+	 */
+	default void emitComputedGotoController(String name, ActorMachine actorMachine) {
+		List<? extends State> stateList = actorMachine.controller().getStateList();
+		Map<State, Integer> stateMap = stateMap(stateList);
+		Map<State, Integer> entries = new HashMap<>();
+		entries.put(stateList.get(0), 0);
+		collectWaitTargets(stateList).stream()
+				.sorted(Comparator.comparing(stateMap::get))
+				.forEach(target -> entries.putIfAbsent(target, entries.size()));
+		State[] entryStates = new State[entries.size()];
+		entries.forEach((state, entry) -> entryStates[entry] = state);
+
+		emitter().emit("_Bool %s_run(%1$s_state *self) {", name);
+		emitter().increaseIndentation();
+
+		emitter().emit("static void *const entry[] = { %s };", Arrays.stream(entryStates)
+				.map(state -> "&&S" + stateMap.get(state))
+				.collect(Collectors.joining(", ")));
+		emitter().emit("_Bool progress = false;");
+		emitter().emit("");
+		emitter().emit("goto *entry[self->program_counter];");
+		emitter().emit("");
+
+		Function<Instruction, BitSet> initialize = scopeInitialization(actorMachine);
+		Consumer<Instruction> invalidate = conditionInvalidation(actorMachine);
+
+		List<State> layout = hotPathLayout(stateList);
+		for (int i = 0; i < layout.size(); i++) {
+			State s = layout.get(i);
+			State next = i + 1 < layout.size() ? layout.get(i + 1) : null;
 			emitter().emit("S%d:", stateMap.get(s));
 			Instruction instruction = s.getInstructions().get(0);
 			initialize.apply(instruction).stream().forEach(scope ->
 					emitter().emit("%s_init_scope_%d(self);", name, scope)
 			);
-			emitInstruction(name, instruction, stateMap);
+			invalidate.accept(instruction);
+			emitLaidOutInstruction(name, actorMachine, instruction, stateMap, entries, next);
 		}
 
 		emitter().decreaseIndentation();
 		emitter().emit("}");
 	}
 
+	/**
+	 * Orders the states in chains that start with the first state and follow the true target of each test and the
+	 * target of each exec, since the common firing sequence is that all tested conditions hold. The false targets and
+	 * the targets of waits start new chains.
+	 */
+	default List<State> hotPathLayout(List<? extends State> stateList) {
+		List<State> layout = new ArrayList<>();
+		Set<State> placed = new HashSet<>();
+		Deque<State> chains = new ArrayDeque<>(stateList);
+		chains.push(stateList.get(0));
+		while (!chains.isEmpty()) {
+			State state = chains.pop();
+			while (state != null && placed.add(state)) {
+				layout.add(state);
+				state = state.getInstructions().get(0).accept(
+						exec -> exec.target(),
+						test -> {
+							chains.push(test.targetFalse());
+							return test.targetTrue();
+						},
+						wait -> {
+							chains.push(wait.target());
+							return null;
+						});
+			}
+		}
+		return layout;
+	}
+
+	void emitLaidOutInstruction(String name, ActorMachine actorMachine, Instruction instruction, Map<State, Integer> stateNumbers, Map<State, Integer> entries, State next);
+
+	default void emitLaidOutInstruction(String name, ActorMachine actorMachine, Test test, Map<State, Integer> stateNumbers, Map<State, Integer> entries, State next) {
+		Condition condition = actorMachine.getCondition(test.condition());
+		String result = condition instanceof PortCondition
+				? backend().structure().evaluateCondition(condition)
+				: String.format("%s_condition_%d(self)", name, test.condition());
+		if (!profiling() && test.targetTrue() == next) {
+			emitter().emit("if (!%s) goto S%d;", result, stateNumbers.get(test.targetFalse()));
+		} else if (!profiling() && test.targetFalse() == next) {
+			emitter().emit("if (%s) goto S%d;", result, stateNumbers.get(test.targetTrue()));
+		} else {
+			emitter().emit("if (%s) {", result);
+			emitter().increaseIndentation();
+			if (profiling()) {
+				emitter().emit("self->profile_true[%d]++;", test.condition());
+			}
+			emitJump(test.targetTrue(), stateNumbers, next);
+			emitter().decreaseIndentation();
+			emitter().emit("} else {");
+			emitter().increaseIndentation();
+			if (profiling()) {
+				emitter().emit("self->profile_false[%d]++;", test.condition());
+			}
+			emitJump(test.targetFalse(), stateNumbers, next);
+			emitter().decreaseIndentation();
+			emitter().emit("}");
+		}
+		emitter().emit("");
+	}
+
+	default void emitLaidOutInstruction(String name, ActorMachine actorMachine, Wait wait, Map<State, Integer> stateNumbers, Map<State, Integer> entries, State next) {
+		emitter().emit("self->program_counter = %d;", entries.get(wait.target()));
+		emitter().emit("return progress;");
+		emitter().emit("");
+	}
+
+	default void emitLaidOutInstruction(String name, ActorMachine actorMachine, Exec exec, Map<State, Integer> stateNumbers, Map<State, Integer> entries, State next) {
+		emitter().emit("%s_transition_%d(self);", name, exec.transition());
+		if (profiling()) {
+			emitter().emit("self->profile_fired[%d]++;", exec.transition());
+		}
+		emitter().emit("progress = true;");
+		emitJump(exec.target(), stateNumbers, next);
+		emitter().emit("");
+	}
+
+	default void emitJump(State target, Map<State, Integer> stateNumbers, State next) {
+		if (target != next) {
+			emitter().emit("goto S%d;", stateNumbers.get(target));
+		}
+	}
+
 	default Map<State, Integer> stateMap(List<? extends State> stateList) {
 		int i = 0;
 		Map<State, Integer> result = new HashMap<>();
@@ -101,10 +456,16 @@ public interface Controllers {
 	default void emitInstruction(String name, Test test, Map<State, Integer> stateNumbers) {
 		emitter().emit("if (%s_condition_%d(self)) {", name, test.condition());
 		emitter().increaseIndentation();
+		if (profiling()) {
+			emitter().emit("self->profile_true[%d]++;", test.condition());
+		}
 		emitter().emit("goto S%d;", stateNumbers.get(test.targetTrue()));
 		emitter().decreaseIndentation();
 		emitter().emit("} else {");
 		emitter().increaseIndentation();
+		if (profiling()) {
+			emitter().emit("self->profile_false[%d]++;", test.condition());
+		}
 		emitter().emit("goto S%d;", stateNumbers.get(test.targetFalse()));
 		emitter().decreaseIndentation();
 		emitter().emit("}");
@@ -119,6 +480,9 @@ public interface Controllers {
 
 	default void emitInstruction(String name, Exec exec, Map<State, Integer> stateNumbers) {
 		emitter().emit("%s_transition_%d(self);", name, exec.transition());
+		if (profiling()) {
+			emitter().emit("self->profile_fired[%d]++;", exec.transition());
+		}
 		emitter().emit("progress = true;");
 		emitter().emit("goto S%d;", stateNumbers.get(exec.target()));
 		emitter().emit("");
@@ -4,23 +4,45 @@ import se.lth.cs.tycho.reporting.CompilationException;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 
 public class Emitter {
 
+	private final boolean onlyWriteChanges;
 	private int indentation;
 	private PrintWriter writer;
+	private StringWriter buffer;
+	private Path file;
 
-	public Emitter() { }
+	public Emitter() {
+		this(false);
+	}
+
+	/**
+	 * If {@code onlyWriteChanges} is set, each file is generated in memory and only written if its content differs
+	 * from the file on disk, so that unchanged files keep their modification time.
+	 */
+	public Emitter(boolean onlyWriteChanges) {
+		this.onlyWriteChanges = onlyWriteChanges;
+	}
 
 	public void open(Path file) {
 		if (writer != null) throw new IllegalStateException("Must close previous file before opening a new.");
-		try {
-			writer = new PrintWriter(Files.newBufferedWriter(file));
-		} catch (IOException e) {
-			throw CompilationException.from(e);
+		if (onlyWriteChanges) {
+			buffer = new StringWriter();
+			writer = new PrintWriter(buffer);
+		} else {
+			try {
+				writer = new PrintWriter(Files.newBufferedWriter(file));
+			} catch (IOException e) {
+				throw CompilationException.from(e);
+			}
 		}
+		this.file = file;
 		indentation = 0;
 	}
 
@@ -28,6 +50,22 @@ public class Emitter {
 		writer.flush();
 		writer.close();
 		writer = null;
+		if (buffer != null) {
+			writeIfChanged(file, buffer.toString().getBytes(StandardCharsets.UTF_8));
+			buffer = null;
+		}
+		file = null;
+	}
+
+	public static void writeIfChanged(Path file, byte[] content) {
+		try {
+			if (Files.isRegularFile(file) && Files.size(file) == content.length && Arrays.equals(Files.readAllBytes(file), content)) {
+				return;
+			}
+			Files.write(file, content);
+		} catch (IOException e) {
+			throw CompilationException.from(e);
+		}
 	}
 
 	public void increaseIndentation() {
@@ -4,6 +4,7 @@ import org.multij.Binding;
 import org.multij.BindingKind;
 import org.multij.Module;
 import se.lth.cs.tycho.ir.decl.VarDecl;
+import se.lth.cs.tycho.ir.expr.Expression;
 import se.lth.cs.tycho.attribute.Types;
 import se.lth.cs.tycho.type.CallableType;
 import se.lth.cs.tycho.type.Type;
@@ -31,6 +32,7 @@ public interface Global {
 		backend().main().emitDefaultHeaders();
 		emitter().emit("#include \"global.h\"");
 		emitter().emit("");
+		backend().arena().defineArena();
 		backend().sets().defineSet();
 		emitter().emit("");
 		backend().maps().defineMap();
@@ -43,6 +45,10 @@ public interface Global {
 		emitter().emit("");
 		backend().callables().defineCallables();
 		emitter().emit("");
+		globalEnvironments("");
+		emitter().emit("");
+		globalVariableDefinitions(getGlobalVarDecls());
+		emitter().emit("");
 		globalVariableInitializer(getGlobalVarDecls());
 		emitter().emit("");
 		globalVariableDestructor(getGlobalVarDecls());
@@ -62,6 +68,7 @@ public interface Global {
 		emitter().emit("");
 		emitter().emit("void free_global_variables(void);");
 		emitter().emit("");
+		backend().arena().declareArena();
 		backend().algebraic().forwardAlgebraic();
 		emitter().emit("");
 		backend().sets().forwardSet();
@@ -86,7 +93,7 @@ public interface Global {
 		emitter().emit("");
 		backend().callables().declareCallables();
 		emitter().emit("");
-		backend().callables().declareEnvironmentForCallablesInScope(backend().task());
+		globalEnvironments("extern ");
 		emitter().emit("");
 		globalVariableDeclarations(getGlobalVarDecls());
 		emitter().emit("");
@@ -100,6 +107,21 @@ public interface Global {
 	}
 
 	default void globalVariableDeclarations(Stream<VarDecl> varDecls) {
+		varDecls.forEach(decl -> {
+			Type type = types().declaredType(decl);
+			String d = code().declaration(type, backend().variables().declarationName(decl));
+			emitter().emit("extern %s;", d);
+		});
+	}
+
+	default void globalEnvironments(String storageClass) {
+		for (Expression callable : backend().callables().callablesInScope(backend().task())) {
+			String functionName = backend().callables().functionName(callable);
+			emitter().emit("%senvt_%s env_%s;", storageClass, functionName, functionName);
+		}
+	}
+
+	default void globalVariableDefinitions(Stream<VarDecl> varDecls) {
 		varDecls.forEach(decl -> {
 			Type type = types().declaredType(decl);
 			String d = code().declaration(type, backend().variables().declarationName(decl));
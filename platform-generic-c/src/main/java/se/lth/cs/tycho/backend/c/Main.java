@@ -6,17 +6,32 @@ import org.multij.Module;
 import se.lth.cs.tycho.compiler.CompilationTask;
 import se.lth.cs.tycho.compiler.Compiler;
 import se.lth.cs.tycho.compiler.SourceUnit;
+import se.lth.cs.tycho.ir.QID;
 import se.lth.cs.tycho.ir.decl.GlobalEntityDecl;
+import se.lth.cs.tycho.ir.entity.Entity;
+import se.lth.cs.tycho.ir.entity.PortDecl;
+import se.lth.cs.tycho.ir.network.Connection;
 import se.lth.cs.tycho.ir.network.Instance;
 import se.lth.cs.tycho.reporting.CompilationException;
+import se.lth.cs.tycho.settings.Configuration;
+import se.lth.cs.tycho.settings.IntegerSetting;
+import se.lth.cs.tycho.settings.OnOffSetting;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 import static org.multij.BindingKind.LAZY;
 
@@ -44,24 +59,102 @@ public interface Main {
 		main();
 	}
 
+	OnOffSetting incrementalCodeGeneration = new OnOffSetting() {
+		@Override
+		public String getKey() {
+			return "incremental-code-generation";
+		}
+
+		@Override
+		public String getDescription() {
+			return "Only writes generated files whose content has changed, so that unchanged files keep their modification time.";
+		}
+
+		@Override
+		public Boolean defaultValue(Configuration configuration) {
+			return false;
+		}
+	};
+
+	IntegerSetting codeGenerationThreads = new IntegerSetting() {
+		@Override
+		public String getKey() {
+			return "code-generation-threads";
+		}
+
+		@Override
+		public String getDescription() {
+			return "Number of threads used to generate the code of the actor instances.";
+		}
+
+		@Override
+		public Integer defaultValue(Configuration configuration) {
+			return 1;
+		}
+	};
+
+	OnOffSetting shareActorCode = new OnOffSetting() {
+		@Override
+		public String getKey() {
+			return "share-actor-code";
+		}
+
+		@Override
+		public String getDescription() {
+			return "Generates the code of an actor once for all identically parameterized instances of it that are connected to channels of the same types and sizes. " +
+					"Instances with different parameter values are different entities after template instantiation and get code of their own.";
+		}
+
+		@Override
+		public Boolean defaultValue(Configuration configuration) {
+			return false;
+		}
+	};
+
+	default boolean incremental() {
+		return backend().context().getConfiguration().get(incrementalCodeGeneration);
+	}
+
+	default int threads() {
+		return backend().context().getConfiguration().get(codeGenerationThreads);
+	}
+
+	/**
+	 * Temporary variables are numbered per file in incremental mode and when actors are generated in parallel,
+	 * so that the content of a file does not depend on the code generated for other files.
+	 */
+	default boolean fileLocalNumbering() {
+		return incremental() || threads() > 1;
+	}
+
+	/**
+	 * Opens a file for code generation, and restarts the numbering of temporary variables if it is file local.
+	 */
+	default void open(Path file) {
+		if (fileLocalNumbering()) {
+			backend().uniqueNumbers().reset();
+		}
+		emitter().open(file);
+	}
+
 	default void global() {
-		emitter().open(target().resolve("global.h"));
+		open(target().resolve("global.h"));
 		backend().global().generateGlobalHeader();
 		emitter().close();
-		emitter().open(target().resolve("global.c"));
+		open(target().resolve("global.c"));
 		backend().global().generateGlobalCode();
 		emitter().close();
 	}
 
 	default void fifo() {
-		emitter().open(target().resolve("fifo.h"));
+		open(target().resolve("fifo.h"));
 		channels().fifo_h();
 		emitter().close();
 	}
 
 	default void main() {
 		Path mainTarget = target().resolve("main.c");
-		emitter().open(mainTarget);
+		open(mainTarget);
 		CompilationTask task = backend().task();
 		includeSystem("stdlib.h");
 		includeSystem("stdio.h");
@@ -83,7 +176,104 @@ public interface Main {
 	}
 
 	default void actors() {
-		backend().task().getNetwork().getInstances().forEach(this::actor);
+		List<Instance> instances = new ArrayList<>();
+		List<GlobalEntityDecl> actors = new ArrayList<>();
+		List<String> fileNameBases = new ArrayList<>();
+		for (Instance instance : backend().task().getNetwork().getInstances()) {
+			if (actorCodeName(instance).equals(instance.getInstanceName())) {
+				instances.add(instance);
+				actors.add(entityDecls().get(instance.getEntityName()));
+				fileNameBases.add(actorFileName(instance.getInstanceName()));
+			}
+		}
+		if (threads() <= 1 || instances.size() <= 1) {
+			for (int i = 0; i < instances.size(); i++) {
+				actor(instances.get(i), actors.get(i), fileNameBases.get(i));
+			}
+			return;
+		}
+		ForkJoinPool pool = new ForkJoinPool(threads());
+		try {
+			pool.submit(() -> IntStream.range(0, instances.size()).parallel()
+					.forEach(i -> actor(instances.get(i), actors.get(i), fileNameBases.get(i))))
+					.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			} else if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			} else {
+				throw new RuntimeException(e.getCause());
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Returns the name of the instance whose generated code is used by the given instance.
+	 */
+	default String actorCodeName(Instance instance) {
+		return actorCodeNames().get(instance.getInstanceName());
+	}
+
+	/**
+	 * Maps each instance name to the name of the instance whose generated code it uses. Without shared actor code,
+	 * every instance uses its own code. With shared actor code, the first instance with a given code signature is
+	 * generated and the following instances with the same signature use its code.
+	 */
+	@Binding(LAZY)
+	default Map<String, String> actorCodeNames() {
+		boolean share = backend().context().getConfiguration().get(shareActorCode);
+		Map<List<String>, String> generated = new HashMap<>();
+		Map<String, String> result = new HashMap<>();
+		for (Instance instance : backend().task().getNetwork().getInstances()) {
+			String name = instance.getInstanceName();
+			if (share) {
+				result.put(name, generated.computeIfAbsent(codeSignature(instance), signature -> name));
+			} else {
+				result.put(name, name);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The parts of an instance that the generated code of an actor depends on: the entity and the types and sizes
+	 * of the channels of its ports. The entity is specialized for its parameter values when it is instantiated,
+	 * so instances with the same parameter values refer to the same entity.
+	 */
+	default List<String> codeSignature(Instance instance) {
+		Entity entity = entityDecls().get(instance.getEntityName()).getEntity();
+		Optional<String> instanceName = Optional.of(instance.getInstanceName());
+		List<String> signature = new ArrayList<>();
+		signature.add(instance.getEntityName().toString());
+		for (PortDecl port : entity.getInputPorts()) {
+			signature.add(backend().channels().targetEndTypeSize(new Connection.End(instanceName, port.getName())));
+		}
+		for (PortDecl port : entity.getOutputPorts()) {
+			signature.add(backend().channels().sourceEndTypeSize(new Connection.End(instanceName, port.getName())));
+		}
+		return signature;
+	}
+
+	/**
+	 * The entity declarations of the task by qualified name. If a name is declared more than once, the first
+	 * declaration is used.
+	 */
+	@Binding(LAZY)
+	default Map<QID, GlobalEntityDecl> entityDecls() {
+		Map<QID, GlobalEntityDecl> result = new HashMap<>();
+		for (SourceUnit unit : backend().task().getSourceUnits()) {
+			QID namespace = unit.getTree().getQID();
+			for (GlobalEntityDecl decl : unit.getTree().getEntityDecls()) {
+				result.putIfAbsent(namespace.concat(QID.of(decl.getName())), decl);
+			}
+		}
+		return result;
 	}
 
 	@Binding(LAZY)
@@ -102,17 +292,10 @@ public interface Main {
 		return name;
 	}
 
-	default void actor(Instance instance) {
+	default void actor(Instance instance, GlobalEntityDecl actor, String fileNameBase) {
 		backend().instance().set(instance);
-		GlobalEntityDecl actor = backend().task().getSourceUnits().stream()
-				.map(SourceUnit::getTree)
-				.filter(ns -> ns.getQID().equals(instance.getEntityName().getButLast()))
-				.flatMap(ns -> ns.getEntityDecls().stream())
-				.filter(decl -> decl.getName().equals(instance.getEntityName().getLast().toString()))
-				.findFirst().get();
-		String fileNameBase = actorFileName(instance.getInstanceName());
 		String headerFileName = fileNameBase + ".h";
-		emitter().open(target().resolve(headerFileName));
+		open(target().resolve(headerFileName));
 		String headerGuard = headerGuard(headerFileName);
 		emitter().emit("#ifndef %s", headerGuard);
 		emitter().emit("#define %s", headerGuard);
@@ -121,7 +304,7 @@ public interface Main {
 		emitter().emit("#endif");
 		emitter().close();
 
-		emitter().open(target().resolve(fileNameBase + ".c"));
+		open(target().resolve(fileNameBase + ".c"));
 		emitDefaultHeaders();
 		includeUser("fifo.h");
 		includeUser("global.h");
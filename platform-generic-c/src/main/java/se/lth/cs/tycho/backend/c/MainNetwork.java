@@ -12,10 +12,14 @@ import se.lth.cs.tycho.ir.network.Connection;
 import se.lth.cs.tycho.ir.network.Instance;
 import se.lth.cs.tycho.ir.network.Network;
 import se.lth.cs.tycho.attribute.GlobalNames;
+import se.lth.cs.tycho.settings.Configuration;
+import se.lth.cs.tycho.settings.OnOffSetting;
 import se.lth.cs.tycho.type.Type;
 
+import java.nio.file.Path;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 @Module
@@ -27,6 +31,24 @@ public interface MainNetwork {
 		return backend().emitter();
 	}
 
+	OnOffSetting readyQueueScheduler = new OnOffSetting() {
+		@Override
+		public String getKey() {
+			return "ready-queue-scheduler";
+		}
+
+		@Override
+		public String getDescription() {
+			return "Runs the actors of a single-threaded program from a queue of actors that may be able to make " +
+					"progress, instead of running all actors round-robin.";
+		}
+
+		@Override
+		public Boolean defaultValue(Configuration configuration) {
+			return false;
+		}
+	};
+
 	default GlobalNames globalNames() {
 		return backend().globalNames();
 	}
@@ -38,8 +60,11 @@ public interface MainNetwork {
 	default void main(Network network) {
 		List<Connection> connections = network.getConnections();
 		List<Instance> instances = network.getInstances();
+		boolean multiThreaded = backend().partitioning().isMultiThreaded();
 
-
+		if (multiThreaded) {
+			partitionedScheduler(network);
+		}
 
 		emitter().emit("static void run(int argc, char **argv) {");
 		emitter().increaseIndentation();
@@ -97,8 +122,10 @@ public interface MainNetwork {
 		}
 		emitter().emit("");
 		for (Instance instance : instances) {
-			emitter().emit("static %s_state %1$s;", instance.getInstanceName());
-			emitter().emit("memset(&%s, 0, sizeof(%1$s_state));", instance.getInstanceName());
+			if (!multiThreaded) {
+				emitter().emit("static %s_state %s;", backend().main().actorCodeName(instance), instance.getInstanceName());
+			}
+			emitter().emit("memset(&%s, 0, sizeof(%s_state));", instance.getInstanceName(), backend().main().actorCodeName(instance));
 		}
 		for (Instance instance : instances) {
 			List<String> initParameters = new ArrayList<>();
@@ -130,7 +157,7 @@ public interface MainNetwork {
 				emitter().emit("channel_list_%s %s_%s = { %s };", tokenType, instance.getInstanceName(), port.getName(), channels);
 				initParameters.add(String.format("%s_%s", instance.getInstanceName(), port.getName()));
 			}
-			emitter().emit("%s_init_actor(%s);", instance.getInstanceName(), String.join(", ", initParameters));
+			emitter().emit("%s_init_actor(%s);", backend().main().actorCodeName(instance), String.join(", ", initParameters));
 			emitter().emit("");
 		}
 
@@ -143,7 +170,11 @@ public interface MainNetwork {
 			String tokenType = backend().channels().sourceEndTypeSize(new Connection.End(Optional.empty(), port.getName()));
 			emitter().emit("channel_list_%s %s_channels = { &%s };", tokenType, port.getName(), channels);
 			String type = backend().channels().sourceEndTypeSize(end);
-			emitter().emit("input_actor_%s *%s_input_actor = input_actor_create_%1$s(%2$s_input_file, %2$s_channels);", type, port.getName());
+			if (multiThreaded) {
+				emitter().emit("%s_input_actor = input_actor_create_%s(%1$s_input_file, %1$s_channels);", port.getName(), type);
+			} else {
+				emitter().emit("input_actor_%s *%s_input_actor = input_actor_create_%1$s(%2$s_input_file, %2$s_channels);", type, port.getName());
+			}
 			emitter().emit("");
 			argi = argi + 1;
 		}
@@ -152,29 +183,40 @@ public interface MainNetwork {
 			String channel = connectionNames.get(end);
 			emitter().emit("FILE *%s_output_file = fopen(argv[%d], \"w\");", port.getName(), argi);
 			String type = backend().channels().targetEndTypeSize(end);
-			emitter().emit("output_actor_%s *%s_output_actor = output_actor_create_%1$s(%2$s_output_file, &%s);", type, port.getName(), channel);
+			if (multiThreaded) {
+				emitter().emit("%s_output_actor = output_actor_create_%s(%1$s_output_file, &%s);", port.getName(), type, channel);
+			} else {
+				emitter().emit("output_actor_%s *%s_output_actor = output_actor_create_%1$s(%2$s_output_file, &%s);", type, port.getName(), channel);
+			}
 			emitter().emit("");
 			argi = argi + 1;
 		}
-		emitter().emit("_Bool progress;");
-		emitter().emit("do {");
-		emitter().increaseIndentation();
-		emitter().emit("progress = false;");
-		for (PortDecl inputPort : network.getInputPorts()) {
-			emitter().emit("progress |= input_actor_run_%s(%s_input_actor);", backend().channels().sourceEndTypeSize(new Connection.End(Optional.empty(), inputPort.getName())), inputPort.getName());
-		}
-		for (Instance instance : instances) {
-			emitter().emit("progress |= %s_run(&%1$s);", instance.getInstanceName());
-		}
-		for (PortDecl outputPort : network.getOutputPorts()) {
-			emitter().emit("progress |= output_actor_run_%s(%s_output_actor);", backend().channels().targetEndTypeSize(new Connection.End(Optional.empty(), outputPort.getName())), outputPort.getName());
+		if (multiThreaded) {
+			emitter().emit("pthread_t partition_threads[PARTITIONS];");
+			emitter().emit("for (size_t p = 1; p < PARTITIONS; p++) {");
+			emitter().emit("	pthread_create(&partition_threads[p], NULL, partition_main, (void *) p);");
+			emitter().emit("}");
+			emitter().emit("partition_main((void *) 0);");
+			emitter().emit("for (size_t p = 1; p < PARTITIONS; p++) {");
+			emitter().emit("	pthread_join(partition_threads[p], NULL);");
+			emitter().emit("}");
+		} else if (backend().context().getConfiguration().get(readyQueueScheduler)) {
+			readyQueueLoop(network);
+		} else {
+			emitter().emit("_Bool progress;");
+			emitter().emit("do {");
+			emitter().increaseIndentation();
+			emitter().emit("progress = false;");
+			runActors(network.getInputPorts(), instances, network.getOutputPorts());
+			emitter().decreaseIndentation();
+			emitter().emit("} while (progress && !interrupted);");
 		}
-		emitter().decreaseIndentation();
-		emitter().emit("} while (progress && !interrupted);");
 		emitter().emit("");
 
+		backend().context().getConfiguration().get(Controllers.conditionProfile).ifPresent(profile -> writeProfile(profile, instances));
+
 		for (Instance instance : instances) {
-			emitter().emit("%s_free_actor(&%1$s);", instance.getInstanceName());
+			emitter().emit("%s_free_actor(&%s);", backend().main().actorCodeName(instance), instance.getInstanceName());
 			emitter().emit("");
 		}
 
@@ -212,4 +254,203 @@ public interface MainNetwork {
 	}
 
 
+	default void writeProfile(Path profile, List<Instance> instances) {
+		emitter().emit("FILE *profile_file = fopen(\"%s\", \"w\");", profile.toString().replace("\\", "\\\\").replace("\"", "\\\""));
+		emitter().emit("if (profile_file) {");
+		emitter().increaseIndentation();
+		for (Instance instance : instances) {
+			emitter().emit("%s_write_profile(&%s, profile_file);", backend().main().actorCodeName(instance), instance.getInstanceName());
+		}
+		emitter().emit("fclose(profile_file);");
+		emitter().decreaseIndentation();
+		emitter().emit("}");
+		emitter().emit("");
+	}
+
+	default void runActors(List<PortDecl> inputPorts, List<Instance> instances, List<PortDecl> outputPorts) {
+		for (PortDecl inputPort : inputPorts) {
+			emitter().emit("progress |= input_actor_run_%s(%s_input_actor);", backend().channels().sourceEndTypeSize(new Connection.End(Optional.empty(), inputPort.getName())), inputPort.getName());
+		}
+		for (Instance instance : instances) {
+			emitter().emit("progress |= %s_run(&%s);", backend().main().actorCodeName(instance), instance.getInstanceName());
+		}
+		for (PortDecl outputPort : outputPorts) {
+			emitter().emit("progress |= output_actor_run_%s(%s_output_actor);", backend().channels().targetEndTypeSize(new Connection.End(Optional.empty(), outputPort.getName())), outputPort.getName());
+		}
+	}
+
+	/**
+	 * Emits a scheduler that runs the port actors and the instances from a queue, where they are numbered in the order
+	 * in which they are run round-robin. An actor that makes progress may have written tokens to the actors that it
+	 * is connected to, or freed space for them, so they are queued after it, and so is the actor itself. An actor
+	 * that makes no progress is waiting, and is not run again until one of its neighbours makes progress.
+	 *
+	 * A guard may also depend on external functions or global variables, which the queue does not follow. When the
+	 * queue is empty, all actors are therefore queued again, and the network is quiescent only when none of them
+	 * makes progress in such a sweep.
+	 */
+	default void readyQueueLoop(Network network) {
+		Map<Connection.End, Integer> nodes = new HashMap<>();
+		List<String> runs = new ArrayList<>();
+		for (PortDecl port : network.getInputPorts()) {
+			nodes.put(new Connection.End(Optional.empty(), port.getName()), runs.size());
+			runs.add(String.format("input_actor_run_%s(%s_input_actor)", backend().channels().sourceEndTypeSize(new Connection.End(Optional.empty(), port.getName())), port.getName()));
+		}
+		Map<String, Integer> instanceNodes = new HashMap<>();
+		for (Instance instance : network.getInstances()) {
+			instanceNodes.put(instance.getInstanceName(), runs.size());
+			runs.add(String.format("%s_run(&%s)", backend().main().actorCodeName(instance), instance.getInstanceName()));
+		}
+		for (PortDecl port : network.getOutputPorts()) {
+			nodes.put(new Connection.End(Optional.empty(), port.getName()), runs.size());
+			runs.add(String.format("output_actor_run_%s(%s_output_actor)", backend().channels().targetEndTypeSize(new Connection.End(Optional.empty(), port.getName())), port.getName()));
+		}
+		List<Set<Integer>> neighbours = new ArrayList<>();
+		for (int node = 0; node < runs.size(); node++) {
+			neighbours.add(new TreeSet<>(Collections.singleton(node)));
+		}
+		for (Connection connection : network.getConnections()) {
+			int source = connection.getSource().getInstance().map(instanceNodes::get).orElseGet(() -> nodes.get(connection.getSource()));
+			int target = connection.getTarget().getInstance().map(instanceNodes::get).orElseGet(() -> nodes.get(connection.getTarget()));
+			neighbours.get(source).add(target);
+			neighbours.get(target).add(source);
+		}
+		List<Integer> start = new ArrayList<>();
+		start.add(0);
+		neighbours.forEach(n -> start.add(start.get(start.size() - 1) + n.size()));
+
+		emitter().emit("static const int ready_neighbour_start[%d] = { %s };", runs.size() + 1, start.stream()
+				.map(String::valueOf)
+				.collect(Collectors.joining(", ")));
+		emitter().emit("static const int ready_neighbours[%d] = { %s };", start.get(runs.size()), neighbours.stream()
+				.flatMap(Set::stream)
+				.map(String::valueOf)
+				.collect(Collectors.joining(", ")));
+		emitter().emit("int ready_queue[%d];", runs.size());
+		emitter().emit("_Bool ready_queued[%d];", runs.size());
+		emitter().emit("size_t ready_head = 0;");
+		emitter().emit("size_t ready_count = 0;");
+		emitter().emit("_Bool ready_sweep_progress = true;");
+		emitter().emit("while (!interrupted) {");
+		emitter().increaseIndentation();
+		emitter().emit("if (ready_count == 0) {");
+		emitter().increaseIndentation();
+		emitter().emit("if (!ready_sweep_progress) break;");
+		emitter().emit("for (int node = 0; node < %d; node++) {", runs.size());
+		emitter().emit("	ready_queue[node] = node;");
+		emitter().emit("	ready_queued[node] = true;");
+		emitter().emit("}");
+		emitter().emit("ready_head = 0;");
+		emitter().emit("ready_count = %d;", runs.size());
+		emitter().emit("ready_sweep_progress = false;");
+		emitter().decreaseIndentation();
+		emitter().emit("}");
+		emitter().emit("int node = ready_queue[ready_head];");
+		emitter().emit("ready_head = (ready_head + 1) %% %d;", runs.size());
+		emitter().emit("ready_count--;");
+		emitter().emit("ready_queued[node] = false;");
+		emitter().emit("_Bool progress = false;");
+		emitter().emit("switch (node) {");
+		for (int node = 0; node < runs.size(); node++) {
+			emitter().emit("case %d: progress = %s; break;", node, runs.get(node));
+		}
+		emitter().emit("}");
+		emitter().emit("if (progress) {");
+		emitter().increaseIndentation();
+		emitter().emit("ready_sweep_progress = true;");
+		emitter().emit("for (int i = ready_neighbour_start[node]; i < ready_neighbour_start[node + 1]; i++) {");
+		emitter().increaseIndentation();
+		emitter().emit("int next = ready_neighbours[i];");
+		emitter().emit("if (!ready_queued[next]) {");
+		emitter().emit("	ready_queued[next] = true;");
+		emitter().emit("	ready_queue[(ready_head + ready_count) %% %d] = next;", runs.size());
+		emitter().emit("	ready_count++;");
+		emitter().emit("}");
+		emitter().decreaseIndentation();
+		emitter().emit("}");
+		emitter().decreaseIndentation();
+		emitter().emit("}");
+		emitter().decreaseIndentation();
+		emitter().emit("}");
+	}
+
+	/**
+	 * Emits a scheduler that runs each partition of the instances on a thread of its own. The actor states and the
+	 * port actors are declared at file level, so that they can be reached from all threads.
+	 *
+	 * Each thread runs its actors round-robin. A thread that makes progress increments a global epoch. A thread that
+	 * makes no progress confirms the epoch it read before the round. The network is quiescent when every thread has
+	 * confirmed the current epoch: then no actor could fire after any firing, and all threads terminate.
+	 */
+	default void partitionedScheduler(Network network) {
+		List<List<Instance>> partitions = backend().partitioning().partitions();
+		emitter().emit("#include <pthread.h>");
+		emitter().emit("#include <sched.h>");
+		emitter().emit("#include <stdatomic.h>");
+		emitter().emit("");
+		for (Instance instance : network.getInstances()) {
+			emitter().emit("static %s_state %s;", backend().main().actorCodeName(instance), instance.getInstanceName());
+		}
+		for (PortDecl port : network.getInputPorts()) {
+			emitter().emit("static input_actor_%s *%s_input_actor;", backend().channels().sourceEndTypeSize(new Connection.End(Optional.empty(), port.getName())), port.getName());
+		}
+		for (PortDecl port : network.getOutputPorts()) {
+			emitter().emit("static output_actor_%s *%s_output_actor;", backend().channels().targetEndTypeSize(new Connection.End(Optional.empty(), port.getName())), port.getName());
+		}
+		emitter().emit("");
+
+		for (int i = 0; i < partitions.size(); i++) {
+			emitter().emit("static _Bool partition_run_%d(void) {", i);
+			emitter().increaseIndentation();
+			emitter().emit("_Bool progress = false;");
+			if (i == 0) {
+				runActors(network.getInputPorts(), partitions.get(i), network.getOutputPorts());
+			} else {
+				runActors(Collections.emptyList(), partitions.get(i), Collections.emptyList());
+			}
+			emitter().emit("return progress;");
+			emitter().decreaseIndentation();
+			emitter().emit("}");
+			emitter().emit("");
+		}
+
+		emitter().emit("#define PARTITIONS %d", partitions.size());
+		emitter().emit("");
+		emitter().emit("static _Bool (*const partition_run[PARTITIONS])(void) = { %s };", IntStream.range(0, partitions.size())
+				.mapToObj(i -> "partition_run_" + i)
+				.collect(Collectors.joining(", ")));
+		emitter().emit("static atomic_ulong partition_epoch = 0;");
+		emitter().emit("static atomic_ulong partition_confirmed[PARTITIONS];");
+		emitter().emit("static atomic_bool partition_terminated = false;");
+		emitter().emit("");
+		emitter().emit("static void *partition_main(void *arg) {");
+		emitter().increaseIndentation();
+		emitter().emit("size_t partition = (size_t) arg;");
+		emitter().emit("while (!atomic_load(&partition_terminated)) {");
+		emitter().increaseIndentation();
+		emitter().emit("unsigned long epoch = atomic_load(&partition_epoch);");
+		emitter().emit("if (partition_run[partition]()) {");
+		emitter().emit("	atomic_fetch_add(&partition_epoch, 1);");
+		emitter().emit("} else {");
+		emitter().increaseIndentation();
+		emitter().emit("atomic_store(&partition_confirmed[partition], epoch + 1);");
+		emitter().emit("_Bool quiescent = true;");
+		emitter().emit("for (size_t p = 0; quiescent && p < PARTITIONS; p++) {");
+		emitter().emit("	quiescent = atomic_load(&partition_confirmed[p]) == epoch + 1;");
+		emitter().emit("}");
+		emitter().emit("if ((quiescent && atomic_load(&partition_epoch) == epoch) || interrupted) {");
+		emitter().emit("	atomic_store(&partition_terminated, true);");
+		emitter().emit("} else {");
+		emitter().emit("	sched_yield();");
+		emitter().emit("}");
+		emitter().decreaseIndentation();
+		emitter().emit("}");
+		emitter().decreaseIndentation();
+		emitter().emit("}");
+		emitter().emit("return NULL;");
+		emitter().decreaseIndentation();
+		emitter().emit("}");
+		emitter().emit("");
+		emitter().emit("");
+	}
 }
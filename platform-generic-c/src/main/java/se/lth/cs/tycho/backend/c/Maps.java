@@ -43,6 +43,7 @@ public interface Maps {
 				.bind("read").to(read())
 				.bind("size").to(size())
 				.bind("resize").to(resize())
+				.bind("index").to(index())
 				.bind("copy").to(copy())
 				.bind("compare").to(compare())
 				.bind("add").to(add())
@@ -62,6 +63,7 @@ public interface Maps {
 				.bind("read").to(read())
 				.bind("size").to(size())
 				.bind("resize").to(resize())
+				.bind("index").to(index())
 				.bind("copy").to(copy())
 				.bind("compare").to(compare())
 				.bind("add").to(add())
@@ -151,6 +153,17 @@ public interface Maps {
 				.instance();
 	}
 
+	@Binding(LAZY)
+	default Index index() {
+		return MultiJ.from(Index.class)
+				.bind("backend").to(backend())
+				.bind("code").to(backend().code())
+				.bind("emitter").to(backend().emitter())
+				.bind("utils").to(utils())
+				.bind("sets").to(backend().sets().index())
+				.instance();
+	}
+
 	@Binding(LAZY)
 	default Copy copy() {
 		return MultiJ.from(Copy.class)
@@ -291,6 +304,8 @@ public interface Maps {
 		@Binding(BindingKind.INJECTED)
 		Resize resize();
 		@Binding(BindingKind.INJECTED)
+		Index index();
+		@Binding(BindingKind.INJECTED)
 		Copy copy();
 		@Binding(BindingKind.INJECTED)
 		Compare compare();
@@ -313,6 +328,7 @@ public interface Maps {
 			read().prototype(type);
 			size().prototype(type);
 			resize().prototype(type);
+			index().prototype(type);
 			copy().prototype(type);
 			compare().prototype(type);
 			add().prototype(type);
@@ -339,6 +355,8 @@ public interface Maps {
 		@Binding(BindingKind.INJECTED)
 		Resize resize();
 		@Binding(BindingKind.INJECTED)
+		Index index();
+		@Binding(BindingKind.INJECTED)
 		Copy copy();
 		@Binding(BindingKind.INJECTED)
 		Compare compare();
@@ -360,6 +378,7 @@ public interface Maps {
 			read().definition(type);
 			size().definition(type);
 			resize().definition(type);
+			index().definition(type);
 			copy().definition(type);
 			compare().definition(type);
 			add().definition(type);
@@ -388,6 +407,8 @@ public interface Maps {
 			emitter().emit("size_t capacity;");
 			emitter().emit("size_t size;");
 			emitter().emit("%s* data;", utils().entry(type));
+			emitter().emit("size_t index_capacity;");
+			emitter().emit("size_t* index;");
 			emitter().decreaseIndentation();
 			emitter().emit("};");
 			emitter().emit("");
@@ -467,6 +488,8 @@ public interface Maps {
 			emitter().emit("}");
 			emitter().emit("free(self->data);");
 			emitter().emit("self->data = NULL;");
+			emitter().emit("free(self->index);");
+			emitter().emit("self->index = NULL;");
 			emitter().emit("self->capacity = 0;");
 			emitter().emit("self->size = 0;");
 			emitter().emit("free(self);");
@@ -547,7 +570,7 @@ public interface Maps {
 			emitter().emit("char* ptr = buffer;");
 			emitter().emit("result->size = *(size_t*) ptr;");
 			emitter().emit("ptr = (char*)((size_t*) ptr + 1);");
-			emitter().emit("result->capacity = result->size + (result->size %% %s);", CAPACITY);
+			emitter().emit("result->capacity = result->size;");
 			emitter().emit("result->data = result->size == 0 ? NULL : calloc(result->capacity, sizeof(%s));", utils().entry(type));
 			emitter().emit("for (size_t i = 0; i < result->size; i++) {");
 			emitter().increaseIndentation();
@@ -555,6 +578,7 @@ public interface Maps {
 			serialization().read(type.getValueType(), "result->data[i].value", "ptr");
 			emitter().decreaseIndentation();
 			emitter().emit("}");
+			emitter().emit("index_%s(result);", utils().name(type));
 			emitter().emit("return result;");
 			emitter().decreaseIndentation();
 			emitter().emit("}");
@@ -618,6 +642,7 @@ public interface Maps {
 
 		default void prototype(MapType type) {
 			emitter().emit("void resize_%1$s(%1$s self);", utils().name(type));
+			emitter().emit("void reserve_%1$s(%1$s self, size_t capacity);", utils().name(type));
 			emitter().emit("");
 		}
 
@@ -626,9 +651,54 @@ public interface Maps {
 			emitter().increaseIndentation();
 			emitter().emit("if (self == NULL) return;");
 			emitter().emit("if (self->size < self->capacity) return;");
-			emitter().emit("self->data = realloc(self->data, sizeof(%1$s) * (self->capacity + %2$s));", utils().entry(type), CAPACITY);
-			emitter().emit("memset(self->data + self->capacity, 0, sizeof(%1$s) * %2$s);", utils().entry(type), CAPACITY);
-			emitter().emit("self->capacity += %s;", CAPACITY);
+			emitter().emit("reserve_%1$s(self, self->capacity < %2$s ? %2$s : 2 * self->capacity);", utils().name(type), CAPACITY);
+			emitter().decreaseIndentation();
+			emitter().emit("}");
+			emitter().emit("");
+
+			emitter().emit("void reserve_%1$s(%1$s self, size_t capacity) {", utils().name(type));
+			emitter().increaseIndentation();
+			emitter().emit("if (self == NULL || capacity <= self->capacity) return;");
+			emitter().emit("self->data = realloc(self->data, sizeof(%1$s) * capacity);", utils().entry(type));
+			emitter().emit("memset(self->data + self->capacity, 0, sizeof(%1$s) * (capacity - self->capacity));", utils().entry(type));
+			emitter().emit("self->capacity = capacity;");
+			emitter().decreaseIndentation();
+			emitter().emit("}");
+			emitter().emit("");
+		}
+	}
+
+	@Module
+	interface Index {
+
+		@Binding(BindingKind.INJECTED)
+		Backend backend();
+		@Binding(BindingKind.INJECTED)
+		Code code();
+		@Binding(BindingKind.INJECTED)
+		Emitter emitter();
+		@Binding(BindingKind.INJECTED)
+		Utils utils();
+		@Binding(BindingKind.INJECTED)
+		Sets.Index sets();
+
+		default void prototype(MapType type) {
+			emitter().emit("size_t find_%1$s(const %1$s self, %2$s elem);", utils().name(type), code().type(type.getKeyType()));
+			emitter().emit("void index_%1$s(%1$s self);", utils().name(type));
+			emitter().emit("");
+		}
+
+		default void definition(MapType type) {
+			emitter().emit("size_t find_%1$s(const %1$s self, %2$s elem) {", utils().name(type), code().type(type.getKeyType()));
+			emitter().increaseIndentation();
+			sets().emitFind(type.getKeyType(), "self->data[%s].key");
+			emitter().decreaseIndentation();
+			emitter().emit("}");
+			emitter().emit("");
+
+			emitter().emit("void index_%1$s(%1$s self) {", utils().name(type));
+			emitter().increaseIndentation();
+			sets().emitIndex(type.getKeyType(), "self->data[%s].key");
 			emitter().decreaseIndentation();
 			emitter().emit("}");
 			emitter().emit("");
@@ -661,6 +731,7 @@ public interface Maps {
 			emitter().emit("if (*lhs == rhs) return;");
 			emitter().emit("if (*lhs) { free_%s(*lhs); *lhs = NULL; }", utils().name(type));
 			emitter().emit("if (!(*lhs)) *lhs = calloc(1, sizeof(%s));", utils().internalName(type));
+			emitter().emit("reserve_%s(*lhs, rhs->size);", utils().name(type));
 			emitter().emit("for (size_t i = 0; i < rhs->size; i++) {");
 			emitter().increaseIndentation();
 			emitter().emit("add_%s(*lhs, rhs->data[i].key, rhs->data[i].value);", utils().name(type));
@@ -738,6 +809,7 @@ public interface Maps {
 
 		default void prototype(MapType type) {
 			emitter().emit("void add_%1$s(%1$s self, %2$s key, %3$s value);", utils().name(type), code().type(type.getKeyType()), code().type(type.getValueType()));
+			emitter().emit("size_t slot_%1$s(%1$s self, %2$s key);", utils().name(type), code().type(type.getKeyType()));
 			emitter().emit("");
 		}
 
@@ -745,14 +817,9 @@ public interface Maps {
 			emitter().emit("void add_%1$s(%1$s self, %2$s key, %3$s value) {", utils().name(type), code().type(type.getKeyType()), code().type(type.getValueType()));
 			emitter().increaseIndentation();
 			emitter().emit("if (self == NULL) return;");
-			emitter().emit("if (membership_%s(self, key)) {", utils().name(type));
-			emitter().increaseIndentation();
-			emitter().emit("size_t index;");
-			emitter().emit("for (index = 0; index < self->size; index++) {");
+			emitter().emit("size_t index = find_%s(self, key);", utils().name(type));
+			emitter().emit("if (index < self->size) {");
 			emitter().increaseIndentation();
-			emitter().emit("if (%s) break;", code().compare(type.getKeyType(), "self->data[index].key", type.getKeyType(), "key"));
-			emitter().decreaseIndentation();
-			emitter().emit("}");
 			code().copy(type.getValueType(), "self->data[index].value", type.getValueType(), "value");
 			emitter().decreaseIndentation();
 			emitter().emit("} else {");
@@ -761,8 +828,22 @@ public interface Maps {
 			code().copy(type.getKeyType(), "self->data[self->size].key", type.getKeyType(), "key");
 			code().copy(type.getValueType(), "self->data[self->size].value", type.getValueType(), "value");
 			emitter().emit("self->size++;");
+			emitter().emit("index_%s(self);", utils().name(type));
+			emitter().decreaseIndentation();
+			emitter().emit("}");
 			emitter().decreaseIndentation();
 			emitter().emit("}");
+			emitter().emit("");
+
+			emitter().emit("size_t slot_%1$s(%1$s self, %2$s key) {", utils().name(type), code().type(type.getKeyType()));
+			emitter().increaseIndentation();
+			emitter().emit("size_t index = find_%s(self, key);", utils().name(type));
+			emitter().emit("if (index < self->size) return index;");
+			emitter().emit("resize_%s(self);", utils().name(type));
+			code().copy(type.getKeyType(), "self->data[self->size].key", type.getKeyType(), "key");
+			emitter().emit("self->size++;");
+			emitter().emit("index_%s(self);", utils().name(type));
+			emitter().emit("return self->size - 1;");
 			emitter().decreaseIndentation();
 			emitter().emit("}");
 			emitter().emit("");
@@ -815,13 +896,7 @@ public interface Maps {
 			emitter().emit("%1$s membership_%2$s(const %2$s self, %3$s elem) {", code().type(BoolType.INSTANCE), utils().name(type), code().type(type.getKeyType()));
 			emitter().increaseIndentation();
 			emitter().emit("if (self == NULL) return false;");
-			emitter().emit("%s found = false;", code().type(BoolType.INSTANCE));
-			emitter().emit("for (size_t i = 0; (i < self->size) && !(found); i++) {");
-			emitter().increaseIndentation();
-			emitter().emit("found |= %s;", code().compare(type.getKeyType(), "self->data[i].key", type.getKeyType(), "elem"));
-			emitter().decreaseIndentation();
-			emitter().emit("}");
-			emitter().emit("return found;");
+			emitter().emit("return find_%s(self, elem) < self->size;", utils().name(type));
 			emitter().decreaseIndentation();
 			emitter().emit("}");
 			emitter().emit("");
@@ -0,0 +1,223 @@
+package se.lth.cs.tycho.backend.c;
+
+import org.multij.Binding;
+import org.multij.BindingKind;
+import org.multij.Module;
+import se.lth.cs.tycho.ir.entity.Entity;
+import se.lth.cs.tycho.ir.entity.am.ActorMachine;
+import se.lth.cs.tycho.ir.network.Connection;
+import se.lth.cs.tycho.ir.network.Instance;
+import se.lth.cs.tycho.ir.network.Network;
+import se.lth.cs.tycho.reporting.CompilationException;
+import se.lth.cs.tycho.reporting.Diagnostic;
+import se.lth.cs.tycho.settings.Configuration;
+import se.lth.cs.tycho.settings.IntegerSetting;
+import se.lth.cs.tycho.settings.OptionalSetting;
+import se.lth.cs.tycho.settings.PathSetting;
+import se.lth.cs.tycho.settings.Setting;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Assigns the actor instances of the network to the threads of the generated program. Partition 0 runs on the
+ * main thread, together with the actors that read and write the network ports.
+ */
+@Module
+public interface Partitioning {
+	@Binding(BindingKind.INJECTED)
+	Backend backend();
+
+	IntegerSetting runtimeThreads = new IntegerSetting() {
+		@Override
+		public String getKey() {
+			return "runtime-threads";
+		}
+
+		@Override
+		public String getDescription() {
+			return "Number of threads that the generated program runs the actors on.";
+		}
+
+		@Override
+		public Integer defaultValue(Configuration configuration) {
+			return 1;
+		}
+	};
+
+	Setting<Optional<Path>> partitionFile = new OptionalSetting<>(new PathSetting() {
+		@Override
+		public String getKey() {
+			return "partition-file";
+		}
+
+		@Override
+		public String getDescription() {
+			return "File that maps each instance to a thread, with one line \"<instance> <thread>\" per instance. " +
+					"Without a file, the instances are partitioned automatically.";
+		}
+
+		@Override
+		public Optional<Path> read(String value) {
+			return value.equals("auto") ? Optional.empty() : super.read(value);
+		}
+
+		@Override
+		public Path defaultValue(Configuration configuration) {
+			throw new UnsupportedOperationException();
+		}
+	}, "auto");
+
+	default boolean isMultiThreaded() {
+		return partitions().size() > 1;
+	}
+
+	@Binding(BindingKind.LAZY)
+	default List<List<Instance>> partitions() {
+		Configuration configuration = backend().context().getConfiguration();
+		List<Instance> instances = backend().task().getNetwork().getInstances();
+		int threads = Math.max(1, Math.min(configuration.get(runtimeThreads), instances.size()));
+		if (threads == 1) {
+			return Collections.singletonList(instances);
+		}
+		Optional<Path> file = configuration.get(partitionFile);
+		if (file.isPresent()) {
+			return readPartitions(file.get(), configuration.get(runtimeThreads));
+		} else {
+			return computePartitions(threads);
+		}
+	}
+
+	default int partitionOf(String instanceName) {
+		return partitionIndex().get(instanceName);
+	}
+
+	@Binding(BindingKind.LAZY)
+	default Map<String, Integer> partitionIndex() {
+		Map<String, Integer> index = new HashMap<>();
+		List<List<Instance>> partitions = partitions();
+		for (int i = 0; i < partitions.size(); i++) {
+			for (Instance instance : partitions.get(i)) {
+				index.put(instance.getInstanceName(), i);
+			}
+		}
+		return index;
+	}
+
+	default List<List<Instance>> readPartitions(Path file, int threads) {
+		Map<String, Instance> instances = new LinkedHashMap<>();
+		backend().task().getNetwork().getInstances().forEach(instance -> instances.put(instance.getInstanceName(), instance));
+		List<List<Instance>> partitions = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			partitions.add(new ArrayList<>());
+		}
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(file);
+		} catch (IOException e) {
+			throw CompilationException.from(e);
+		}
+		for (String line : lines) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] parts = line.split("\\s+");
+			Instance instance = instances.remove(parts[0]);
+			int partition = parts.length == 2 ? parsePartition(parts[1]) : -1;
+			if (instance == null || partition < 0 || partition >= threads) {
+				throw new CompilationException(new Diagnostic(Diagnostic.Kind.ERROR, "Invalid line in partition file " + file + ": " + line));
+			}
+			partitions.get(partition).add(instance);
+		}
+		if (!instances.isEmpty()) {
+			throw new CompilationException(new Diagnostic(Diagnostic.Kind.ERROR, "The partition file " + file + " does not assign instances " + String.join(", ", instances.keySet()) + "."));
+		}
+		return partitions;
+	}
+
+	default int parsePartition(String text) {
+		try {
+			return Integer.parseInt(text);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Splits the instances, in the order that tokens flow from the network inputs, into contiguous partitions of
+	 * about the same weight, so that connected instances tend to end up on the same thread.
+	 */
+	default List<List<Instance>> computePartitions(int threads) {
+		List<Instance> order = flowOrder();
+		long total = order.stream().mapToLong(this::weight).sum();
+		List<List<Instance>> partitions = new ArrayList<>();
+		List<Instance> current = new ArrayList<>();
+		long accumulated = 0;
+		int remaining = order.size();
+		for (Instance instance : order) {
+			current.add(instance);
+			accumulated += weight(instance);
+			remaining -= 1;
+			int partition = partitions.size();
+			boolean last = partition == threads - 1;
+			if (!last && (accumulated * threads >= total * (partition + 1) || remaining == threads - partition - 1)) {
+				partitions.add(current);
+				current = new ArrayList<>();
+			}
+		}
+		if (!current.isEmpty()) {
+			partitions.add(current);
+		}
+		return partitions;
+	}
+
+	default List<Instance> flowOrder() {
+		Network network = backend().task().getNetwork();
+		Map<String, Instance> instances = new LinkedHashMap<>();
+		network.getInstances().forEach(instance -> instances.put(instance.getInstanceName(), instance));
+		Map<Optional<String>, List<String>> successors = new HashMap<>();
+		for (Connection connection : network.getConnections()) {
+			connection.getTarget().getInstance().ifPresent(target ->
+					successors.computeIfAbsent(connection.getSource().getInstance(), x -> new ArrayList<>()).add(target));
+		}
+		Set<String> visited = new LinkedHashSet<>();
+		Deque<String> queue = new ArrayDeque<>(successors.getOrDefault(Optional.<String>empty(), Collections.emptyList()));
+		for (String start : instances.keySet()) {
+			queue.add(start);
+			while (!queue.isEmpty()) {
+				String name = queue.remove();
+				if (visited.add(name)) {
+					queue.addAll(successors.getOrDefault(Optional.of(name), Collections.emptyList()));
+				}
+			}
+		}
+		List<Instance> order = new ArrayList<>();
+		visited.forEach(name -> order.add(instances.get(name)));
+		return order;
+	}
+
+	/**
+	 * An estimate of the work of an instance relative to the other instances.
+	 */
+	default long weight(Instance instance) {
+		Entity entity = backend().main().entityDecls().get(instance.getEntityName()).getEntity();
+		if (entity instanceof ActorMachine) {
+			return 1 + ((ActorMachine) entity).getTransitions().size();
+		} else {
+			return 1;
+		}
+	}
+}
@@ -7,6 +7,8 @@ import org.multij.MultiJ;
 import se.lth.cs.tycho.ir.IRNode;
 import se.lth.cs.tycho.ir.decl.VarDecl;
 import se.lth.cs.tycho.ir.expr.Expression;
+import se.lth.cs.tycho.settings.Configuration;
+import se.lth.cs.tycho.settings.IntegerSetting;
 import se.lth.cs.tycho.type.BoolType;
 import se.lth.cs.tycho.type.MapType;
 import se.lth.cs.tycho.type.SetType;
@@ -24,6 +26,23 @@ public interface Sets {
 
 	int CAPACITY = 10;
 
+	IntegerSetting hashThreshold = new IntegerSetting() {
+		@Override
+		public String getKey() {
+			return "hash-collection-threshold";
+		}
+
+		@Override
+		public String getDescription() {
+			return "Number of elements above which a set or map is indexed by a hash table, or -1 to never index them.";
+		}
+
+		@Override
+		public Integer defaultValue(Configuration configuration) {
+			return 8;
+		}
+	};
+
 	@Binding(LAZY)
 	default Forward forward() {
 		return MultiJ.from(Forward.class)
@@ -43,6 +62,7 @@ public interface Sets {
 				.bind("read").to(read())
 				.bind("size").to(size())
 				.bind("resize").to(resize())
+				.bind("index").to(index())
 				.bind("copy").to(copy())
 				.bind("compare").to(compare())
 				.bind("add").to(add())
@@ -66,6 +86,7 @@ public interface Sets {
 				.bind("read").to(read())
 				.bind("size").to(size())
 				.bind("resize").to(resize())
+				.bind("index").to(index())
 				.bind("copy").to(copy())
 				.bind("compare").to(compare())
 				.bind("add").to(add())
@@ -159,6 +180,16 @@ public interface Sets {
 				.instance();
 	}
 
+	@Binding(LAZY)
+	default Index index() {
+		return MultiJ.from(Index.class)
+				.bind("backend").to(backend())
+				.bind("code").to(backend().code())
+				.bind("emitter").to(backend().emitter())
+				.bind("utils").to(utils())
+				.instance();
+	}
+
 	@Binding(LAZY)
 	default Copy copy() {
 		return MultiJ.from(Copy.class)
@@ -342,6 +373,8 @@ public interface Sets {
 		@Binding(BindingKind.INJECTED)
 		Resize resize();
 		@Binding(BindingKind.INJECTED)
+		Index index();
+		@Binding(BindingKind.INJECTED)
 		Copy copy();
 		@Binding(BindingKind.INJECTED)
 		Compare compare();
@@ -372,6 +405,7 @@ public interface Sets {
 			read().prototype(type);
 			size().prototype(type);
 			resize().prototype(type);
+			index().prototype(type);
 			copy().prototype(type);
 			compare().prototype(type);
 			add().prototype(type);
@@ -402,6 +436,8 @@ public interface Sets {
 		@Binding(BindingKind.INJECTED)
 		Resize resize();
 		@Binding(BindingKind.INJECTED)
+		Index index();
+		@Binding(BindingKind.INJECTED)
 		Copy copy();
 		@Binding(BindingKind.INJECTED)
 		Compare compare();
@@ -431,6 +467,7 @@ public interface Sets {
 			read().definition(type);
 			size().definition(type);
 			resize().definition(type);
+			index().definition(type);
 			copy().definition(type);
 			compare().definition(type);
 			add().definition(type);
@@ -463,6 +500,8 @@ public interface Sets {
 			emitter().emit("size_t capacity;");
 			emitter().emit("size_t size;");
 			emitter().emit("%s* data;", code().type(type.getElementType()));
+			emitter().emit("size_t index_capacity;");
+			emitter().emit("size_t* index;");
 			emitter().decreaseIndentation();
 			emitter().emit("};");
 			emitter().emit("");
@@ -534,6 +573,8 @@ public interface Sets {
 			emitter().emit("}");
 			emitter().emit("free(self->data);");
 			emitter().emit("self->data = NULL;");
+			emitter().emit("free(self->index);");
+			emitter().emit("self->index = NULL;");
 			emitter().emit("self->capacity = 0;");
 			emitter().emit("self->size = 0;");
 			emitter().emit("free(self);");
@@ -612,13 +653,14 @@ public interface Sets {
 			emitter().emit("char* ptr = buffer;");
 			emitter().emit("result->size = *(size_t*) ptr;");
 			emitter().emit("ptr = (char*)((size_t*) ptr + 1);");
-			emitter().emit("result->capacity = result->size + (result->size %% %s);", CAPACITY);
+			emitter().emit("result->capacity = result->size;");
 			emitter().emit("result->data = result->size == 0 ? NULL : calloc(result->capacity, sizeof(%s));", code().type(type.getElementType()));
 			emitter().emit("for (size_t i = 0; i < result->size; i++) {");
 			emitter().increaseIndentation();
 			serialization().read(type.getElementType(), "result->data[i]", "ptr");
 			emitter().decreaseIndentation();
 			emitter().emit("}");
+			emitter().emit("index_%s(result);", utils().name(type));
 			emitter().emit("return result;");
 			emitter().decreaseIndentation();
 			emitter().emit("}");
@@ -681,6 +723,7 @@ public interface Sets {
 
 		default void prototype(SetType type) {
 			emitter().emit("void resize_%1$s(%1$s self);", utils().name(type));
+			emitter().emit("void reserve_%1$s(%1$s self, size_t capacity);", utils().name(type));
 			emitter().emit("");
 		}
 
@@ -689,12 +732,119 @@ public interface Sets {
 			emitter().increaseIndentation();
 			emitter().emit("if (self == NULL) return;");
 			emitter().emit("if (self->size < self->capacity) return;");
-			emitter().emit("self->data = realloc(self->data, sizeof(%1$s) * (self->capacity + %2$s));", code().type(type.getElementType()), CAPACITY);
-			emitter().emit("memset(self->data + self->capacity, 0, sizeof(%1$s) * %2$s);", code().type(type.getElementType()), CAPACITY);
-			emitter().emit("self->capacity += %s;", CAPACITY);
+			emitter().emit("reserve_%1$s(self, self->capacity < %2$s ? %2$s : 2 * self->capacity);", utils().name(type), CAPACITY);
+			emitter().decreaseIndentation();
+			emitter().emit("}");
+			emitter().emit("");
+
+			emitter().emit("void reserve_%1$s(%1$s self, size_t capacity) {", utils().name(type));
+			emitter().increaseIndentation();
+			emitter().emit("if (self == NULL || capacity <= self->capacity) return;");
+			emitter().emit("self->data = realloc(self->data, sizeof(%1$s) * capacity);", code().type(type.getElementType()));
+			emitter().emit("memset(self->data + self->capacity, 0, sizeof(%1$s) * (capacity - self->capacity));", code().type(type.getElementType()));
+			emitter().emit("self->capacity = capacity;");
+			emitter().decreaseIndentation();
+			emitter().emit("}");
+			emitter().emit("");
+		}
+	}
+
+	/**
+	 * Finds elements by a linear search until the set has more elements than the hash threshold, and from then on by
+	 * an open addressing hash table that maps the hash of an element to its position in the data array. The table is
+	 * at most half full and is rebuilt with twice the capacity when it is not.
+	 */
+	@Module
+	interface Index {
+
+		@Binding(BindingKind.INJECTED)
+		Backend backend();
+		@Binding(BindingKind.INJECTED)
+		Code code();
+		@Binding(BindingKind.INJECTED)
+		Emitter emitter();
+		@Binding(BindingKind.INJECTED)
+		Utils utils();
+
+		default void prototype(SetType type) {
+			emitter().emit("size_t find_%1$s(const %1$s self, %2$s elem);", utils().name(type), code().type(type.getElementType()));
+			emitter().emit("void index_%1$s(%1$s self);", utils().name(type));
+			emitter().emit("");
+		}
+
+		default void definition(SetType type) {
+			emitter().emit("size_t find_%1$s(const %1$s self, %2$s elem) {", utils().name(type), code().type(type.getElementType()));
+			emitter().increaseIndentation();
+			emitFind(type.getElementType(), "self->data[%s]");
 			emitter().decreaseIndentation();
 			emitter().emit("}");
 			emitter().emit("");
+
+			emitter().emit("void index_%1$s(%1$s self) {", utils().name(type));
+			emitter().increaseIndentation();
+			emitIndex(type.getElementType(), "self->data[%s]");
+			emitter().decreaseIndentation();
+			emitter().emit("}");
+			emitter().emit("");
+		}
+
+		/**
+		 * Emits the body of a function that returns the position of the element "elem", or self->size if it is absent,
+		 * where the element at a position is given by the format string.
+		 */
+		default void emitFind(Type type, String element) {
+			emitter().emit("if (self->index == NULL) {");
+			emitter().increaseIndentation();
+			emitter().emit("for (size_t i = 0; i < self->size; i++) {");
+			emitter().increaseIndentation();
+			emitter().emit("if (%s) return i;", code().compare(type, String.format(element, "i"), type, "elem"));
+			emitter().decreaseIndentation();
+			emitter().emit("}");
+			emitter().emit("return self->size;");
+			emitter().decreaseIndentation();
+			emitter().emit("}");
+			emitter().emit("size_t mask = self->index_capacity - 1;");
+			emitter().emit("size_t slot = (%s) & mask;", code().hash(type, "elem"));
+			emitter().emit("while (self->index[slot] != 0) {");
+			emitter().increaseIndentation();
+			emitter().emit("size_t i = self->index[slot] - 1;");
+			emitter().emit("if (%s) return i;", code().compare(type, String.format(element, "i"), type, "elem"));
+			emitter().emit("slot = (slot + 1) & mask;");
+			emitter().decreaseIndentation();
+			emitter().emit("}");
+			emitter().emit("return self->size;");
+		}
+
+		/**
+		 * Emits the body of a function that adds the elements after the last indexed one to the table, where the table
+		 * stores the position plus one so that zero marks an empty slot.
+		 */
+		default void emitIndex(Type type, String element) {
+			int threshold = backend().context().getConfiguration().get(hashThreshold);
+			if (threshold < 0) {
+				emitter().emit("return;");
+				return;
+			}
+			emitter().emit("if (self->index == NULL && self->size <= %d) return;", threshold);
+			emitter().emit("size_t first = self->size == 0 ? 0 : self->size - 1;");
+			emitter().emit("if (self->index == NULL || 2 * self->size > self->index_capacity) {");
+			emitter().increaseIndentation();
+			emitter().emit("size_t capacity = 16;");
+			emitter().emit("while (capacity < 2 * self->size) capacity *= 2;");
+			emitter().emit("free(self->index);");
+			emitter().emit("self->index = calloc(capacity, sizeof(size_t));");
+			emitter().emit("self->index_capacity = capacity;");
+			emitter().emit("first = 0;");
+			emitter().decreaseIndentation();
+			emitter().emit("}");
+			emitter().emit("size_t mask = self->index_capacity - 1;");
+			emitter().emit("for (size_t i = first; i < self->size; i++) {");
+			emitter().increaseIndentation();
+			emitter().emit("size_t slot = (%s) & mask;", code().hash(type, String.format(element, "i")));
+			emitter().emit("while (self->index[slot] != 0) slot = (slot + 1) & mask;");
+			emitter().emit("self->index[slot] = i + 1;");
+			emitter().decreaseIndentation();
+			emitter().emit("}");
 		}
 	}
 
@@ -724,6 +874,7 @@ public interface Sets {
 			emitter().emit("if (*lhs == rhs) return;");
 			emitter().emit("if (*lhs) { free_%s(*lhs); *lhs = NULL; }", utils().name(type));
 			emitter().emit("if (!(*lhs)) *lhs = calloc(1, sizeof(%s));", utils().internalName(type));
+			emitter().emit("reserve_%s(*lhs, rhs->size);", utils().name(type));
 			emitter().emit("for (size_t i = 0; i < rhs->size; i++) {");
 			emitter().increaseIndentation();
 			emitter().emit("add_%s(*lhs, rhs->data[i]);", utils().name(type));
@@ -802,6 +953,7 @@ public interface Sets {
 			emitter().emit("if (membership_%s(self, elem)) return;", utils().name(type));
 			emitter().emit("resize_%s(self);", utils().name(type));
 			code().copy(type.getElementType(), "self->data[self->size++]", type.getElementType(), "elem");
+			emitter().emit("index_%s(self);", utils().name(type));
 			emitter().decreaseIndentation();
 			emitter().emit("}");
 			emitter().emit("");
@@ -835,13 +987,7 @@ public interface Sets {
 			emitter().emit("if (result == NULL) return NULL;");
 			emitter().emit("for (size_t i = 0; i < lhs->size; i++) {");
 			emitter().increaseIndentation();
-			emitter().emit("%s found = false;", code().type(BoolType.INSTANCE));
-			emitter().emit("for (size_t j = 0; (j < rhs->size) && !(found); j++) {");
-			emitter().increaseIndentation();
-			emitter().emit("found |= %s;", code().compare(type.getElementType(), "lhs->data[i]", type.getElementType(), "rhs->data[j]"));
-			emitter().decreaseIndentation();
-			emitter().emit("}");
-			emitter().emit("if (found) {");
+			emitter().emit("if (membership_%s(rhs, lhs->data[i])) {", utils().name(type));
 			emitter().increaseIndentation();
 			emitter().emit("add_%s(result, lhs->data[i]);", utils().name(type));
 			emitter().decreaseIndentation();
@@ -880,6 +1026,7 @@ public interface Sets {
 			emitter().emit("if (lhs == NULL || rhs == NULL) return NULL;");
 			emitter().emit("%1$s result = init_%1$s();", utils().name(type));
 			emitter().emit("if (result == NULL) return NULL;");
+			emitter().emit("reserve_%s(result, lhs->size + rhs->size);", utils().name(type));
 			emitter().emit("for (size_t i = 0; i < lhs->size; i++) {");
 			emitter().increaseIndentation();
 			emitter().emit("add_%s(result, lhs->data[i]);", utils().name(type));
@@ -924,13 +1071,7 @@ public interface Sets {
 			emitter().emit("if (result == NULL) return NULL;");
 			emitter().emit("for (size_t i = 0; i < lhs->size; i++) {");
 			emitter().increaseIndentation();
-			emitter().emit("%s found = false;", code().type(BoolType.INSTANCE));
-			emitter().emit("for (size_t j = 0; (j < rhs->size) && !(found); j++) {");
-			emitter().increaseIndentation();
-			emitter().emit("found |= %s;", code().compare(type.getElementType(), "lhs->data[i]", type.getElementType(), "rhs->data[j]"));
-			emitter().decreaseIndentation();
-			emitter().emit("}");
-			emitter().emit("if (!(found)) {");
+			emitter().emit("if (!membership_%s(rhs, lhs->data[i])) {", utils().name(type));
 			emitter().increaseIndentation();
 			emitter().emit("add_%s(result, lhs->data[i]);", utils().name(type));
 			emitter().decreaseIndentation();
@@ -967,13 +1108,7 @@ public interface Sets {
 			emitter().emit("%1$s membership_%2$s(const %2$s self, %3$s elem) {", code().type(BoolType.INSTANCE), utils().name(type), code().type(type.getElementType()));
 			emitter().increaseIndentation();
 			emitter().emit("if (self == NULL) return false;");
-			emitter().emit("%s found = false;", code().type(BoolType.INSTANCE));
-			emitter().emit("for (size_t i = 0; (i < self->size) && !(found); i++) {");
-			emitter().increaseIndentation();
-			emitter().emit("found |= %s;", code().compare(type.getElementType(), "self->data[i]", type.getElementType(), "elem"));
-			emitter().decreaseIndentation();
-			emitter().emit("}");
-			emitter().emit("return found;");
+			emitter().emit("return find_%s(self, elem) < self->size;", utils().name(type));
 			emitter().decreaseIndentation();
 			emitter().emit("}");
 			emitter().emit("");
@@ -1007,17 +1142,7 @@ public interface Sets {
 			emitter().emit("size_t count = 0;");
 			emitter().emit("for (size_t i = 0; (i < lhs->size); i++) {");
 			emitter().increaseIndentation();
-			emitter().emit("%s found = false;", code().type(BoolType.INSTANCE));
-			emitter().emit("for (size_t j = 0; (j < rhs->size) && !(found); j++) {");
-			emitter().increaseIndentation();
-			emitter().emit("if (%s) {", code().compare(type.getElementType(), "lhs->data[i]", type.getElementType(), "rhs->data[j]"));
-			emitter().increaseIndentation();
-			emitter().emit("count++;");
-			emitter().emit("found = true;");
-			emitter().decreaseIndentation();
-			emitter().emit("}");
-			emitter().decreaseIndentation();
-			emitter().emit("}");
+			emitter().emit("if (membership_%s(rhs, lhs->data[i])) count++;", utils().name(type));
 			emitter().decreaseIndentation();
 			emitter().emit("}");
 			emitter().emit("return (count == lhs->size) && (count < rhs->size);");
@@ -8,6 +8,7 @@ import se.lth.cs.tycho.ir.IRNode;
 import se.lth.cs.tycho.ir.decl.VarDecl;
 import se.lth.cs.tycho.ir.expr.Expression;
 import se.lth.cs.tycho.type.BoolType;
+import se.lth.cs.tycho.type.CallableType;
 import se.lth.cs.tycho.type.CharType;
 import se.lth.cs.tycho.type.IntType;
 import se.lth.cs.tycho.type.RealType;
@@ -36,7 +37,9 @@ public interface Strings {
 				.bind("size").to(size())
 				.bind("copy").to(copy())
 				.bind("compare").to(compare())
+				.bind("hash").to(hash())
 				.bind("concat").to(concat())
+				.bind("append").to(append())
 				.bind("membership").to(membership())
 				.bind("lessThan").to(lessThan())
 				.bind("lessThanEqual").to(lessThanEqual())
@@ -55,7 +58,9 @@ public interface Strings {
 				.bind("size").to(size())
 				.bind("copy").to(copy())
 				.bind("compare").to(compare())
+				.bind("hash").to(hash())
 				.bind("concat").to(concat())
+				.bind("append").to(append())
 				.bind("membership").to(membership())
 				.bind("lessThan").to(lessThan())
 				.bind("lessThanEqual").to(lessThanEqual())
@@ -151,6 +156,15 @@ public interface Strings {
 				.instance();
 	}
 
+	@Binding(LAZY)
+	default Hash hash() {
+		return MultiJ.from(Hash.class)
+				.bind("code").to(backend().code())
+				.bind("emitter").to(backend().emitter())
+				.bind("utils").to(utils())
+				.instance();
+	}
+
 	@Binding(LAZY)
 	default Concat concat() {
 		return MultiJ.from(Concat.class)
@@ -162,6 +176,15 @@ public interface Strings {
 				.instance();
 	}
 
+	@Binding(LAZY)
+	default Append append() {
+		return MultiJ.from(Append.class)
+				.bind("code").to(backend().code())
+				.bind("emitter").to(backend().emitter())
+				.bind("utils").to(utils())
+				.instance();
+	}
+
 	@Binding(LAZY)
 	default Membership membership() {
 		return MultiJ.from(Membership.class)
@@ -258,8 +281,12 @@ public interface Strings {
 		@Binding(BindingKind.INJECTED)
 		Compare compare();
 		@Binding(BindingKind.INJECTED)
+		Hash hash();
+		@Binding(BindingKind.INJECTED)
 		Concat concat();
 		@Binding(BindingKind.INJECTED)
+		Append append();
+		@Binding(BindingKind.INJECTED)
 		Membership membership();
 		@Binding(BindingKind.INJECTED)
 		LessThan lessThan();
@@ -279,7 +306,9 @@ public interface Strings {
 			size().prototype(type);
 			copy().prototype(type);
 			compare().prototype(type);
+			hash().prototype(type);
 			concat().prototype(type);
+			append().prototype(type);
 			membership().prototype(type);
 			lessThan().prototype(type);
 			lessThanEqual().prototype(type);
@@ -306,8 +335,12 @@ public interface Strings {
 		@Binding(BindingKind.INJECTED)
 		Compare compare();
 		@Binding(BindingKind.INJECTED)
+		Hash hash();
+		@Binding(BindingKind.INJECTED)
 		Concat concat();
 		@Binding(BindingKind.INJECTED)
+		Append append();
+		@Binding(BindingKind.INJECTED)
 		Membership membership();
 		@Binding(BindingKind.INJECTED)
 		LessThan lessThan();
@@ -326,7 +359,9 @@ public interface Strings {
 			size().definition(type);
 			copy().definition(type);
 			compare().definition(type);
+			hash().definition(type);
 			concat().definition(type);
+			append().definition(type);
 			membership().definition(type);
 			lessThan().definition(type);
 			lessThanEqual().definition(type);
@@ -335,6 +370,11 @@ public interface Strings {
 		}
 	}
 
+	/**
+	 * A string points to NUL-terminated characters that are preceded, in the same allocation, by a header with the
+	 * length and the capacity of the string. The length is then known without scanning the characters, and strings
+	 * can still be passed to external C functions as they are.
+	 */
 	@Module
 	interface TypeDef {
 
@@ -350,6 +390,18 @@ public interface Strings {
 		default void apply(StringType type) {
 			emitter().emit("typedef char* %s;", utils().name(type));
 			emitter().emit("");
+			emitter().emit("typedef struct {");
+			emitter().increaseIndentation();
+			emitter().emit("size_t length;");
+			emitter().emit("size_t capacity;");
+			emitter().emit("} header_%s;", utils().name(type));
+			emitter().emit("");
+			emitter().emit("static inline size_t length_%1$s(const %1$s self) {", utils().name(type));
+			emitter().increaseIndentation();
+			emitter().emit("return self == NULL ? 0 : ((const header_%s*) self)[-1].length;", utils().name(type));
+			emitter().decreaseIndentation();
+			emitter().emit("}");
+			emitter().emit("");
 		}
 	}
 
@@ -368,17 +420,32 @@ public interface Strings {
 		Utils utils();
 
 		default void prototype(StringType type) {
+			emitter().emit("%1$s alloc_%1$s(size_t length);", utils().name(type));
+			emitter().emit("");
+
 			emitter().emit("%1$s init_%1$s(const char* str);", utils().name(type));
 			emitter().emit("");
 		}
 
 		default void definition(StringType type) {
+			emitter().emit("%1$s alloc_%1$s(size_t length) {", utils().name(type));
+			emitter().increaseIndentation();
+			emitter().emit("header_%1$s* header = calloc(1, sizeof(header_%1$s) + length + 1);", utils().name(type));
+			emitter().emit("if (header == NULL) return NULL;");
+			emitter().emit("header->length = length;");
+			emitter().emit("header->capacity = length;");
+			emitter().emit("return (%s) (header + 1);", utils().name(type));
+			emitter().decreaseIndentation();
+			emitter().emit("}");
+			emitter().emit("");
+
 			emitter().emit("%1$s init_%1$s(const char* str) {", utils().name(type));
 			emitter().increaseIndentation();
 			emitter().emit("if (str == NULL) return NULL;");
-			emitter().emit("%1$s self = calloc(1, strlen(str) + 1);", utils().name(type));
+			emitter().emit("size_t length = strlen(str);");
+			emitter().emit("%1$s self = alloc_%1$s(length);", utils().name(type));
 			emitter().emit("if (self == NULL) return NULL;");
-			emitter().emit("strcpy(self, str);");
+			emitter().emit("memcpy(self, str, length);");
 			emitter().emit("return self;");
 			emitter().decreaseIndentation();
 			emitter().emit("}");
@@ -408,7 +475,8 @@ public interface Strings {
 		default void definition(StringType type) {
 			emitter().emit("void free_%1$s(%1$s self) {", utils().name(type));
 			emitter().increaseIndentation();
-			emitter().emit("free(self);");
+			emitter().emit("if (self == NULL) return;");
+			emitter().emit("free((header_%s*) self - 1);", utils().name(type));
 			emitter().decreaseIndentation();
 			emitter().emit("}");
 			emitter().emit("");
@@ -439,9 +507,10 @@ public interface Strings {
 			emitter().increaseIndentation();
 			emitter().emit("if (self == NULL || buffer == NULL) return;");
 			emitter().emit("char* ptr = buffer;");
-			emitter().emit("*(size_t*) ptr =  strlen(self);");
+			emitter().emit("size_t length = length_%s(self);", utils().name(type));
+			emitter().emit("*(size_t*) ptr = length;");
 			emitter().emit("ptr = (char*)((size_t*) ptr + 1);");
-			emitter().emit("strcpy(ptr, self);");
+			emitter().emit("memcpy(ptr, self, length);");
 			emitter().decreaseIndentation();
 			emitter().emit("}");
 			emitter().emit("");
@@ -474,9 +543,9 @@ public interface Strings {
 			emitter().emit("char* ptr = buffer;");
 			emitter().emit("size_t length = *(size_t*) ptr;");
 			emitter().emit("ptr = (char*)((size_t*) ptr + 1);");
-			emitter().emit("%1$s result = calloc(1, length + 1);", utils().name(type));
+			emitter().emit("%1$s result = alloc_%1$s(length);", utils().name(type));
 			emitter().emit("if (result == NULL) return NULL;");
-			emitter().emit("strncpy(result, ptr, length);");
+			emitter().emit("memcpy(result, ptr, length);");
 			emitter().emit("return result;");
 			emitter().decreaseIndentation();
 			emitter().emit("}");
@@ -507,7 +576,7 @@ public interface Strings {
 			emitter().emit("size_t size_%1$s(const %1$s self) {", utils().name(type));
 			emitter().increaseIndentation();
 			emitter().emit("if (self == NULL) return 0;");
-			emitter().emit("return sizeof(size_t) + strlen(self);");
+			emitter().emit("return sizeof(size_t) + length_%s(self);", utils().name(type));
 			emitter().decreaseIndentation();
 			emitter().emit("}");
 			emitter().emit("");
@@ -536,11 +605,19 @@ public interface Strings {
 		default void definition(StringType type) {
 			emitter().emit("void copy_%1$s(%1$s* lhs, const %1$s rhs) {", utils().name(type));
 			emitter().increaseIndentation();
-			emitter().emit("if (lhs == NULL || rhs == NULL) return;");
-			emitter().emit("%s tmp = realloc(*lhs, sizeof(char) * (strlen(rhs) + 1));", utils().name(type));
-			emitter().emit("if (tmp == NULL) return;");
-			emitter().emit("*lhs = tmp;");
-			emitter().emit("strcpy(*lhs, rhs);");
+			emitter().emit("if (lhs == NULL || rhs == NULL || *lhs == rhs) return;");
+			emitter().emit("size_t length = length_%s(rhs);", utils().name(type));
+			emitter().emit("header_%s* header = *lhs == NULL ? NULL : (header_%1$s*) *lhs - 1;", utils().name(type));
+			emitter().emit("if (header == NULL || header->capacity < length) {");
+			emitter().increaseIndentation();
+			emitter().emit("header = realloc(header, sizeof(header_%s) + length + 1);", utils().name(type));
+			emitter().emit("if (header == NULL) return;");
+			emitter().emit("header->capacity = length;");
+			emitter().emit("*lhs = (%s) (header + 1);", utils().name(type));
+			emitter().decreaseIndentation();
+			emitter().emit("}");
+			emitter().emit("memcpy(*lhs, rhs, length + 1);");
+			emitter().emit("header->length = length;");
 			emitter().decreaseIndentation();
 			emitter().emit("}");
 			emitter().emit("");
@@ -571,7 +648,42 @@ public interface Strings {
 			emitter().increaseIndentation();
 			emitter().emit("if (lhs == NULL && rhs == NULL) return true;");
 			emitter().emit("if (lhs == NULL || rhs == NULL) return false;");
-			emitter().emit("return strcmp(lhs, rhs) == 0;");
+			emitter().emit("size_t length = length_%s(lhs);", utils().name(type));
+			emitter().emit("return length == length_%s(rhs) && memcmp(lhs, rhs, length) == 0;", utils().name(type));
+			emitter().decreaseIndentation();
+			emitter().emit("}");
+			emitter().emit("");
+		}
+	}
+
+	@Module
+	interface Hash {
+
+		@Binding(BindingKind.INJECTED)
+		Code code();
+		@Binding(BindingKind.INJECTED)
+		Emitter emitter();
+		@Binding(BindingKind.INJECTED)
+		Utils utils();
+
+		default void prototype(StringType type) {
+			emitter().emit("size_t hash_%1$s(const %1$s self);", utils().name(type));
+			emitter().emit("");
+		}
+
+		default void definition(StringType type) {
+			// FNV-1a
+			emitter().emit("size_t hash_%1$s(const %1$s self) {", utils().name(type));
+			emitter().increaseIndentation();
+			emitter().emit("if (self == NULL) return 0;");
+			emitter().emit("uint64_t hash = 14695981039346656037ULL;");
+			emitter().emit("size_t length = length_%s(self);", utils().name(type));
+			emitter().emit("for (size_t i = 0; i < length; i++) {");
+			emitter().increaseIndentation();
+			emitter().emit("hash = (hash ^ (unsigned char) self[i]) * 1099511628211ULL;");
+			emitter().decreaseIndentation();
+			emitter().emit("}");
+			emitter().emit("return (size_t) hash;");
 			emitter().decreaseIndentation();
 			emitter().emit("}");
 			emitter().emit("");
@@ -628,29 +740,29 @@ public interface Strings {
 		}
 
 		default void definition(StringType type) {
-			emitter().emit("%1$s concat_%1$s_%1$s(const %1$s lhs, const %1$s rhs) {", utils().name(type));
+			emitter().emit("static %1$s concat_chars_%1$s(const char* lhs, size_t lhs_length, const char* rhs, size_t rhs_length) {", utils().name(type));
 			emitter().increaseIndentation();
-			emitter().emit("if (lhs == NULL || rhs == NULL) return NULL;");
-			emitter().emit("size_t lhs_length = strlen(lhs);");
-			emitter().emit("size_t rhs_length = strlen(rhs);");
-			emitter().emit("%s result = calloc(1, lhs_length + rhs_length + 1);", utils().name(type));
+			emitter().emit("%1$s result = alloc_%1$s(lhs_length + rhs_length);", utils().name(type));
 			emitter().emit("if (result == NULL) return NULL;");
-			emitter().emit("strcat(result, lhs);");
-			emitter().emit("strcat(result + lhs_length, rhs);");
+			emitter().emit("memcpy(result, lhs, lhs_length);");
+			emitter().emit("memcpy(result + lhs_length, rhs, rhs_length);");
 			emitter().emit("return result;");
 			emitter().decreaseIndentation();
 			emitter().emit("}");
 			emitter().emit("");
 
+			emitter().emit("%1$s concat_%1$s_%1$s(const %1$s lhs, const %1$s rhs) {", utils().name(type));
+			emitter().increaseIndentation();
+			emitter().emit("if (lhs == NULL || rhs == NULL) return NULL;");
+			emitter().emit("return concat_chars_%1$s(lhs, length_%1$s(lhs), rhs, length_%1$s(rhs));", utils().name(type));
+			emitter().decreaseIndentation();
+			emitter().emit("}");
+			emitter().emit("");
+
 			emitter().emit("%1$s concat_%1$s_%2$s(const %1$s lhs, const %2$s rhs) {", utils().name(type), code().type(CharType.INSTANCE));
 			emitter().increaseIndentation();
 			emitter().emit("if (lhs == NULL) return NULL;");
-			emitter().emit("size_t length = strlen(lhs);");
-			emitter().emit("%s result = calloc(1, length + 2);", utils().name(type));
-			emitter().emit("if (result == NULL) return NULL;");
-			emitter().emit("strcpy(result, lhs);");
-			emitter().emit("result[length] = rhs;");
-			emitter().emit("return result;");
+			emitter().emit("return concat_chars_%1$s(lhs, length_%1$s(lhs), &rhs, 1);", utils().name(type));
 			emitter().decreaseIndentation();
 			emitter().emit("}");
 			emitter().emit("");
@@ -658,11 +770,7 @@ public interface Strings {
 			emitter().emit("%1$s concat_%2$s_%1$s(const %2$s lhs, const %1$s rhs) {", utils().name(type), code().type(CharType.INSTANCE));
 			emitter().increaseIndentation();
 			emitter().emit("if (rhs == NULL) return NULL;");
-			emitter().emit("%s result = calloc(1, strlen(rhs) + 2);", utils().name(type));
-			emitter().emit("if (result == NULL) return NULL;");
-			emitter().emit("strcpy(result + 1, rhs);");
-			emitter().emit("result[0] = lhs;");
-			emitter().emit("return result;");
+			emitter().emit("return concat_chars_%1$s(&lhs, 1, rhs, length_%1$s(rhs));", utils().name(type));
 			emitter().decreaseIndentation();
 			emitter().emit("}");
 			emitter().emit("");
@@ -670,12 +778,7 @@ public interface Strings {
 			emitter().emit("%1$s concat_%1$s_%2$s(const %1$s lhs, const %2$s rhs) {", utils().name(type), code().type(BoolType.INSTANCE));
 			emitter().increaseIndentation();
 			emitter().emit("if (lhs == NULL) return NULL;");
-			emitter().emit("size_t length = strlen(lhs);");
-			emitter().emit("%s result = calloc(1, length + 1 + (rhs ? 4 : 5));", utils().name(type));
-			emitter().emit("if (result == NULL) return NULL;");
-			emitter().emit("strcpy(result, lhs);");
-			emitter().emit("strcpy(result + length, rhs ? \"true\" : \"false\");");
-			emitter().emit("return result;");
+			emitter().emit("return concat_chars_%1$s(lhs, length_%1$s(lhs), rhs ? \"true\" : \"false\", rhs ? 4 : 5);", utils().name(type));
 			emitter().decreaseIndentation();
 			emitter().emit("}");
 			emitter().emit("");
@@ -683,108 +786,120 @@ public interface Strings {
 			emitter().emit("%1$s concat_%2$s_%1$s(const %2$s lhs, const %1$s rhs) {", utils().name(type), code().type(BoolType.INSTANCE));
 			emitter().increaseIndentation();
 			emitter().emit("if (rhs == NULL) return NULL;");
-			emitter().emit("size_t length = rhs ? 4 : 5;");
-			emitter().emit("%s result = calloc(1, strlen(rhs) + 1 + length);", utils().name(type));
-			emitter().emit("if (result == NULL) return NULL;");
-			emitter().emit("strcpy(result, lhs ? \"true\" : \"false\");");
-			emitter().emit("strcpy(result + length, rhs);");
-			emitter().emit("return result;");
+			emitter().emit("return concat_chars_%1$s(lhs ? \"true\" : \"false\", lhs ? 4 : 5, rhs, length_%1$s(rhs));", utils().name(type));
 			emitter().decreaseIndentation();
 			emitter().emit("}");
 			emitter().emit("");
 
-			emitter().emit("%1$s concat_%1$s_%2$s(const %1$s lhs, const %2$s rhs) {", utils().name(type), code().type(RealType.f64));
+			concatNumber(type, code().type(RealType.f64), "%%g");
+			concatNumber(type, code().type(new IntType(OptionalInt.empty(), true)), "%%d");
+			concatNumber(type, code().type(new IntType(OptionalInt.empty(), false)), "%%u");
+		}
+
+		default void concatNumber(StringType type, String numberType, String format) {
+			emitter().emit("%1$s concat_%1$s_%2$s(const %1$s lhs, const %2$s rhs) {", utils().name(type), numberType);
 			emitter().increaseIndentation();
 			emitter().emit("if (lhs == NULL) return NULL;");
-			emitter().emit("char buffer[256] = {0};");
-			emitter().emit("sprintf(buffer, \"%%g\", rhs);");
-			emitter().emit("size_t str_len = strlen(lhs);");
-			emitter().emit("size_t buf_len = strlen(buffer);");
-			emitter().emit("%s result = calloc(1, str_len + buf_len + 1);", utils().name(type));
-			emitter().emit("if (result == NULL) return NULL;");
-			emitter().emit("strcpy(result, lhs);");
-			emitter().emit("strcpy(result + str_len, buffer);");
-			emitter().emit("return result;");
+			emitter().emit("char buffer[256];");
+			emitter().emit("int buf_len = sprintf(buffer, \"" + format + "\", rhs);");
+			emitter().emit("return concat_chars_%1$s(lhs, length_%1$s(lhs), buffer, buf_len);", utils().name(type));
 			emitter().decreaseIndentation();
 			emitter().emit("}");
 			emitter().emit("");
 
-			emitter().emit("%1$s concat_%2$s_%1$s(const %2$s lhs, const %1$s rhs) {", utils().name(type), code().type(RealType.f64));
+			emitter().emit("%1$s concat_%2$s_%1$s(const %2$s lhs, const %1$s rhs) {", utils().name(type), numberType);
 			emitter().increaseIndentation();
 			emitter().emit("if (rhs == NULL) return NULL;");
-			emitter().emit("char buffer[256] = {0};");
-			emitter().emit("sprintf(buffer, \"%%g\", lhs);");
-			emitter().emit("size_t buf_len = strlen(buffer);");
-			emitter().emit("size_t str_len = strlen(rhs);");
-			emitter().emit("%s result = calloc(1, buf_len + str_len  + 1);", utils().name(type));
-			emitter().emit("if (result == NULL) return NULL;");
-			emitter().emit("strcpy(result, buffer);");
-			emitter().emit("strcpy(result + buf_len, rhs);");
-			emitter().emit("return result;");
+			emitter().emit("char buffer[256];");
+			emitter().emit("int buf_len = sprintf(buffer, \"" + format + "\", lhs);");
+			emitter().emit("return concat_chars_%1$s(buffer, buf_len, rhs, length_%1$s(rhs));", utils().name(type));
 			emitter().decreaseIndentation();
 			emitter().emit("}");
 			emitter().emit("");
+		}
+	}
 
-			emitter().emit("%1$s concat_%1$s_%2$s(const %1$s lhs, const %2$s rhs) {", utils().name(type), code().type(new IntType(OptionalInt.empty(), true)));
+	/**
+	 * Appends to a string in place. The capacity grows geometrically, so that repeatedly appending to a string takes
+	 * linear time in the total length.
+	 */
+	@Module
+	interface Append {
+
+		@Binding(BindingKind.INJECTED)
+		Code code();
+		@Binding(BindingKind.INJECTED)
+		Emitter emitter();
+		@Binding(BindingKind.INJECTED)
+		Utils utils();
+
+		default void prototype(StringType type) {
+			emitter().emit("void append_%1$s_%1$s(%1$s* lhs, const %1$s rhs);", utils().name(type));
+			emitter().emit("");
+			Stream.of(code().type(CharType.INSTANCE), code().type(BoolType.INSTANCE), code().type(RealType.f64), code().type(new IntType(OptionalInt.empty(), true)), code().type(new IntType(OptionalInt.empty(), false))).forEach(other -> {
+				emitter().emit("void append_%1$s_%2$s(%1$s* lhs, const %2$s rhs);", utils().name(type), other);
+				emitter().emit("");
+			});
+		}
+
+		default void definition(StringType type) {
+			emitter().emit("static void append_chars_%1$s(%1$s* lhs, const char* rhs, size_t rhs_length) {", utils().name(type));
 			emitter().increaseIndentation();
-			emitter().emit("if (lhs == NULL) return NULL;");
-			emitter().emit("char buffer[256] = {0};");
-			emitter().emit("sprintf(buffer, \"%%d\", rhs);");
-			emitter().emit("size_t str_len = strlen(lhs);");
-			emitter().emit("size_t buf_len = strlen(buffer);");
-			emitter().emit("%s result = calloc(1, str_len + buf_len + 1);", utils().name(type));
-			emitter().emit("if (result == NULL) return NULL;");
-			emitter().emit("strcpy(result, lhs);");
-			emitter().emit("strcpy(result + str_len, buffer);");
-			emitter().emit("return result;");
+			emitter().emit("if (lhs == NULL || *lhs == NULL) return;");
+			emitter().emit("size_t length = length_%s(*lhs);", utils().name(type));
+			emitter().emit("header_%s* header = (header_%1$s*) *lhs - 1;", utils().name(type));
+			emitter().emit("if (header->capacity < length + rhs_length) {");
+			emitter().increaseIndentation();
+			emitter().emit("size_t capacity = 2 * header->capacity;");
+			emitter().emit("if (capacity < length + rhs_length) capacity = length + rhs_length;");
+			emitter().emit("_Bool self = rhs == *lhs;");
+			emitter().emit("header = realloc(header, sizeof(header_%s) + capacity + 1);", utils().name(type));
+			emitter().emit("if (header == NULL) return;");
+			emitter().emit("header->capacity = capacity;");
+			emitter().emit("*lhs = (%s) (header + 1);", utils().name(type));
+			emitter().emit("if (self) rhs = *lhs;");
+			emitter().decreaseIndentation();
+			emitter().emit("}");
+			emitter().emit("memcpy(*lhs + length, rhs, rhs_length);");
+			emitter().emit("(*lhs)[length + rhs_length] = '\\0';");
+			emitter().emit("header->length = length + rhs_length;");
 			emitter().decreaseIndentation();
 			emitter().emit("}");
 			emitter().emit("");
 
-			emitter().emit("%1$s concat_%2$s_%1$s(const %2$s lhs, const %1$s rhs) {", utils().name(type), code().type(new IntType(OptionalInt.empty(), true)));
+			emitter().emit("void append_%1$s_%1$s(%1$s* lhs, const %1$s rhs) {", utils().name(type));
 			emitter().increaseIndentation();
-			emitter().emit("if (rhs == NULL) return NULL;");
-			emitter().emit("char buffer[256] = {0};");
-			emitter().emit("sprintf(buffer, \"%%d\", lhs);");
-			emitter().emit("size_t buf_len = strlen(buffer);");
-			emitter().emit("size_t str_len = strlen(rhs);");
-			emitter().emit("%s result = calloc(1, buf_len + str_len  + 1);", utils().name(type));
-			emitter().emit("if (result == NULL) return NULL;");
-			emitter().emit("strcpy(result, buffer);");
-			emitter().emit("strcpy(result + buf_len, rhs);");
-			emitter().emit("return result;");
+			emitter().emit("if (rhs == NULL) return;");
+			emitter().emit("append_chars_%1$s(lhs, rhs, length_%1$s(rhs));", utils().name(type));
 			emitter().decreaseIndentation();
 			emitter().emit("}");
 			emitter().emit("");
 
-			emitter().emit("%1$s concat_%1$s_%2$s(const %1$s lhs, const %2$s rhs) {", utils().name(type), code().type(new IntType(OptionalInt.empty(), false)));
+			emitter().emit("void append_%1$s_%2$s(%1$s* lhs, const %2$s rhs) {", utils().name(type), code().type(CharType.INSTANCE));
 			emitter().increaseIndentation();
-			emitter().emit("if (lhs == NULL) return NULL;");
-			emitter().emit("char buffer[256] = {0};");
-			emitter().emit("sprintf(buffer, \"%%u\", rhs);");
-			emitter().emit("size_t str_len = strlen(lhs);");
-			emitter().emit("size_t buf_len = strlen(buffer);");
-			emitter().emit("%s result = calloc(1, str_len + buf_len + 1);", utils().name(type));
-			emitter().emit("if (result == NULL) return NULL;");
-			emitter().emit("strcpy(result, lhs);");
-			emitter().emit("strcpy(result + str_len, buffer);");
-			emitter().emit("return result;");
+			emitter().emit("append_chars_%s(lhs, &rhs, 1);", utils().name(type));
 			emitter().decreaseIndentation();
 			emitter().emit("}");
 			emitter().emit("");
 
-			emitter().emit("%1$s concat_%2$s_%1$s(const %2$s lhs, const %1$s rhs) {", utils().name(type), code().type(new IntType(OptionalInt.empty(), false)));
+			emitter().emit("void append_%1$s_%2$s(%1$s* lhs, const %2$s rhs) {", utils().name(type), code().type(BoolType.INSTANCE));
 			emitter().increaseIndentation();
-			emitter().emit("if (rhs == NULL) return NULL;");
-			emitter().emit("char buffer[256] = {0};");
-			emitter().emit("sprintf(buffer, \"%%u\", lhs);");
-			emitter().emit("size_t buf_len = strlen(buffer);");
-			emitter().emit("size_t str_len = strlen(rhs);");
-			emitter().emit("%s result = calloc(1, buf_len + str_len  + 1);", utils().name(type));
-			emitter().emit("if (result == NULL) return NULL;");
-			emitter().emit("strcpy(result, buffer);");
-			emitter().emit("strcpy(result + buf_len, rhs);");
-			emitter().emit("return result;");
+			emitter().emit("append_chars_%s(lhs, rhs ? \"true\" : \"false\", rhs ? 4 : 5);", utils().name(type));
+			emitter().decreaseIndentation();
+			emitter().emit("}");
+			emitter().emit("");
+
+			appendNumber(type, code().type(RealType.f64), "%%g");
+			appendNumber(type, code().type(new IntType(OptionalInt.empty(), true)), "%%d");
+			appendNumber(type, code().type(new IntType(OptionalInt.empty(), false)), "%%u");
+		}
+
+		default void appendNumber(StringType type, String numberType, String format) {
+			emitter().emit("void append_%1$s_%2$s(%1$s* lhs, const %2$s rhs) {", utils().name(type), numberType);
+			emitter().increaseIndentation();
+			emitter().emit("char buffer[256];");
+			emitter().emit("int buf_len = sprintf(buffer, \"" + format + "\", rhs);");
+			emitter().emit("append_chars_%s(lhs, buffer, buf_len);", utils().name(type));
 			emitter().decreaseIndentation();
 			emitter().emit("}");
 			emitter().emit("");
@@ -814,7 +929,7 @@ public interface Strings {
 			emitter().emit("%1$s membership_%2$s(const %2$s self, %3$s elem) {", code().type(BoolType.INSTANCE), utils().name(type), code().type(CharType.INSTANCE));
 			emitter().increaseIndentation();
 			emitter().emit("if (self == NULL) return false;");
-			emitter().emit("return strchr(self, elem) != NULL;");
+			emitter().emit("return memchr(self, elem, length_%s(self) + 1) != NULL;", utils().name(type));
 			emitter().decreaseIndentation();
 			emitter().emit("}");
 			emitter().emit("");
@@ -844,7 +959,10 @@ public interface Strings {
 			emitter().emit("%1$s less_than_%2$s(const %2$s lhs, const %2$s rhs) {", code().type(BoolType.INSTANCE), utils().name(type));
 			emitter().increaseIndentation();
 			emitter().emit("if (lhs == NULL || rhs == NULL) return false;");
-			emitter().emit("return strcmp(lhs, rhs) < 0;");
+			emitter().emit("size_t lhs_length = length_%s(lhs);", utils().name(type));
+			emitter().emit("size_t rhs_length = length_%s(rhs);", utils().name(type));
+			emitter().emit("int result = memcmp(lhs, rhs, lhs_length < rhs_length ? lhs_length : rhs_length);");
+			emitter().emit("return result < 0 || (result == 0 && lhs_length < rhs_length);");
 			emitter().decreaseIndentation();
 			emitter().emit("}");
 			emitter().emit("");
@@ -973,5 +1091,9 @@ public interface Strings {
 		default Stream<StringType> wrapIfString(StringType t) {
 			return Stream.of(t);
 		}
+
+		default Stream<StringType> wrapIfString(CallableType t) {
+			return wrapIfString(t.getReturnType());
+		}
 	}
 }
@@ -54,6 +54,7 @@ public interface Structure {
 		actorMachineInitHeader(name, actorMachine);
 		actorMachineFreeHeader(name, actorMachine);
 		actorMachineControllerHeader(name, actorMachine);
+		backend().controllers().emitProfileWriterHeader(name);
 	}
 
 	default void actor(String name, Entity entity) {}
@@ -66,6 +67,11 @@ public interface Structure {
 		actorMachineTransitions(name, actorMachine);
 		actorMachineConditions(name, actorMachine);
 		actorMachineController(name, actorMachine);
+		backend().controllers().emitProfileWriter(name, entityName(), actorMachine);
+	}
+
+	default String entityName() {
+		return backend().main().entityDecls().get(backend().instance().get().getEntityName()).getOriginalName();
 	}
 
 	default void actorMachineControllerHeader(String name, ActorMachine actorMachine) {
@@ -98,6 +104,8 @@ public interface Structure {
 		emitter().increaseIndentation();
 		emitter().emit("self->program_counter = 0;");
 		emitter().emit("");
+		backend().controllers().emitConditionCacheInit(actorMachine);
+		backend().arena().emitInit();
 
 		emitter().emit("// parameters");
 		actorMachine.getValueParameters().forEach(d -> {
@@ -143,6 +151,7 @@ public interface Structure {
 			}
 			i = i + 1;
 		}
+		backend().arena().emitFree();
 		emitter().decreaseIndentation();
 		emitter().emit("}");
 		emitter().emit("");
@@ -172,9 +181,11 @@ public interface Structure {
 		for (Transition transition : actorMachine.getTransitions()) {
 			emitter().emit("static void %s_transition_%d(%s_state *self) {", name, i, name);
 			emitter().increaseIndentation();
+			backend().arena().enterTransition();
 			backend().trackable().enter();
 			transition.getBody().forEach(code()::execute);
 			backend().trackable().exit();
+			backend().arena().exitTransition();
 			emitter().decreaseIndentation();
 			emitter().emit("}");
 			emitter().emit("");
@@ -188,11 +199,21 @@ public interface Structure {
 		for (Condition condition : actorMachine.getConditions()) {
 			emitter().emit("static _Bool %s_condition_%d(%s_state *self) {", name, i, name);
 			emitter().increaseIndentation();
+			boolean memoized = backend().controllers().isMemoized(condition);
+			if (memoized) {
+				emitter().emit("if (self->condition_valid[%d]) {", i);
+				emitter().emit("	return self->condition_value[%d];", i);
+				emitter().emit("}");
+			}
 			backend().trackable().enter();
 			String result = evaluateCondition(condition);
 			String tmp = backend().variables().generateTemp();
 			emitter().emit("%s = %s;", backend().code().declaration(BoolType.INSTANCE, tmp), result);
 			backend().trackable().exit();
+			if (memoized) {
+				emitter().emit("self->condition_value[%d] = %s;", i, tmp);
+				emitter().emit("self->condition_valid[%d] = true;", i);
+			}
 			emitter().emit("return %s;", tmp);
 			emitter().decreaseIndentation();
 			emitter().emit("}");
@@ -305,6 +326,10 @@ public interface Structure {
 		}
 		emitter().emit("");
 
+		backend().controllers().emitProfileCounters(actorMachine);
+		backend().controllers().emitConditionCache(actorMachine);
+		backend().arena().emitStateField();
+
 		int i = 0;
 		for (Scope scope : actorMachine.getScopes()) {
 			emitter().emit("// scope %d", i);
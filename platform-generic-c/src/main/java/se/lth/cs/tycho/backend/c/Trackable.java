@@ -27,7 +27,9 @@ public interface Trackable {
 	}
 
 	@Binding(BindingKind.LAZY)
-	default Stack<Map<String, Type>> pointers() { return new Stack<>(); }
+	default ThreadLocal<Stack<Map<String, Type>>> pointerStacks() { return ThreadLocal.withInitial(Stack::new); }
+
+	default Stack<Map<String, Type>> pointers() { return pointerStacks().get(); }
 
 	default void enter() {
 		pointers().push(new HashMap<>());
@@ -46,6 +48,18 @@ public interface Trackable {
 		}
 	}
 
+	/**
+	 * Stops tracking a pointer whose value is handed over to another owner, and returns whether it was tracked.
+	 */
+	default boolean untrack(String ptr) {
+		for (Map<String, Type> pointers : pointers()) {
+			if (pointers.remove(ptr) != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	default void release(String ptr, Type type) {
 		backend().free().apply(type, ptr);
 	}
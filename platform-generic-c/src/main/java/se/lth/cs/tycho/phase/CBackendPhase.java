@@ -5,13 +5,22 @@ import se.lth.cs.tycho.compiler.CompilationTask;
 import se.lth.cs.tycho.compiler.Compiler;
 import se.lth.cs.tycho.compiler.Context;
 import se.lth.cs.tycho.ir.util.ImmutableList;
+import se.lth.cs.tycho.backend.c.AlternativeChannels;
+import se.lth.cs.tycho.backend.c.Arena;
 import se.lth.cs.tycho.backend.c.Backend;
 import se.lth.cs.tycho.backend.c.Controllers;
+import se.lth.cs.tycho.backend.c.Emitter;
+import se.lth.cs.tycho.backend.c.Main;
+import se.lth.cs.tycho.backend.c.MainNetwork;
+import se.lth.cs.tycho.backend.c.Partitioning;
+import se.lth.cs.tycho.backend.c.Sets;
 import se.lth.cs.tycho.reporting.CompilationException;
 import se.lth.cs.tycho.reporting.Diagnostic;
 import se.lth.cs.tycho.settings.Setting;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
@@ -25,14 +34,14 @@ public class CBackendPhase implements Phase {
 
 	@Override
 	public List<Setting<?>> getPhaseSettings() {
-		return ImmutableList.of(Controllers.scopeLivenessAnalysis);
+		return ImmutableList.of(Controllers.scopeLivenessAnalysis, Controllers.conditionProfile, Controllers.computedGotoController, Controllers.conditionMemoization, Main.incrementalCodeGeneration, Main.codeGenerationThreads, Main.shareActorCode, MainNetwork.readyQueueScheduler, Partitioning.runtimeThreads, Partitioning.partitionFile, Sets.hashThreshold, Arena.arenaAllocation, AlternativeChannels.pointerTokenChannels);
 	}
 
 	@Override
 	public CompilationTask execute(CompilationTask task, Context context) {
 		Path path = context.getConfiguration().get(Compiler.targetPath);
 		String filename = "prelude.h";
-		copyResource(path, filename);
+		copyResource(path, filename, context.getConfiguration().get(Main.incrementalCodeGeneration));
 		Backend backend = MultiJ.from(Backend.class)
 				.bind("task").to(task)
 				.bind("context").to(context)
@@ -41,9 +50,19 @@ public class CBackendPhase implements Phase {
 		return task;
 	}
 
-	private void copyResource(Path path, String filename) {
-		try {
-			Files.copy(ClassLoader.getSystemResourceAsStream("c_backend_code/"+filename), path.resolve(filename), StandardCopyOption.REPLACE_EXISTING);
+	private void copyResource(Path path, String filename, boolean onlyIfChanged) {
+		try (InputStream in = ClassLoader.getSystemResourceAsStream("c_backend_code/"+filename)) {
+			if (onlyIfChanged) {
+				ByteArrayOutputStream content = new ByteArrayOutputStream();
+				byte[] buffer = new byte[8192];
+				int n;
+				while ((n = in.read(buffer)) > 0) {
+					content.write(buffer, 0, n);
+				}
+				Emitter.writeIfChanged(path.resolve(filename), content.toByteArray());
+			} else {
+				Files.copy(in, path.resolve(filename), StandardCopyOption.REPLACE_EXISTING);
+			}
 		} catch (IOException e) {
 			throw new CompilationException(new Diagnostic(Diagnostic.Kind.ERROR, "Could not generate code to \""+filename+"\""));
 		}